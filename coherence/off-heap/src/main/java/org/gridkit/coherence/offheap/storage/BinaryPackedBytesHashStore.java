@@ -3,6 +3,7 @@
  */
 package org.gridkit.coherence.offheap.storage;
 
+import com.griddynamics.gridkit.collections.array.SegmentedDynamicAtomicArray;
 import com.tangosol.io.BinaryStore;
 import com.tangosol.util.Binary;
 
@@ -0,0 +1,217 @@
+package org.gridkit.coherence.offheap.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.BitSet;
+
+/**
+ * {@link PageManager} keeping pages outside of Java heap, either in direct buffers or in memory mapped file.
+ * Memory is reserved in slabs of several pages, slabs are never returned, released pages are reused via free list.
+ * Page access methods do not lock, allocation and release are thread safe.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class DirectPageManager implements PageManager {
+
+	private static final int SLAB_SIZE = 16 << 20;
+
+	private final int pageSize;
+	private final int pageLimit;
+	private final int pagesPerSlab;
+	private final byte[] zeroPage;
+
+	private volatile ByteBuffer[] slabs;
+
+	// stack of released page ids
+	private int[] freeList = new int[16];
+	private int freeCount;
+	// pages above this mark have never been allocated
+	private int highMark;
+	private final BitSet allocated = new BitSet();
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	/**
+	 * Pages are allocated in direct buffers.
+	 */
+	public DirectPageManager(int pageSize, int pageLimit) {
+		this(pageSize, pageLimit, null);
+	}
+
+	/**
+	 * Pages are mapped from given file, file is extended as pages are allocated.
+	 * @param file <code>null</code> - use direct buffers
+	 */
+	public DirectPageManager(int pageSize, int pageLimit, File file) {
+		if (pageSize <= 0 || pageLimit <= 0) {
+			throw new IllegalArgumentException("Page size and page limit should be positive");
+		}
+		this.pageSize = pageSize;
+		this.pageLimit = pageLimit;
+		this.pagesPerSlab = Math.max(1, SLAB_SIZE / pageSize);
+		this.zeroPage = new byte[pageSize];
+		this.slabs = new ByteBuffer[0];
+		if (file == null) {
+			raf = null;
+			channel = null;
+		}
+		else {
+			try {
+				raf = new RandomAccessFile(file, "rw");
+				channel = raf.getChannel();
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Cannot open storage file " + file, e);
+			}
+		}
+	}
+
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getPageLimit() {
+		return pageLimit;
+	}
+
+	public synchronized int getPagesInUse() {
+		return highMark - freeCount;
+	}
+
+	/**
+	 * Released pages are reused first, new pages are taken in order. New page is zeroed.
+	 */
+	@Override
+	public synchronized int allocate() {
+		int pageId;
+		if (freeCount > 0) {
+			pageId = freeList[--freeCount];
+		}
+		else if (highMark < pageLimit) {
+			pageId = highMark;
+			int slabNo = pageId / pagesPerSlab;
+			if (slabNo >= slabs.length) {
+				addSlab(slabNo);
+			}
+			++highMark;
+		}
+		else {
+			throw new RuntimeException("Page manager is out of memory");
+		}
+		allocated.set(pageId);
+		write(pageId, 0, zeroPage);
+		return pageId;
+	}
+
+	private void addSlab(int slabNo) {
+		int pages = Math.min(pagesPerSlab, pageLimit - slabNo * pagesPerSlab);
+		ByteBuffer slab;
+		if (channel == null) {
+			slab = ByteBuffer.allocateDirect(pages * pageSize);
+		}
+		else {
+			try {
+				slab = channel.map(MapMode.READ_WRITE, ((long)slabNo) * pagesPerSlab * pageSize, pages * pageSize);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to map slab " + slabNo, e);
+			}
+		}
+		ByteBuffer[] newSlabs = new ByteBuffer[slabNo + 1];
+		System.arraycopy(slabs, 0, newSlabs, 0, slabs.length);
+		newSlabs[slabNo] = slab;
+		// readers see either old or new array, slabs already published never change
+		slabs = newSlabs;
+	}
+
+	@Override
+	public synchronized void release(int pageId) {
+		if (pageId < 0 || !allocated.get(pageId)) {
+			throw new IllegalArgumentException("Page " + pageId + " is not allocated");
+		}
+		allocated.clear(pageId);
+		if (freeCount == freeList.length) {
+			int[] list = new int[2 * freeList.length];
+			System.arraycopy(freeList, 0, list, 0, freeCount);
+			freeList = list;
+		}
+		freeList[freeCount++] = pageId;
+	}
+
+	/**
+	 * @return view of page memory, no data is copied. Position is 0, limit and capacity are equal to page size.
+	 */
+	@Override
+	public ByteBuffer getBuffer(int pageId) {
+		ByteBuffer bb = slab(pageId).duplicate();
+		int offs = (pageId % pagesPerSlab) * pageSize;
+		bb.limit(offs + pageSize);
+		bb.position(offs);
+		return bb.slice();
+	}
+
+	@Override
+	public byte[] read(int page, int offset, int len) {
+		byte[] buf = new byte[len];
+		read(page, offset, buf, 0, len);
+		return buf;
+	}
+
+	/**
+	 * Bulk read into provided buffer.
+	 */
+	public void read(int page, int offset, byte[] buf, int bufOffset, int len) {
+		checkRange(offset, len);
+		ByteBuffer bb = slab(page).duplicate();
+		bb.position((page % pagesPerSlab) * pageSize + offset);
+		bb.get(buf, bufOffset, len);
+	}
+
+	@Override
+	public void write(int page, int offset, byte[] chunk) {
+		write(page, offset, chunk, 0, chunk.length);
+	}
+
+	/**
+	 * Bulk write from provided buffer.
+	 */
+	public void write(int page, int offset, byte[] chunk, int chunkOffset, int len) {
+		checkRange(offset, len);
+		ByteBuffer bb = slab(page).duplicate();
+		bb.position((page % pagesPerSlab) * pageSize + offset);
+		bb.put(chunk, chunkOffset, len);
+	}
+
+	private ByteBuffer slab(int pageId) {
+		ByteBuffer[] slabs = this.slabs;
+		int slabNo = pageId / pagesPerSlab;
+		if (pageId < 0 || slabNo >= slabs.length) {
+			throw new IllegalArgumentException("No such page " + pageId);
+		}
+		return slabs[slabNo];
+	}
+
+	private void checkRange(int offset, int len) {
+		if (offset < 0 || len < 0 || offset + len > pageSize) {
+			throw new IndexOutOfBoundsException("Page size " + pageSize + ". Required subrange " + offset + " by " + len);
+		}
+	}
+
+	/**
+	 * Closes mapped file, direct memory is reclaimed by GC once manager is unreachable.
+	 */
+	public synchronized void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+				raf.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright 2009 Grid Dynamics Consulting Services, Inc.
+ */
+package org.gridkit.coherence.offheap.storage;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.griddynamics.gridkit.collections.LongBinaryStore;
+import com.griddynamics.gridkit.collections.LongEntryIterator;
+import com.griddynamics.gridkit.collections.map.OffHeapLongBinaryStore;
+import com.tangosol.io.BinaryStore;
+import com.tangosol.io.Serializer;
+import com.tangosol.util.Binary;
+import com.tangosol.util.ExternalizableHelper;
+
+/**
+ * {@link BinaryStore} for caches keyed by {@link Long}. Keys are deserialized once on entry
+ * and kept as <code>long</code> in underlying {@link LongBinaryStore}, so hashing and comparison do not touch key binaries.
+ * <p>
+ * Int decorated keys (partition decoration) are supported, decoration is kept with value
+ * and key binary is restored in {@link #keys()}. Key serialization is expected to be canonical,
+ * i.e. serializing deserialized key produces same binary.
+ * <p>
+ * If serializer writes {@link Long} as fixed prefix followed by packed long (as default Coherence serialization does),
+ * keys are encoded and decoded directly, without serializer. Format is verified on construction.
+ * 
+ * @author Alexey Ragozin (aragozin@gridsynamics.com)
+ */
+public class LongKeyBinaryStore implements BinaryStore {
+
+    private static final byte PLAIN = 0;
+    private static final byte INT_DECORATED = 1;
+
+    private static final int HEADER_SIZE = 5;
+    private static final long[] FORMAT_SAMPLES = {0, 1, -1, 63, 64, -64, -65, 1l << 20, -(1l << 40), Long.MAX_VALUE, Long.MIN_VALUE};
+
+    private final LongBinaryStore store;
+    private final Serializer serializer;
+    // serialized Long without packed value, null if serializer uses other format
+    private final byte[] longPrefix;
+
+    public LongKeyBinaryStore() {
+        this(new OffHeapLongBinaryStore(), null);
+    }
+
+    /**
+     * @param serializer <code>null</code> - default Coherence serialization
+     */
+    public LongKeyBinaryStore(LongBinaryStore store, Serializer serializer) {
+        this.store = store;
+        this.serializer = serializer;
+        this.longPrefix = detectLongPrefix();
+    }
+
+    private byte[] detectLongPrefix() {
+        Binary zero = serialize(0);
+        if (zero.length() == 0) {
+            return null;
+        }
+        // packed zero is single byte
+        byte[] prefix = new byte[zero.length() - 1];
+        zero.copyBytes(0, prefix.length, prefix, 0);
+        for(long sample: FORMAT_SAMPLES) {
+            if (!serialize(sample).equals(encode(prefix, sample))) {
+                return null;
+            }
+        }
+        return prefix;
+    }
+
+    @Override
+    public Binary load(Binary binKey) {
+        byte[] data = store.load(toLong(undecorate(binKey)));
+        if (data == null) {
+            return null;
+        }
+        int offs = data[0] == INT_DECORATED ? HEADER_SIZE : 1;
+        return new Binary(data, offs, data.length - offs);
+    }
+
+    @Override
+    public void store(Binary binKey, Binary binValue) {
+        boolean decorated = ExternalizableHelper.isIntDecorated(binKey);
+        int offs = decorated ? HEADER_SIZE : 1;
+        byte[] data = new byte[offs + binValue.length()];
+        if (decorated) {
+            int decoration = ExternalizableHelper.getIntDecoration(binKey);
+            data[0] = INT_DECORATED;
+            data[1] = (byte) (decoration >> 24);
+            data[2] = (byte) (decoration >> 16);
+            data[3] = (byte) (decoration >> 8);
+            data[4] = (byte) decoration;
+        }
+        else {
+            data[0] = PLAIN;
+        }
+        binValue.copyBytes(0, binValue.length(), data, offs);
+        store.store(toLong(undecorate(binKey)), data);
+    }
+
+    @Override
+    public void erase(Binary binKey) {
+        store.erase(toLong(undecorate(binKey)));
+    }
+
+    @Override
+    public void eraseAll() {
+        store.eraseAll();
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Decorations are captured together with keys, values are not loaded.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Iterator keys() {
+        final LongEntryIterator it = store.entries(HEADER_SIZE);
+        return new Iterator<Binary>() {
+
+            long lastKey;
+            boolean beforeStart = true;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Binary next() {
+                lastKey = it.next();
+                beforeStart = false;
+                Binary bin = fromLong(lastKey);
+                byte[] header = it.valuePrefix();
+                if (header[0] == INT_DECORATED) {
+                    int decoration = ((header[1] & 0xFF) << 24) | ((header[2] & 0xFF) << 16) | ((header[3] & 0xFF) << 8) | (header[4] & 0xFF);
+                    bin = ExternalizableHelper.decorateBinary(bin, decoration);
+                }
+                return bin;
+            }
+
+            @Override
+            public void remove() {
+                if (beforeStart) {
+                    throw new IllegalStateException("Before start");
+                }
+                store.erase(lastKey);
+            }
+        };
+    }
+
+    private static Binary undecorate(Binary binKey) {
+        return ExternalizableHelper.isIntDecorated(binKey) ? ExternalizableHelper.removeIntDecoration(binKey) : binKey;
+    }
+
+    protected long toLong(Binary binKey) {
+        if (longPrefix != null && isPackedLong(binKey)) {
+            return decode(binKey, longPrefix.length);
+        }
+        Object key = serializer == null ? ExternalizableHelper.fromBinary(binKey) : ExternalizableHelper.fromBinary(binKey, serializer);
+        if (key instanceof Long) {
+            return ((Long) key).longValue();
+        }
+        else {
+            throw new IllegalArgumentException("Key should be Long but was " + (key == null ? "null" : key.getClass().getName()));
+        }
+    }
+
+    protected Binary fromLong(long key) {
+        return longPrefix != null ? encode(longPrefix, key) : serialize(key);
+    }
+
+    private Binary serialize(long key) {
+        Long boxed = Long.valueOf(key);
+        return serializer == null ? ExternalizableHelper.toBinary(boxed) : ExternalizableHelper.toBinary(boxed, serializer);
+    }
+
+    /**
+     * Packed format: sign bit and 6 bits in first byte, 7 bits in each following byte, high bit marks continuation.
+     */
+    private static Binary encode(byte[] prefix, long value) {
+        byte[] data = new byte[prefix.length + 10];
+        System.arraycopy(prefix, 0, data, 0, prefix.length);
+        int pos = prefix.length;
+        int b = 0;
+        if (value < 0) {
+            b = 0x40;
+            value = ~value;
+        }
+        b |= (int) (value & 0x3F);
+        value >>>= 6;
+        while(value != 0) {
+            data[pos++] = (byte) (b | 0x80);
+            b = (int) (value & 0x7F);
+            value >>>= 7;
+        }
+        data[pos++] = (byte) b;
+        return new Binary(data, 0, pos);
+    }
+
+    private boolean isPackedLong(Binary bin) {
+        int len = bin.length();
+        if (len <= longPrefix.length || len > longPrefix.length + 10) {
+            return false;
+        }
+        for(int i = 0; i != longPrefix.length; ++i) {
+            if (bin.byteAt(i) != longPrefix[i]) {
+                return false;
+            }
+        }
+        // continuation bit should be set on all bytes but last
+        for(int i = longPrefix.length; i != len - 1; ++i) {
+            if ((bin.byteAt(i) & 0x80) == 0) {
+                return false;
+            }
+        }
+        return (bin.byteAt(len - 1) & 0x80) == 0;
+    }
+
+    private static long decode(Binary bin, int offset) {
+        int b = bin.byteAt(offset);
+        boolean negative = (b & 0x40) != 0;
+        long value = b & 0x3F;
+        int shift = 6;
+        for(int i = offset + 1; i < bin.length(); ++i) {
+            b = bin.byteAt(i);
+            value |= ((long) (b & 0x7F)) << shift;
+            shift += 7;
+        }
+        return negative ? ~value : value;
+    }
+}
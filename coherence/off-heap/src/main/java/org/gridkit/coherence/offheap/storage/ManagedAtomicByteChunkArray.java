@@ -4,6 +4,8 @@ import java.util.Arrays;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import com.griddynamics.gridkit.collections.DynamicAtomicArray;
+
 public class ManagedAtomicByteChunkArray implements DynamicAtomicArray<byte[]> {
 	
 	private static int CONCURENCY_FACTOR = 16;
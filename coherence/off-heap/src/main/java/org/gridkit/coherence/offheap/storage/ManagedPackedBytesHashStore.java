@@ -20,6 +20,9 @@ import java.util.TreeMap;
  */
 public abstract class ManagedPackedBytesHashStore extends PagedLinearHashStore<byte[]> {
 
+    // buckets split by writer, if table is behind target size
+    private static final int SPLITS_PER_WRITE = 2;
+
     private boolean autoResize = true;
     
     private final PageManager pageManager;
@@ -30,23 +33,16 @@ public abstract class ManagedPackedBytesHashStore extends PagedLinearHashStore<b
         this.autoResize = autoResize;
     }
 
+    /**
+     * Writers split a few buckets each once table is behind target size, so growth is incremental.
+     */
     @Override
     protected void checkSLA() {
         if (autoResize) {
             int targetSize = size() / targetPageSize;
             int delta = targetSize - getTableSize();
-            if (delta > 128) {
-                tableLock.writeLock().lock();
-                try {
-                    targetSize = size() / targetPageSize;
-                    delta = targetSize - getTableSize();
-                    if (delta > 128) {
-                        growTable(delta);
-                    }
-                }
-                finally {
-                    tableLock.writeLock().unlock();
-                }
+            if (delta > 0) {
+                tryGrowTable(Math.min(delta, SPLITS_PER_WRITE));
             }
         }
     }
@@ -4,6 +4,7 @@
 package org.gridkit.coherence.offheap.storage;
 
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * @author Alexey Ragozin (aragozin@gridsynamics.com)
@@ -11,9 +12,17 @@ import java.util.Iterator;
 public interface ObjectStore {
     
     public Iterator<Object> keys();
+    /**
+     * Iterates keys together with values, both are taken during single visit of the page,
+     * so scan does not require a lookup per key. Entries are read only.
+     */
+    public Iterator<Map.Entry<Object, Object>> entries();
     public Object load(Object key);
     public void store(Object key, Object value);
-    public void erase(Object key);
+    /**
+     * @return <code>true</code> if key was present
+     */
+    public boolean erase(Object key);
     public void eraseAll();
     public int size();
 }
@@ -5,6 +5,7 @@ package org.gridkit.coherence.offheap.storage;
 
 import java.util.AbstractCollection;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -16,6 +17,7 @@ public class ObjectStoreScheme extends AbstractMap<Object, Object> {
 	
 	private final ObjectStore store;	
 	private final Set<Map.Entry<Object, Object>> entrySet = new EntrySet();
+	private final Set<Object> keySet = new KeySet();
 	private final boolean binaryMode;
 	
 	public ObjectStoreScheme(ObjectStore store, boolean binaryMode) {
@@ -67,6 +69,22 @@ public class ObjectStoreScheme extends AbstractMap<Object, Object> {
 		return binaryMode ? fromBinary(old) : old;
 	}
 
+	/**
+	 * Stores entries without reading previous values, Coherence uses it when return value of put is ignored.
+	 */
+	@Override
+	public void putAll(Map<? extends Object, ? extends Object> map) {
+	    for(Map.Entry<? extends Object, ? extends Object> entry: map.entrySet()) {
+	        Object key = entry.getKey();
+	        Object value = entry.getValue();
+	        if (binaryMode) {
+	            key = toBinary(key);
+	            value = toBinary(value);
+	        }
+	        store.store(key, value);
+	    }
+	}
+
     @Override
 	public Object remove(Object key) {
 	    if (binaryMode) {
@@ -92,6 +110,14 @@ public class ObjectStoreScheme extends AbstractMap<Object, Object> {
 	public Set<Map.Entry<Object, Object>> entrySet() {
 		return entrySet;
 	}
+
+	/**
+	 * Removal via key set does not read previous value, Coherence uses it when return value of remove is ignored.
+	 */
+	@Override
+	public Set<Object> keySet() {
+	    return keySet;
+	}
 	
     private class EntrySet extends AbstractCollection<Map.Entry<Object, Object>> implements Set<Map.Entry<Object, Object>>{
 
@@ -99,7 +125,8 @@ public class ObjectStoreScheme extends AbstractMap<Object, Object> {
 		public Iterator<java.util.Map.Entry<Object, Object>> iterator() {			
 			return new Iterator<Entry<Object,Object>>() {
 				
-				final Iterator<Object> keyIt = store.keys();
+				// keys and values are read together, no lookup per entry
+				final Iterator<Map.Entry<Object, Object>> entryIt = store.entries();
 				boolean beforeStart = true;
 				Object lastKey = null;
 			
@@ -116,12 +143,14 @@ public class ObjectStoreScheme extends AbstractMap<Object, Object> {
 				@Override
 				public Entry<Object, Object> next() {
 				    beforeStart = false;
-					return new MapEntry(lastKey = keyIt.next());
+				    Map.Entry<Object, Object> entry = entryIt.next();
+				    lastKey = entry.getKey();
+					return new MapEntry(lastKey, entry.getValue());
 				}
 			
 				@Override
 				public boolean hasNext() {
-					return keyIt.hasNext();
+					return entryIt.hasNext();
 				}
 			};
 		}
@@ -131,24 +160,97 @@ public class ObjectStoreScheme extends AbstractMap<Object, Object> {
 			return store.size();
 		}
 	}
+
+	private class KeySet extends AbstractSet<Object> {
+
+	    @Override
+	    public Iterator<Object> iterator() {
+	        return new Iterator<Object>() {
+
+	            final Iterator<Object> keyIt = store.keys();
+	            boolean beforeStart = true;
+	            Object lastKey = null;
+
+	            @Override
+	            public void remove() {
+	                if (beforeStart) {
+	                    throw new IllegalStateException("Before start");
+	                }
+	                else {
+	                    store.erase(lastKey);
+	                }
+	            }
+
+	            @Override
+	            public Object next() {
+	                beforeStart = false;
+	                lastKey = keyIt.next();
+	                return binaryMode ? fromBinary(lastKey) : lastKey;
+	            }
+
+	            @Override
+	            public boolean hasNext() {
+	                return keyIt.hasNext();
+	            }
+	        };
+	    }
+
+	    @Override
+	    public boolean contains(Object key) {
+	        return containsKey(key);
+	    }
+
+	    @Override
+	    public boolean remove(Object key) {
+	        return store.erase(binaryMode ? toBinary(key) : key);
+	    }
+
+	    @Override
+	    public void clear() {
+	        store.eraseAll();
+	    }
+
+	    @Override
+	    public int size() {
+	        return store.size();
+	    }
+	}
 	
+	/**
+	 * Holds key and value as taken from store, in binary mode they are deserialized once on first access.
+	 */
 	private class MapEntry implements Map.Entry<Object, Object> {
 
 		private final Object key;
+		private final Object value;
+		private Object objKey;
+		private Object objValue;
 		
-		public MapEntry(Object key) {
+		public MapEntry(Object key, Object value) {
 			this.key = key;
+			this.value = value;
 		}
 
 		@Override
 		public Object getKey() {
-			return binaryMode ? fromBinary(key) : key;
+		    if (!binaryMode) {
+		        return key;
+		    }
+		    if (objKey == null) {
+		        objKey = fromBinary(key);
+		    }
+			return objKey;
 		}
 
 		@Override
 		public Object getValue() {
-			Object value = store.load(key);
-			return binaryMode ? fromBinary(value) : value;
+		    if (!binaryMode) {
+		        return value;
+		    }
+		    if (objValue == null) {
+		        objValue = fromBinary(value);
+		    }
+		    return objValue;
 		}
 
 		@Override
@@ -3,13 +3,18 @@
  */
 package org.gridkit.coherence.offheap.storage;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import com.griddynamics.gridkit.collections.DynamicAtomicArray;
+
 //import junit.framework.AssertionFailedError;
 
 /**
@@ -19,6 +24,9 @@ import java.util.TreeMap;
  */
 public abstract class PackedBytesHashStore extends PagedLinearHashStore<PackedBytesHashStore.Page> {
 
+    // buckets split by writer, if table is behind target size
+    private static final int SPLITS_PER_WRITE = 2;
+
     private boolean autoResize = true;
     
     public PackedBytesHashStore(DynamicAtomicArray<Page> table, int initialCapacity, int targetPageSize, boolean autoResize) {
@@ -26,23 +34,16 @@ public abstract class PackedBytesHashStore extends PagedLinearHashStore<PackedBy
         this.autoResize = autoResize;
     }
 
+    /**
+     * Writers split a few buckets each once table is behind target size, so growth is incremental.
+     */
     @Override
     protected void checkSLA() {
         if (autoResize) {
             int targetSize = size() / targetPageSize;
             int delta = targetSize - getTableSize();
-            if (delta > 128) {
-                tableLock.writeLock().lock();
-                try {
-                    targetSize = size() / targetPageSize;
-                    delta = targetSize - getTableSize();
-                    if (delta > 128) {
-                        growTable(delta);
-                    }
-                }
-                finally {
-                    tableLock.writeLock().unlock();
-                }
+            if (delta > 0) {
+                tryGrowTable(Math.min(delta, SPLITS_PER_WRITE));
             }
         }
     }
@@ -51,9 +52,7 @@ public abstract class PackedBytesHashStore extends PagedLinearHashStore<PackedBy
 
     @Override
     protected int size(Page slot) {
-        synchronized(slot) {
-            return slot.size();
-        }
+        return slot.content.size();
     }
     
     @Override
@@ -64,54 +63,68 @@ public abstract class PackedBytesHashStore extends PagedLinearHashStore<PackedBy
     @Override
     protected int slotDestroy(Page slot) {
         synchronized(slot) {
-            return slot.size();
+            return slot.content.size();
         }
     }
     
+    /**
+     * Lock free, page content is an immutable snapshot.
+     */
     @Override
     protected Object slotGet(Page slot, Object key) {
-        synchronized(slot) {
-            int idx = slot.lookup(keyToBytes(key));
-            if (idx >= 0) {
-                Object value = valueFromBytes(slot.data, slot.valueOffset(idx), slot.valueSize(idx));
-                return value;
-            }
-            else {
-                return null;
-            }
+        PageData page = slot.content;
+        int idx = page.lookup(keyToBytes(key));
+        if (idx >= 0) {
+            Object value = valueFromBytes(page.data, page.valueOffset(idx), page.valueSize(idx));
+            return value;
+        }
+        else {
+            return null;
         }
     }
 
     @Override
     protected Iterator<Object> slotKeys(Page slot) {
-        synchronized(slot) {
-            Object[] keys = new Object[slot.size()];
-            for(int i = 0; i != keys.length; ++i) {
-                keys[i] = keyFromBytes(slot.data, slot.keyOffset(i), slot.keySize(i));
-            }
-            return Arrays.asList(keys).iterator();
+        PageData page = slot.content;
+        Object[] keys = new Object[page.size()];
+        for(int i = 0; i != keys.length; ++i) {
+            keys[i] = keyFromBytes(page.data, page.keyOffset(i), page.keySize(i));
+        }
+        return Arrays.asList(keys).iterator();
+    }
+
+    @Override
+    protected Iterator<Map.Entry<Object, Object>> slotEntries(Page slot) {
+        PageData page = slot.content;
+        List<Map.Entry<Object, Object>> entries = new ArrayList<Map.Entry<Object, Object>>(page.size());
+        for(int i = 0; i != page.size(); ++i) {
+            Object key = keyFromBytes(page.data, page.keyOffset(i), page.keySize(i));
+            Object value = valueFromBytes(page.data, page.valueOffset(i), page.valueSize(i));
+            entries.add(new AbstractMap.SimpleImmutableEntry<Object, Object>(key, value));
         }
+        return entries.iterator();
     }
 
     @Override
     protected boolean slotPut(Page slot, Object key, Object value) {
+        byte[] keyBytes = keyToBytes(key);
+        byte[] valueBytes = valueToBytes(value);
         synchronized(slot) {
-            Map<byte[], byte[]> map = slot.toMap(); // TODO cached weak pointer?
-            byte[] old = map.put(keyToBytes(key), valueToBytes(value));
-            slot.setData(map);
-            return old == null;
+            PageData page = slot.content;
+            int idx = page.lookup(keyBytes);
+            slot.content = page.put(idx, keyBytes, valueBytes);
+            return idx < 0;
         }
     }
 
     @Override
     protected boolean slotErase(Page slot, Object key) {
+        byte[] keyBytes = keyToBytes(key);
         synchronized(slot) {
-            byte[] keyBytes = keyToBytes(key);
-            int idx = slot.lookup(keyBytes);
+            PageData page = slot.content;
+            int idx = page.lookup(keyBytes);
             if (idx >= 0) {
-                Map<byte[], byte[]> map = slot.toMap();
-                map.remove(keyBytes);
-                slot.setData(map);
+                slot.content = page.erase(idx);
                 return true;
             }
             return false;
@@ -120,25 +133,25 @@ public abstract class PackedBytesHashStore extends PagedLinearHashStore<PackedBy
     
     @Override
     protected void slotImport(Page slot, Map<Object, Object> data) {
+        TreeMap<byte[], byte[]> bin = new TreeMap<byte[], byte[]>(ByteArrayComparator.INSTANCE);
+        for(Map.Entry<Object, Object> entry: data.entrySet()) {
+            bin.put(keyToBytes(entry.getKey()), valueToBytes(entry.getValue()));
+        }
+        PageData page = PageData.pack(bin);
         synchronized(slot) {
-            TreeMap<byte[], byte[]> bin = new TreeMap<byte[], byte[]>(ByteArrayComparator.INSTANCE);
-            for(Map.Entry<Object, Object> entry: data.entrySet()) {
-                bin.put(keyToBytes(entry.getKey()), valueToBytes(entry.getValue()));
-            }
-            slot.setData(bin);
-        };
+            slot.content = page;
+        }
     }
     
     @Override
     protected Map<Object, Object> slotExport(Page slot) {
-        synchronized(slot) {
-            Map<Object, Object> map = new HashMap<Object, Object>();
-            int size = slot.size();
-            for(int i = 0; i != size; ++i) {
-                map.put(keyFromBytes(slot.data, slot.keyOffset(i), slot.keySize(i)), valueFromBytes(slot.data, slot.valueOffset(i), slot.valueSize(i)));
-            }
-            return map;
+        PageData page = slot.content;
+        Map<Object, Object> map = new HashMap<Object, Object>();
+        int size = page.size();
+        for(int i = 0; i != size; ++i) {
+            map.put(keyFromBytes(page.data, page.keyOffset(i), page.keySize(i)), valueFromBytes(page.data, page.valueOffset(i), page.valueSize(i)));
         }
+        return map;
     }
 
     protected abstract byte[] keyToBytes(Object key);
@@ -146,23 +159,33 @@ public abstract class PackedBytesHashStore extends PagedLinearHashStore<PackedBy
     protected abstract Object keyFromBytes(byte[] data, int offs, int size);
     protected abstract Object valueFromBytes(byte[] data, int offs, int size);
     
+    /**
+     * Hash slot, content is replaced on each update (copy-on-write).
+     * Readers take a snapshot of content without locking, writers synchronize on slot.
+     */
     static class Page {
         
-        int[] offsets;
-        byte[] data;
-        
-        public Page() {           
-            offsets = new int[0];
-            data = new byte[0];
-        }
+        volatile PageData content = PageData.EMPTY;
         
         public void reset() {
-            offsets = new int[0];
-            data = new byte[0];
+            content = PageData.EMPTY;
         }
-
-        void setData(Map<byte[], byte[]> data) {
-            pack(data);
+    }
+    
+    /**
+     * Entries are kept sorted by key in a single byte array, offsets array holds key and value offset for each entry.
+     * Instance is immutable once published, updates produce a new instance, copying data around changed entry.
+     */
+    static class PageData {
+        
+        static final PageData EMPTY = new PageData(new int[0], new byte[0]);
+        
+        final int[] offsets;
+        final byte[] data;
+        
+        PageData(int[] offsets, byte[] data) {           
+            this.offsets = offsets;
+            this.data = data;
         }
         
         int size() {
@@ -236,27 +259,79 @@ public abstract class PackedBytesHashStore extends PagedLinearHashStore<PackedBy
 
         byte[] extract(int idx) {
             byte[] buf = new byte[size(idx)];
-            copyBytes(data, offset(idx), buf);            
+            System.arraycopy(data, offset(idx), buf, 0, buf.length);
             return buf;
         }
         
-        Map<byte[], byte[]> toMap() {
-            Map<byte[], byte[]> map = new TreeMap<byte[], byte[]>(ByteArrayComparator.INSTANCE);
-            int size = offsets.length / 2;
-            for(int i = 0; i != size; ++i) {
-                map.put(keyExtract(i), valueExtract(i));
+        /**
+         * @param idx result of {@link #lookup(byte[])} for the key
+         * @return new page with value replaced (if key is found) or entry inserted
+         */
+        PageData put(int idx, byte[] key, byte[] value) {
+            if (idx >= 0) {
+                int offs = valueOffset(idx);
+                int tail = offs + valueSize(idx);
+                int delta = value.length - valueSize(idx);
+                byte[] ndata = new byte[data.length + delta];
+                System.arraycopy(data, 0, ndata, 0, offs);
+                System.arraycopy(value, 0, ndata, offs, value.length);
+                System.arraycopy(data, tail, ndata, tail + delta, data.length - tail);
+                int[] noffsets = offsets.clone();
+                shiftOffsets(noffsets, 2 * idx + 2, delta);
+                return new PageData(noffsets, ndata);
+            }
+            else {
+                idx = -(idx + 1);
+                int offs = idx < size() ? keyOffset(idx) : data.length;
+                int len = key.length + value.length;
+                byte[] ndata = new byte[data.length + len];
+                System.arraycopy(data, 0, ndata, 0, offs);
+                System.arraycopy(key, 0, ndata, offs, key.length);
+                System.arraycopy(value, 0, ndata, offs + key.length, value.length);
+                System.arraycopy(data, offs, ndata, offs + len, data.length - offs);
+                int[] noffsets = new int[offsets.length + 2];
+                System.arraycopy(offsets, 0, noffsets, 0, 2 * idx);
+                noffsets[2 * idx] = offs;
+                noffsets[2 * idx + 1] = offs + key.length;
+                System.arraycopy(offsets, 2 * idx, noffsets, 2 * idx + 2, offsets.length - 2 * idx);
+                shiftOffsets(noffsets, 2 * idx + 2, len);
+                return new PageData(noffsets, ndata);
+            }
+        }
+        
+        /**
+         * @return new page without entry at given index
+         */
+        PageData erase(int idx) {
+            if (size() == 1) {
+                return EMPTY;
+            }
+            int offs = keyOffset(idx);
+            int len = keySize(idx) + valueSize(idx);
+            byte[] ndata = new byte[data.length - len];
+            System.arraycopy(data, 0, ndata, 0, offs);
+            System.arraycopy(data, offs + len, ndata, offs, data.length - offs - len);
+            int[] noffsets = new int[offsets.length - 2];
+            System.arraycopy(offsets, 0, noffsets, 0, 2 * idx);
+            System.arraycopy(offsets, 2 * idx + 2, noffsets, 2 * idx, offsets.length - 2 * idx - 2);
+            shiftOffsets(noffsets, 2 * idx, -len);
+            return new PageData(noffsets, ndata);
+        }
+        
+        private static void shiftOffsets(int[] offsets, int from, int delta) {
+            for(int i = from; i < offsets.length; ++i) {
+                offsets[i] += delta;
             }
-            return map;
         }
         
-        private void pack(Map<byte[], byte[]> map) {
+        static PageData pack(Map<byte[], byte[]> map) {
             int size = 0;
             for(Map.Entry<byte[], byte[]> entry: map.entrySet()) {
                 size += entry.getKey().length;
                 size += entry.getValue().length;
             }
-            offsets = new int[2 * map.size()];
-            data = new byte[size];
+            int[] offsets = new int[2 * map.size()];
+            byte[] data = new byte[size];
             int i = 0;
             int n = 0;
             for(Map.Entry<byte[], byte[]> entry: map.entrySet()) {
@@ -271,6 +346,7 @@ public abstract class PackedBytesHashStore extends PagedLinearHashStore<PackedBy
             if (n != size) {
                 throw new RuntimeException("Assetion failed");
             }
+            return new PageData(offsets, data);
         }
 
     }
@@ -6,14 +6,21 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.griddynamics.gridkit.collections.DynamicAtomicArray;
 
 public abstract class PagedLinearHashStore<S> implements ObjectStore {
 
+    // bucket lock stripes, power of 2
+    private static final int LOCK_STRIPES = 256;
+    
     protected final DynamicAtomicArray<S> table;
-    // TODO is it possible to avoid lock?
-    protected ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
     private volatile int tableCapacity; 
+    // writers lock bucket, split locks both buckets involved, readers do not lock
+    private final Object[] bucketLocks;
+    // buckets are split one at a time, in linear hashing order
+    private final ReentrantLock splitLock = new ReentrantLock();
 
     protected final int targetPageSize;
     protected final int targetPageSizePower;
@@ -28,6 +35,10 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
         this.table.setLength(initialCapacity);
         this.targetPageSize = targetPageSize;
         this.targetPageSizePower = getRawPower(targetPageSize);
+        this.bucketLocks = new Object[LOCK_STRIPES];
+        for(int i = 0; i != LOCK_STRIPES; ++i) {
+            bucketLocks[i] = new Object();
+        }
     }
     
     private int getRawPower(int val) {
@@ -43,73 +54,90 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
         return size.intValue();
     }
     
+    /**
+     * Lock free, concurrent split may move key to a new slot, so miss is verified against table capacity.
+     */
     @Override
     public Object load(Object key) {
-        tableLock.readLock().lock();
-        try {
-            S slot = getHashSlot(hashIndex(key), false);
-            if (slot != null) {
-                return slotGet(slot, key);
-            }
-            else {
-                return null;
+        while(true) {
+            int capacity = tableCapacity;
+            S slot = getHashSlot(hashIndex(key, capacity), false);
+            Object value = slot == null ? null : slotGet(slot, key);
+            if (value != null || capacity == tableCapacity) {
+                return value;
             }
         }
-        finally {
-            tableLock.readLock().unlock();
-        }
     }
 
     @Override
     public void store(Object key, Object value) {
-        tableLock.readLock().lock();
-        try {
-            S slot = getHashSlot(hashIndex(key), true);
-            if (slotPut(slot, key, value)) {
-                size.incrementAndGet();
+        int hash = hash(key);
+        while(true) {
+            int index = splitHash(hash, tableCapacity);
+            synchronized(bucketLock(index)) {
+                if (splitHash(hash, tableCapacity) != index) {
+                    // bucket has been split before lock was acquired
+                    continue;
+                }
+                S slot = getHashSlot(index, true);
+                if (slotPut(slot, key, value)) {
+                    size.incrementAndGet();
+                }
+                break;
             }
         }
-        finally {
-            tableLock.readLock().unlock();
-        }
         
         checkSLA();
     }
 
     @Override
-    public void erase(Object key) {
-        tableLock.readLock().lock();
-        try {
-            S slot = getHashSlot(hashIndex(key), false);
-            if (slot != null && slotErase(slot, key)) {
-                size.decrementAndGet();
+    public boolean erase(Object key) {
+        int hash = hash(key);
+        boolean removed = false;
+        while(true) {
+            int index = splitHash(hash, tableCapacity);
+            synchronized(bucketLock(index)) {
+                if (splitHash(hash, tableCapacity) != index) {
+                    // bucket has been split before lock was acquired
+                    continue;
+                }
+                S slot = getHashSlot(index, false);
+                if (slot != null && slotErase(slot, key)) {
+                    size.decrementAndGet();
+                    removed = true;
+                }
+                break;
             }
         }
-        finally {
-            tableLock.readLock().unlock();
-        }
         
         checkSLA();
+        return removed;
     }
     
     @Override
     public void eraseAll() {
-        tableLock.readLock().lock();
+        splitLock.lock();
         try {
             for(int i = 0; i < tableCapacity; ++i) {
-                S slot = table.getAndSet(i, null);
-                if (slot != null) {
-                    size.addAndGet(-slotDestroy(slot));
-                    pageCount.decrementAndGet();
+                synchronized(bucketLock(i)) {
+                    S slot = table.getAndSet(i, null);
+                    if (slot != null) {
+                        size.addAndGet(-slotDestroy(slot));
+                        pageCount.decrementAndGet();
+                    }
                 }
             }
         }
         finally {
-            tableLock.readLock().unlock();
+            splitLock.unlock();
         }
     }
     
-    // TODO get hash slot locked
+    private Object bucketLock(int index) {
+        return bucketLocks[index & (LOCK_STRIPES - 1)];
+    }
+    
+    // bucket lock assumed if slot is created
     private S getHashSlot(int hashIndex, boolean create) {
         S slot = table.get(hashIndex);
         if (create && slot == null) {
@@ -134,6 +162,13 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
     protected abstract Object slotGet(S slot, Object key);
 
     protected abstract Iterator<Object> slotKeys(S slot);
+
+    /**
+     * Default implementation exports slot, subclasses may produce entries directly from page.
+     */
+    protected Iterator<Map.Entry<Object, Object>> slotEntries(S slot) {
+        return slotExport(slot).entrySet().iterator();
+    }
     
     /**
      * @return <code>true</code> if insert, <code>false</code> if replace
@@ -178,7 +213,7 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
     
     @SuppressWarnings("unused") // for testing
     private void checkHashConsistency() {
-        tableLock.readLock().lock();
+        splitLock.lock();
         try {
             for(int i = 0; i != tableCapacity; ++i) {
                 S slot = getHashSlot(i, false);
@@ -192,41 +227,80 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
             }            
         }
         finally {
-            tableLock.readLock().unlock();
+            splitLock.unlock();
         }
     }
     
+    /**
+     * Splits <code>n</code> buckets, one at a time. Each split locks only two buckets involved,
+     * so writers to other buckets proceed and readers never block.
+     */
     public void growTable(int n) {
-        
-        table.setLength(tableCapacity + n);
-        
-        tableLock.writeLock().lock();
+        splitLock.lock();
         try {
-        
-            /*checkHashConsistency();*/
             for(int i = 0; i != n; ++i) {
-                int nRound = Integer.highestOneBit(tableCapacity);
-                int nSplit = (tableCapacity) & ~nRound;
-                ++tableCapacity;
-                S slot = table.get(nSplit);
-                if (slot != null) {
-                    rehash(slot, nSplit, ++tableCapacity);
-                }
+                splitNext();
             }
-            /*checkHashConsistency();*/
         }
         finally {
-            tableLock.writeLock().unlock();
+            splitLock.unlock();
         }
     }
     
-//    protected abstract void rehashUnderLock(S slot1, int index1, S slot2, int index2, int newCapacity);
-//    
-//    protected void lockedRehash(S slot1, int index1, S slot2, int index2, int newCapacity) {
-//        
-//    }
-
-    private void rehash(S slot, int index, int capacity) {
+    /**
+     * Incremental growth, called by writers. Does nothing if other thread is splitting buckets.
+     * @return <code>true</code> if buckets have been split
+     */
+    protected boolean tryGrowTable(int n) {
+        if (splitLock.tryLock()) {
+            try {
+                for(int i = 0; i != n; ++i) {
+                    splitNext();
+                }
+                return true;
+            }
+            finally {
+                splitLock.unlock();
+            }
+        }
+        return false;
+    }
+    
+    // split lock assumed
+    private void splitNext() {
+        int capacity = tableCapacity;
+        if (table.length() <= capacity) {
+            table.setLength(capacity + 1);
+        }
+        // linear hashing, new bucket index is always equal to old capacity
+        int nSplit = capacity & ~Integer.highestOneBit(capacity);
+        Object lock1 = bucketLock(nSplit);
+        Object lock2 = bucketLock(capacity);
+        // locks are always taken in stripe order
+        if ((nSplit & (LOCK_STRIPES - 1)) > (capacity & (LOCK_STRIPES - 1))) {
+            Object l = lock1;
+            lock1 = lock2;
+            lock2 = l;
+        }
+        synchronized(lock1) {
+            synchronized(lock2) {
+                split(nSplit, capacity + 1);
+            }
+        }
+    }
+    
+    /**
+     * Moves entries of split slot to the new slot and publishes new capacity.
+     * Readers do not lock table, so new slot is populated before capacity is published
+     * and moved entries are removed from split slot only after that.
+     * Locks of both buckets assumed.
+     */
+    private void split(int index, int capacity) {
+        S slot = table.get(index);
+        if (slot == null) {
+            tableCapacity = capacity;
+            return;
+        }
         Map<Object, Object> content = slotExport(slot);
         Map<Object, Object> moved = new HashMap<Object, Object>();
         int nextIdx = index;
@@ -241,14 +315,17 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
         }
         
         if (!moved.isEmpty()) {
-            content.keySet().removeAll(moved.keySet());
-            slotImport(slot, content);
             if (getHashSlot(nextIdx, false) != null) {
                 throw new AssertionError("Broken hash");
             }
             S newSlot = getHashSlot(nextIdx, true);
             slotImport(newSlot, moved);
         }
+        tableCapacity = capacity;
+        if (!moved.isEmpty()) {
+            content.keySet().removeAll(moved.keySet());
+            slotImport(slot, content);
+        }
     }
 
     private int hashIndex(Object key) {
@@ -276,7 +353,22 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
 
     @Override
     public Iterator<Object> keys() {
-        return new KeyIterator();
+        return new SlotIterator<Object>() {
+            @Override
+            protected Iterator<Object> slotIterator(S slot) {
+                return slotKeys(slot);
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<Object, Object>> entries() {
+        return new SlotIterator<Map.Entry<Object, Object>>() {
+            @Override
+            protected Iterator<Map.Entry<Object, Object>> slotIterator(S slot) {
+                return slotEntries(slot);
+            }
+        };
     }
 
     private int hash(Object key) {
@@ -285,15 +377,17 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
         return (h ^ (h >>> 7) ^ (h >>> 4)) >>> targetPageSizePower;
     }
 
-    class KeyIterator implements Iterator<Object> {
+    abstract class SlotIterator<T> implements Iterator<T> {
         private int nextSlot;
-        private Iterator<Object> segment;
+        private Iterator<T> segment;
+
+        protected abstract Iterator<T> slotIterator(S slot);
 
         private void nextSegment() {
             while (nextSlot < tableCapacity) {
                 S slot = table.get(nextSlot++);
                 if (slot != null) {
-                    segment = slotKeys(slot);
+                    segment = slotIterator(slot);
                     break;
                 }
             }
@@ -308,7 +402,7 @@ public abstract class PagedLinearHashStore<S> implements ObjectStore {
         }
 
         @Override
-        public Object next() {
+        public T next() {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
@@ -13,6 +13,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Grows table of {@link PagedLinearHashStore} in background. Buckets are split one at a time,
+ * so writers are delayed only while their bucket is being split.
+ * 
  * @author Alexey Ragozin (aragozin@gridsynamics.com)
  */
 public class RehashDaemon implements Runnable {
@@ -22,7 +25,7 @@ public class RehashDaemon implements Runnable {
     private static ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(4, new ThreadFactory() {
 		@Override
 		public Thread newThread(Runnable r) {
-			Thread t = new Thread();
+			Thread t = new Thread(r);
 			t.setName("RehashDaemon");
 			t.setDaemon(true);
 			return t;
@@ -53,7 +56,7 @@ public class RehashDaemon implements Runnable {
                         hashtable.growTable(delta);
                     }
                     catch(Exception e) {
-                        e.printStackTrace();
+                        logger.error("Hashtable(@" + hashtable.hashCode() + "): Rehash failed", e);
                     }
                 }
             }
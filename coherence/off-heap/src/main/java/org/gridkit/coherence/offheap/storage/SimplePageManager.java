@@ -20,10 +20,11 @@ public class SimplePageManager implements PageManager {
 	}
 
 	@Override
-	public int allocate() {
+	public synchronized int allocate() {
 		for(int i = lower; i != buffers.length; ++i) {
 			if (buffers[i] == null) {
 				buffers[i] = ByteBuffer.allocate(pageSize);
+				lower = i + 1;
 				return i;
 			}
 		}
@@ -40,23 +41,21 @@ public class SimplePageManager implements PageManager {
 	@Override
 	public byte[] read(int page, int offset, int len) {
 		byte[] buf = new byte[len];
-		ByteBuffer bb = buffers[page];
-		for(int i = 0; i !=  len; ++i) {
-			buf[i] = bb.get(offset + i);
-		}		
+		ByteBuffer bb = buffers[page].duplicate();
+		bb.position(offset);
+		bb.get(buf);
 		return buf;
 	}
 
 	@Override
 	public void write(int page, int offset, byte[] chunk) {
-		ByteBuffer bb = buffers[page];
-		for(int i = 0; i != chunk.length; ++i) {
-			bb.put(offset + i, chunk[i]);
-		}		
+		ByteBuffer bb = buffers[page].duplicate();
+		bb.position(offset);
+		bb.put(chunk);
 	}
 
 	@Override
-	public void release(int pageId) {
+	public synchronized void release(int pageId) {
 		buffers[pageId] = null;
 		if (lower > pageId) {
 			lower = pageId;
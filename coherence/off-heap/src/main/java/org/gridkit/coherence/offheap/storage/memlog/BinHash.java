@@ -58,39 +58,55 @@ class BinHash {
 	    return (int) idx;
 	}
 	
+	private static final int MURMUR3_C1 = 0xcc9e2d51;
+	private static final int MURMUR3_C2 = 0x1b873593;
+	
+	private static final long XXH_PRIME1 = 0x9E3779B185EBCA87l;
+	private static final long XXH_PRIME2 = 0xC2B2AE3D27D4EB4Fl;
+	private static final long XXH_PRIME3 = 0x165667B19E3779F9l;
+	private static final long XXH_PRIME4 = 0x85EBCA77C2B2AE63l;
+	private static final long XXH_PRIME5 = 0x27D4EB2F165667C5l;
+	
 	public static int murmur3_fmix(int h) {
-		h ^= h >> 16;
-	    h *= 0x85ebca6d;
-	    h ^= h >> 13;
+		h ^= h >>> 16;
+	    h *= 0x85ebca6b;
+	    h ^= h >>> 13;
 	    h *= 0xc2b2ae35;
-	    h ^= h >> 16;
+	    h ^= h >>> 16;
 	    
 	    return h;
 	}
 	
+	private static int murmur3_round(int h1, int k1) {
+		k1 *= MURMUR3_C1;
+		k1 = Integer.rotateLeft(k1, 15);
+		k1 *= MURMUR3_C2;
+		
+		h1 ^= k1;
+		h1 = Integer.rotateLeft(h1, 13);
+		return h1 * 5 + 0xe6546b64;
+	}
+
+	private static int murmur3_tail(int h1, int k1) {
+		k1 *= MURMUR3_C1;
+		k1 = Integer.rotateLeft(k1, 15);
+		k1 *= MURMUR3_C2;
+		return h1 ^ k1;
+	}
+	
 	public static int murmur3_mix(byte[] data, int offs, int len, int seed) {
 		
 		int h1 = seed;
-		int c1 = 0xcc9e2d51;
-		int c2 = 0x1b873593;
-		int k1;
 		
 		int p = offs;
 		int l = offs + len;
 		while(p + 3 < l) {
-			int block = data[p++];
+			int block = (0xFF & data[p++]);
 			block |= (0xFF & data[p++]) << 8;
 			block |= (0xFF & data[p++]) << 16;
 			block |= (0xFF & data[p++]) << 24;
 			
-			k1 = block;
-		    k1 *= c1;
-		    k1 = Integer.rotateLeft(k1, 15);
-		    k1 *= c2;
-		    
-		    h1 ^= k1;
-		    h1 = Integer.rotateLeft(h1, 13);
-		    h1 = h1*5 +0xe6546b64;
+			h1 = murmur3_round(h1, block);
 		}
 		
 		int block = 0;
@@ -98,12 +114,8 @@ class BinHash {
 			case 3: block |= (0xFF & data[p+2]) << 16;
 			case 2: block |= (0xFF & data[p+1]) << 8;
 			case 1: block |= (0xFF & data[p]);
+					h1 = murmur3_tail(h1, block);
 		}
-		k1 = block;
-		k1 *= c1;
-		k1 = Integer.rotateLeft(k1, 15);
-		k1 *= c2;
-		h1 ^= k1;
 		
 		return h1;
 	}
@@ -113,4 +125,109 @@ class BinHash {
 		h ^= len;
 		return murmur3_fmix(h);
 	}
+
+	/**
+	 * MurmurHash3 (x86, 32 bit), reads chunk 8 bytes at a time.
+	 */
+	public static int murmur3_hash(ByteChunk bytes, int seed) {
+		int h1 = seed;
+		int len = bytes.lenght();
+		int p = 0;
+		while(p + 8 <= len) {
+			// chunk accessors are big endian, murmur3 blocks are little endian
+			long word = bytes.longAt(p);
+			h1 = murmur3_round(h1, Integer.reverseBytes((int)(word >>> 32)));
+			h1 = murmur3_round(h1, Integer.reverseBytes((int)word));
+			p += 8;
+		}
+		if (p + 4 <= len) {
+			h1 = murmur3_round(h1, Integer.reverseBytes(bytes.intAt(p)));
+			p += 4;
+		}
+		int block = 0;
+		switch(len - p) {
+			case 3: block |= (0xFF & bytes.at(p + 2)) << 16;
+			case 2: block |= (0xFF & bytes.at(p + 1)) << 8;
+			case 1: block |= (0xFF & bytes.at(p));
+					h1 = murmur3_tail(h1, block);
+		}
+		h1 ^= len;
+		return murmur3_fmix(h1);
+	}
+	
+	private static long xxh64_round(long acc, long lane) {
+		acc += lane * XXH_PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * XXH_PRIME1;
+	}
+
+	private static long xxh64_merge(long h, long acc) {
+		h ^= xxh64_round(0, acc);
+		return h * XXH_PRIME1 + XXH_PRIME4;
+	}
+	
+	/**
+	 * xxHash64 folded to 32 bits.
+	 */
+	public static int xxhash64_hash(ByteChunk bytes, long seed) {
+		long h = xxhash64(bytes, seed);
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * xxHash64, reads chunk 8 bytes at a time.
+	 */
+	public static long xxhash64(ByteChunk bytes, long seed) {
+		int len = bytes.lenght();
+		int p = 0;
+		long h;
+		if (len >= 32) {
+			long v1 = seed + XXH_PRIME1 + XXH_PRIME2;
+			long v2 = seed + XXH_PRIME2;
+			long v3 = seed;
+			long v4 = seed - XXH_PRIME1;
+			while(p + 32 <= len) {
+				// chunk accessors are big endian, xxHash lanes are little endian
+				v1 = xxh64_round(v1, Long.reverseBytes(bytes.longAt(p)));
+				v2 = xxh64_round(v2, Long.reverseBytes(bytes.longAt(p + 8)));
+				v3 = xxh64_round(v3, Long.reverseBytes(bytes.longAt(p + 16)));
+				v4 = xxh64_round(v4, Long.reverseBytes(bytes.longAt(p + 24)));
+				p += 32;
+			}
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = xxh64_merge(h, v1);
+			h = xxh64_merge(h, v2);
+			h = xxh64_merge(h, v3);
+			h = xxh64_merge(h, v4);
+		}
+		else {
+			h = seed + XXH_PRIME5;
+		}
+		
+		h += len;
+		
+		while(p + 8 <= len) {
+			h ^= xxh64_round(0, Long.reverseBytes(bytes.longAt(p)));
+			h = Long.rotateLeft(h, 27) * XXH_PRIME1 + XXH_PRIME4;
+			p += 8;
+		}
+		if (p + 4 <= len) {
+			h ^= (0xFFFFFFFFl & Integer.reverseBytes(bytes.intAt(p))) * XXH_PRIME1;
+			h = Long.rotateLeft(h, 23) * XXH_PRIME2 + XXH_PRIME3;
+			p += 4;
+		}
+		while(p < len) {
+			h ^= (0xFFl & bytes.at(p)) * XXH_PRIME5;
+			h = Long.rotateLeft(h, 11) * XXH_PRIME1;
+			++p;
+		}
+		
+		h ^= h >>> 33;
+		h *= XXH_PRIME2;
+		h ^= h >>> 29;
+		h *= XXH_PRIME3;
+		h ^= h >>> 32;
+		
+		return h;
+	}
 }
@@ -0,0 +1,14 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * Hash function used by {@link PagedMemoryBinaryStoreManager2} to place keys in buckets.
+ * Function should be stable, hashes are stored along with entries.
+ *
+ * @see StandardHashFunction
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface BinaryHashFunction {
+
+	public int hash(ByteChunk bytes);
+
+}
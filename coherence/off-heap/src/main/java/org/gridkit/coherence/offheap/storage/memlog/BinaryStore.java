@@ -5,13 +5,37 @@ import java.util.Iterator;
 public interface BinaryStore {
 
 	public ByteChunk get(ByteChunk key);
+
+	/**
+	 * Reads value without detaching it from store memory.
+	 * Reader may be called more than once if value is being concurrently updated, result of last call is returned.
+	 * @return result of reader or <code>null</code> if key is not present
+	 */
+	public <V> V get(ByteChunk key, ValueReader<V> reader);
 	
 	public void put(ByteChunk key, ByteChunk value);
+
+	/**
+	 * Entry with expiry is not visible to readers after it has expired, its memory is reclaimed by compaction.
+	 * @param ttlMillis time to live in milliseconds, 0 or negative - entry never expires
+	 */
+	public void put(ByteChunk key, ByteChunk value, long ttlMillis);
 	
 	public void remove(ByteChunk key);
 	
+	/**
+	 * @param results receives value (or <code>null</code>) for each key, same positions as in key array
+	 */
+	public void getAll(ByteChunk[] keys, ByteChunk[] results);
+
+	public void putAll(ByteChunk[] keys, ByteChunk[] values);
+	
+	public void removeAll(ByteChunk[] keys);
+	
 	public Iterator<ByteChunk> keys();
 	
+	public void clear();
+	
 	public int size();
 	
 }
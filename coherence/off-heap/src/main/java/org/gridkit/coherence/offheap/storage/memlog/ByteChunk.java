@@ -7,7 +7,7 @@ import java.nio.ByteBuffer;
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  *
  */
-public final class ByteChunk {
+public class ByteChunk {
 
 	private final byte[] bytes;
 	private final int offset;
@@ -45,6 +45,25 @@ public final class ByteChunk {
 		bytes[offset + i] = b;
 	}
 
+	/**
+	 * @return detached copy of chunk content, safe to use after underlying memory is reused
+	 */
+	public ByteChunk copy() {
+		byte[] data = new byte[len];
+		copyTo(0, data, 0, len);
+		return new ByteChunk(data);
+	}
+
+	void copyTo(int offs, byte[] target, int targetOffs, int len) {
+		System.arraycopy(bytes, offset + offs, target, targetOffs, len);
+	}
+
+	void copyTo(ByteBuffer target, int targetOffs) {
+		ByteBuffer bb = target.duplicate();
+		bb.position(targetOffs);
+		bb.put(bytes, offset, len);
+	}
+
 	public ByteChunk subChunk(int offs, int len) {
 		if (offs + len > this.len) {
 			throw new IllegalArgumentException("Chunk " + bytes + " offs: " + offset + " len: " + this.len + ". Required subrange " + offs + " by " + len + "(" + Integer.toHexString(len) + ")");			
@@ -117,7 +136,7 @@ public final class ByteChunk {
 				throw new AssertionError("Chunk " + bytes + " offs: " + offset + " len: " + len + ". Dirty data for putBytes. Params " + 0 + " by " + bytes.len);
 			}
 		}
-		System.arraycopy(bytes.bytes, bytes.offset, this.bytes, offset, bytes.len);		
+		bytes.copyTo(0, this.bytes, offset, bytes.len);
 	}
 
 	public void putBytes(int offs, ByteChunk bytes) {
@@ -129,7 +148,7 @@ public final class ByteChunk {
 				throw new AssertionError("Chunk " + bytes + " offs: " + offset + " len: " + len + ". Dirty data for putBytes. Params " + offs + " by " + bytes.len);
 			}
 		}
-		System.arraycopy(bytes.bytes, bytes.offset, this.bytes, offset + offs, bytes.len);		
+		bytes.copyTo(0, this.bytes, offset + offs, bytes.len);
 	}
 
 	public boolean sameBytes(ByteChunk that) {
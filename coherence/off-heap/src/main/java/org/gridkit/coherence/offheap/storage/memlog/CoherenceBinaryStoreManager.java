@@ -0,0 +1,217 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.tangosol.util.Binary;
+
+/**
+ * Adapter exposing {@link BinaryStoreManager} as Coherence {@link com.tangosol.io.BinaryStoreManager},
+ * so paged memory store could be used with <code>external-scheme</code> via <code>custom-store-manager</code>.
+ * Keys and values are passed to underlying store without intermediate copies.
+ * Values returned from store are copied once, from page memory straight to array owned by {@link Binary}
+ * (Coherence offers no way to wrap existing byte array without copying).
+ * <br/>
+ * Shared page pool is closed and forgotten once last of its stores is destroyed, so pool is recreated on cache restart.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class CoherenceBinaryStoreManager implements com.tangosol.io.BinaryStoreManager {
+
+	private static final Map<String, SharedManager> SHARED_MANAGERS = new HashMap<String, SharedManager>();
+	
+	private final BinaryStoreManager storeManager;
+	// null if manager is not shared
+	private final String sharedName;
+	private final int pageSize;
+	private final long totalSizeLimit;
+	
+	/**
+	 * Constructor for use in cache configuration. All instances with same name share single off-heap page pool.
+	 */
+	public CoherenceBinaryStoreManager(String name, int pageSize, long totalSizeLimit) {
+		this.storeManager = null;
+		this.sharedName = name;
+		this.pageSize = pageSize;
+		this.totalSizeLimit = totalSizeLimit;
+	}
+
+	/**
+	 * Manager is owned by caller and is not closed by adapter.
+	 */
+	public CoherenceBinaryStoreManager(BinaryStoreManager storeManager) {
+		this.storeManager = storeManager;
+		this.sharedName = null;
+		this.pageSize = 0;
+		this.totalSizeLimit = 0;
+	}
+	
+	/**
+	 * Shared manager is created on demand and is referenced by each store created from it.
+	 */
+	private BinaryStore createStore() {
+		if (sharedName == null) {
+			return storeManager.create();
+		}
+		synchronized(SHARED_MANAGERS) {
+			SharedManager shared = SHARED_MANAGERS.get(sharedName);
+			if (shared == null) {
+				shared = new SharedManager(new OffHeapBinaryStoreManager2(sharedName, pageSize, totalSizeLimit));
+				SHARED_MANAGERS.put(sharedName, shared);
+			}
+			BinaryStore store = shared.manager.create();
+			++shared.storeCount;
+			return store;
+		}
+	}
+
+	private void destroyStore(BinaryStore store) {
+		if (sharedName == null) {
+			storeManager.destroy(store);
+			return;
+		}
+		synchronized(SHARED_MANAGERS) {
+			SharedManager shared = SHARED_MANAGERS.get(sharedName);
+			if (shared == null) {
+				throw new IllegalStateException("Page pool " + sharedName + " is already closed");
+			}
+			shared.manager.destroy(store);
+			if (--shared.storeCount == 0) {
+				SHARED_MANAGERS.remove(sharedName);
+				shared.manager.close();
+			}
+		}
+	}
+
+	static boolean isShared(String name) {
+		synchronized(SHARED_MANAGERS) {
+			return SHARED_MANAGERS.containsKey(name);
+		}
+	}
+
+	@Override
+	public com.tangosol.io.BinaryStore createBinaryStore() {
+		return new BinaryStoreAdapter(createStore());
+	}
+
+	@Override
+	public void destroyBinaryStore(com.tangosol.io.BinaryStore store) {
+		destroyStore(((BinaryStoreAdapter)store).store);
+	}
+	
+	private static ByteChunk toChunk(Binary bin) {
+		return new ReadBufferByteChunk(bin);
+	}
+
+	private static Binary toBinary(ByteChunk chunk) {
+		return new Binary(chunk.array(), chunk.offset(), chunk.lenght());
+	}
+
+	/**
+	 * {@link Binary} reads bytes into its own array, so value is copied from page memory exactly once.
+	 */
+	private static final ValueReader<Binary> BINARY_READER = new ValueReader<Binary>() {
+		@Override
+		public Binary read(ByteChunk value) {
+			try {
+				return new Binary(new DataInputStream(new ChunkInputStream(value)), value.lenght());
+			}
+			catch(IOException e) {
+				// not expected, chunk is read in memory
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private static class ChunkInputStream extends InputStream {
+
+		private final ByteChunk chunk;
+		private int position;
+
+		public ChunkInputStream(ByteChunk chunk) {
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read() {
+			return position < chunk.lenght() ? 0xFF & chunk.at(position++) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			int n = Math.min(len, chunk.lenght() - position);
+			if (n <= 0) {
+				return len == 0 ? 0 : -1;
+			}
+			chunk.copyTo(position, b, off, n);
+			position += n;
+			return n;
+		}
+	}
+
+	private static class SharedManager {
+		
+		final BinaryStoreManager manager;
+		int storeCount;
+		
+		public SharedManager(BinaryStoreManager manager) {
+			this.manager = manager;
+		}
+	}
+
+	private static class BinaryStoreAdapter implements com.tangosol.io.BinaryStore {
+		
+		private final BinaryStore store;
+
+		public BinaryStoreAdapter(BinaryStore store) {
+			this.store = store;
+		}
+
+		@Override
+		public Binary load(Binary binKey) {
+			return store.get(toChunk(binKey), BINARY_READER);
+		}
+
+		@Override
+		public void store(Binary binKey, Binary binValue) {
+			store.put(toChunk(binKey), toChunk(binValue));
+		}
+
+		@Override
+		public void erase(Binary binKey) {
+			store.remove(toChunk(binKey));
+		}
+
+		@Override
+		public void eraseAll() {
+			store.clear();
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public Iterator keys() {
+			final Iterator<ByteChunk> it = store.keys();
+			return new Iterator<Binary>() {
+
+				@Override
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				@Override
+				public Binary next() {
+					return toBinary(it.next());
+				}
+
+				@Override
+				public void remove() {
+					it.remove();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces evacuation performed by maintenance thread.
+ * Relocation is limited by bytes-per-second budget, budget is scaled up with
+ * memory pressure reported by {@link MemoryStoreBackend}, so under heavy write load
+ * evacuation catches up with allocation. When allocators are starving for pages
+ * evacuation runs at full speed.
+ * 
+ * Not thread safe, should be used by maintenance thread only (except rate setter).
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class CompactionScheduler {
+
+	private static final long MAX_THROTTLE_PARK = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long MIN_IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long MAX_IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(300);
+	private static final float MAX_SPEEDUP = 16f;
+	
+	private volatile long relocationRate;
+	
+	private long timestamp = nanoTime();
+	private double allowance;
+	private long idlePark = MIN_IDLE_PARK;
+
+	/**
+	 * @param relocationRate bytes per second, 0 - unlimited
+	 */
+	public CompactionScheduler(long relocationRate) {
+		this.relocationRate = relocationRate;
+	}
+	
+	public long getRelocationRate() {
+		return relocationRate;
+	}
+	
+	public void setRelocationRate(long relocationRate) {
+		this.relocationRate = relocationRate;
+	}
+	
+	/**
+	 * @return nanoseconds to pause after relocating given amount of bytes
+	 */
+	public long relocated(long bytes, float pressure) {
+		idlePark = MIN_IDLE_PARK;
+		long now = nanoTime();
+		long elapsed = now - timestamp;
+		timestamp = now;
+
+		long rate = relocationRate;
+		if (rate <= 0 || pressure >= 1f) {
+			allowance = 0;
+			return 0;
+		}
+		
+		double effectiveRate = rate * (1 + (MAX_SPEEDUP - 1) * pressure);
+		allowance += effectiveRate * elapsed / TimeUnit.SECONDS.toNanos(1);
+		// limit burst after idle period to 100ms worth of budget
+		double burst = effectiveRate / 10;
+		if (allowance > burst) {
+			allowance = burst;
+		}
+		allowance -= bytes;
+		
+		if (allowance >= 0) {
+			return 0;
+		}
+		else {
+			long park = (long) (-allowance * TimeUnit.SECONDS.toNanos(1) / effectiveRate);
+			return park > MAX_THROTTLE_PARK ? MAX_THROTTLE_PARK : park;
+		}
+	}
+	
+	// overridden in tests
+	long nanoTime() {
+		return System.nanoTime();
+	}
+	
+	/**
+	 * @return nanoseconds to pause if there were nothing to evacuate, grows exponentially with consecutive idle cycles
+	 */
+	public long idle() {
+		long park = idlePark;
+		idlePark = idlePark * 2 > MAX_IDLE_PARK ? MAX_IDLE_PARK : idlePark * 2;
+		return park;
+	}
+}
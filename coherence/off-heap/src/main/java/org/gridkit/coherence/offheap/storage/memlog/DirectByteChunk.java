@@ -0,0 +1,141 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ByteChunk} view over direct (off-heap) memory. No data is copied on creation,
+ * so view is valid only while underlying memory is not released (i.e. under bucket lock).
+ * Use {@link #copy()} to detach data from page memory.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+final class DirectByteChunk extends ByteChunk {
+
+	private final ByteBuffer buffer;
+	private final int offset;
+	private final int len;
+
+	public DirectByteChunk(ByteBuffer buffer, int offset, int len) {
+		super(null, offset, len);
+		if (offset < 0 || len < 0 || offset + len > buffer.capacity()) {
+			throw new IllegalArgumentException("Buffer capacity " + buffer.capacity() + ". Required subrange " + offset + " by " + len);
+		}
+		this.buffer = buffer;
+		this.offset = offset;
+		this.len = len;
+	}
+
+	/**
+	 * @return <code>true</code> if chunk is a view of given buffer starting at given offset
+	 */
+	boolean isViewOf(ByteBuffer buffer, int offset) {
+		return this.buffer == buffer && this.offset == offset;
+	}
+
+	@Override
+	public byte[] array() {
+		throw new UnsupportedOperationException("Direct chunk is not backed by array");
+	}
+
+	@Override
+	public byte at(int i) {
+		if (i < 0 || i >= len) {
+			throw new IndexOutOfBoundsException("Chunk offs: " + offset + " len: " + len + ". Index " + i);
+		}
+		return buffer.get(offset + i);
+	}
+
+	@Override
+	public void set(int i, byte b) {
+		if (i < 0 || i >= len) {
+			throw new IndexOutOfBoundsException("Chunk offs: " + offset + " len: " + len + ". Index " + i);
+		}
+		buffer.put(offset + i, b);
+	}
+
+	@Override
+	void copyTo(int offs, byte[] target, int targetOffs, int len) {
+		ByteBuffer bb = buffer.duplicate();
+		bb.position(offset + offs);
+		bb.get(target, targetOffs, len);
+	}
+
+	@Override
+	void copyTo(ByteBuffer target, int targetOffs) {
+		ByteBuffer src = buffer.duplicate();
+		src.limit(offset + len);
+		src.position(offset);
+		ByteBuffer bb = target.duplicate();
+		bb.position(targetOffs);
+		bb.put(src);
+	}
+
+	@Override
+	public ByteChunk subChunk(int offs, int len) {
+		if (offs < 0 || offs + len > this.len) {
+			throw new IllegalArgumentException("Chunk offs: " + offset + " len: " + this.len + ". Required subrange " + offs + " by " + len + "(" + Integer.toHexString(len) + ")");
+		}
+		return new DirectByteChunk(buffer, offset + offs, len);
+	}
+
+	@Override
+	public int intAt(int offs) {
+		if (offs < 0 || offs + 4 > len) {
+			throw new IllegalArgumentException("Chunk offs: " + offset + " len: " + len + ". Required subrange " + offs + " by " + 4);
+		}
+		// byte buffer uses same (big endian) order as heap chunk
+		return buffer.getInt(offset + offs);
+	}
+
+	@Override
+	public void putInt(int offs, int val) {
+		if (offs < 0 || offs + 4 > len) {
+			throw new IllegalArgumentException("Out of bounds");
+		}
+		buffer.putInt(offset + offs, val);
+	}
+
+	@Override
+	public long longAt(int offs) {
+		if (offs < 0 || offs + 8 > len) {
+			throw new IllegalArgumentException("Out of bounds");
+		}
+		return buffer.getLong(offset + offs);
+	}
+
+	@Override
+	public void putLong(int offs, long val) {
+		if (offs < 0 || offs + 8 > len) {
+			throw new IllegalArgumentException("Out of bounds");
+		}
+		buffer.putLong(offset + offs, val);
+	}
+
+	@Override
+	public void putBytes(ByteChunk bytes) {
+		putBytes(0, bytes);
+	}
+
+	@Override
+	public void putBytes(int offs, ByteChunk bytes) {
+		int blen = bytes.lenght();
+		if (offs < 0 || offs + blen > len) {
+			throw new IllegalArgumentException("Out of bounds");
+		}
+		for(int i = 0; i != blen; ++i) {
+			if (buffer.get(offset + offs + i) != 0) {
+				throw new AssertionError("Chunk " + bytes + " offs: " + offset + " len: " + len + ". Dirty data for putBytes. Params " + offs + " by " + blen);
+			}
+		}
+		bytes.copyTo(buffer, offset + offs);
+	}
+
+	@Override
+	public void assertEmpty() {
+		for(int i = 0; i != len; ++i) {
+			if (buffer.get(offset + i) != 0) {
+				throw new AssertionError("Not empty " + this.toString());
+			}
+		}
+	}
+}
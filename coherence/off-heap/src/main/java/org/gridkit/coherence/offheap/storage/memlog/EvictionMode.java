@@ -0,0 +1,34 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * Built-in eviction modes of {@link PagedMemoryBinaryStoreManager2}.
+ * Each entry carries one byte access clock, incremented on read up to mode's limit.
+ * Once memory usage is above high-water mark, evacuator sweeps pages, removing entries with zero clock
+ * and halving clock of entries it relocates.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public enum EvictionMode {
+
+	/** No eviction, store blocks (or fails, depending on allocation timeout) once memory is exhausted */
+	NONE(0),
+
+	/** CLOCK approximation of LRU, single reference bit */
+	LRU(1),
+
+	/** 8 bit saturating frequency counter with aging */
+	LFU(255);
+
+	private final int clockLimit;
+
+	private EvictionMode(int clockLimit) {
+		this.clockLimit = clockLimit;
+	}
+
+	/**
+	 * @return max value of entry access clock, 0 - access is not tracked
+	 */
+	int clockLimit() {
+		return clockLimit;
+	}
+}
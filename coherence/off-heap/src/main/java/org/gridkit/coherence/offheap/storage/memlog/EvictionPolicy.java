@@ -0,0 +1,22 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.List;
+
+/**
+ * Hook used by {@link PagedMemoryBinaryStoreManager2} when writer finds no free pages.
+ * Policy is invoked on writer's thread before any store lock is taken, so it is free to
+ * remove entries from stores (and notify its own listeners if needed).
+ * Removed entries do not free pages immediately, pages are reclaimed by evacuation.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface EvictionPolicy {
+
+	/**
+	 * @param stores live stores of manager
+	 * @param bytesRequired approximate amount of memory writer is going to allocate
+	 * @return <code>true</code> if some entries have been removed, <code>false</code> if nothing could be evicted
+	 */
+	public boolean evict(List<BinaryStore> stores, long bytesRequired);
+
+}
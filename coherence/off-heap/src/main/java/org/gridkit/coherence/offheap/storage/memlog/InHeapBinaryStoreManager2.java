@@ -5,4 +5,8 @@ public class InHeapBinaryStoreManager2 extends PagedMemoryBinaryStoreManager2 {
 	public InHeapBinaryStoreManager2(String name, int pageSize, long totalSizeLimit) {
 		super(name, new InHeapMemoryStoreBackend(pageSize, (int) (totalSizeLimit / pageSize), 2));
 	}
+
+	public InHeapBinaryStoreManager2(String name, int pageSize, long totalSizeLimit, BinaryHashFunction hashFunction) {
+		super(name, new InHeapMemoryStoreBackend(pageSize, (int) (totalSizeLimit / pageSize), 2), hashFunction);
+	}
 }
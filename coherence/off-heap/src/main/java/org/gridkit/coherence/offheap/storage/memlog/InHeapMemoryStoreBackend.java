@@ -8,8 +8,13 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 
+	private final static Logger logger = LoggerFactory.getLogger(InHeapMemoryStoreBackend.class);
+
 	private final static int PAGE_HEADER = 32; // leaves 0 and 1 pointers as special values
 	private final static int ALIGNMENT = 4; // 16 bytes
 	
@@ -18,7 +23,7 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 	private final int offsetMask;
 	private final int pageShift;
 	
-	private AtomicLong memUsed = new AtomicLong();
+	private StripedCounter memUsed = new StripedCounter();
 	private long memUsageLimit;
 	
 	private ReentrantLock[] allocationLock;
@@ -34,7 +39,14 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 	private ReentrantLock evacuationLock = new ReentrantLock();
 	private int evacuationPage;
 	private int evacuationPointer;	
+	private volatile long evacuatedBytes;
 	private AtomicInteger pageReleaseCounter = new AtomicInteger();
+	private AtomicLong releasedPages = new AtomicLong();
+	private AtomicLong allocationStalls = new AtomicLong();
+	private AtomicLong allocationStallTime = new AtomicLong();
+	// 0 - wait for free page indefinitely
+	private volatile long allocationTimeout;
+	private volatile boolean sweepMode;
 	
 	private float scavengeGcThreshold = 0.8f;
 	private float minGcThreshold = 0.4f;
@@ -56,7 +68,6 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 		this.pageUsageLimit = pageUsageLimit;
 		this.memUsageLimit = ((long)pageSize) * pageUsageLimit;
 		
-		this.memUsed.set(0);
 		this.pagesInUse.set(0);
 		
 		this.pages = new AtomicReferenceArray<ByteChunk>(pageUsageLimit);
@@ -172,13 +183,16 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 						if (offs + alen + 1> pageSize) {
 							int page = page(pp);
 							int newPage = newPage(page + 1);
-							System.out.println("Page allocated " + newPage);
+							if (logger.isTraceEnabled()) {
+								logger.trace("Page allocated " + newPage);
+							}
 							top[allocNo].set(pointer(newPage,PAGE_HEADER));
 							if (pageUtilizations.get(page) == 0) {
 								ByteChunk oldPage = pages.getAndSet(page, null);
 								if (oldPage != null) {
 									pagesInUse.decrementAndGet();
 									pageReleaseCounter.incrementAndGet();
+									releasedPages.incrementAndGet();
 								}
 							}
 						}
@@ -214,7 +228,7 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 			}
 			pageBuf.putInt(offs, len);
 			pageUtilizations.addAndGet(page, len);
-			memUsed.addAndGet(len);			
+			memUsed.add(len);			
 			fence += 2;
 			validate(pp);			
 			return pp;
@@ -246,6 +260,7 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 	private int newPage(int start) {
 		ByteChunk chunk = new ByteChunk(new byte[pageSize]);
 		pagesInUse.incrementAndGet();
+		long waitStart = System.nanoTime();
 		while(true) {
 			for(int i = 0; i != pageUsageLimit; ++i) {
 				int page = (start + i) % pageUsageLimit; 
@@ -262,8 +277,16 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 			}
 			// hit memory limit, should give scavenger some time to
 			// recover pages
-			System.out.println("Out of pages");
+			logger.debug("Out of pages");
+			long stallStart = System.nanoTime();
 			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+			allocationStalls.incrementAndGet();
+			allocationStallTime.addAndGet(System.nanoTime() - stallStart);
+			long timeout = allocationTimeout;
+			if (Thread.currentThread().isInterrupted() || (timeout != 0 && System.nanoTime() - waitStart > timeout)) {
+				pagesInUse.decrementAndGet();
+				throw new MemoryExhaustedException("No free page after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart) + "ms of waiting");
+			}
 		}
 	}
 
@@ -285,13 +308,15 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 		ByteChunk pageBuf = pages.get(page);
 		int len = pageBuf.intAt(offs);
 		int newSize = pageUtilizations.addAndGet(page, -len);
-		memUsed.addAndGet(-len);
+		memUsed.add(-len);
 		
 		if (!pagesForCleanUp[page]) {
 			checkPageUsage(page);
 		}
 		if (newSize == 0) {
-			System.out.println("Page " + page + " has no more data");
+			if (logger.isTraceEnabled()) {
+				logger.trace("Page " + page + " has no more data");
+			}
 
 			int allocNo = -1;
 			for(int j = 0; j != top.length; ++j) {
@@ -305,6 +330,7 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 				if (pages.compareAndSet(page, pageBuf, null)) {
 					pagesInUse.decrementAndGet();
 					pageReleaseCounter.incrementAndGet();
+					releasedPages.incrementAndGet();
 					if (pagesForCleanUp[page]) {
 						evacuationQueueLength.decrementAndGet();
 					}
@@ -385,6 +411,11 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 			for (i = 0; i != len; ++i) {
 				
 				if (evacuationPointer == 0) {
+					if (sweepMode && i > 0) {
+						// chunks collected so far should be recycled before next (oldest) page is chosen,
+						// otherwise same pages would be collected over and over
+						break;
+					}
 					evacuationPage = choosePageToEvacuate();
 					if (evacuationPage != -1) {
 						ByteChunk pageBuf = pages.get(evacuationPage);
@@ -406,6 +437,7 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 						break;
 					}
 					int hash = pageBuf.intAt(offset + 4);
+					evacuatedBytes += size(pageBuf.intAt(offset));
 					evacuationPointer = nextChunk(pageBuf, evacuationPointer, false);
 					hashes[i] = hash;
 //					if (evacuationPointer == 0) {
@@ -421,6 +453,9 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 	}
 	
 	private int choosePageToEvacuate() {
+		if (sweepMode) {
+			return chooseOldestPage();
+		}
 		int page = -1;
 		int minUsed = pageSize;
 		for (int i = 0; i != pages.length(); ++i) {
@@ -446,8 +481,10 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 			}
 		}
 		
-		if (minUsed < scavengeGcThreshold * pageSize) {
-			System.out.println("Next evacuation page is " + page + " utilization " + ((float)minUsed) / pageSize);
+		if (minUsed < scavengeGcThreshold * pageSize || (sweepMode && page != -1)) {
+			if (logger.isTraceEnabled()) {
+				logger.trace("Next evacuation page is " + page + " utilization " + ((float)minUsed) / pageSize);
+			}
 			evacuationPage = page;
 			return page;
 		}
@@ -455,6 +492,38 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 		return -1;
 	}
 
+	/**
+	 * Sweep visits pages in allocation order, so entries relocated to fresh pages
+	 * are not visited again until rest of memory has been swept.
+	 */
+	private int chooseOldestPage() {
+		int page = -1;
+		for (int i = 0; i != pages.length(); ++i) {
+			if (pageUtilizations.get(i) == 0 || evacuationPage == i || isTopPage(i)) {
+				continue;
+			}
+			if (page == -1 || pageTimestamps[i] < pageTimestamps[page]) {
+				page = i;
+			}
+		}
+		if (page != -1 && !pagesForCleanUp[page]) {
+			// keep page marked for recycling even if evacuation moves to another page
+			pagesForCleanUp[page] = true;
+			evacuationQueueLength.incrementAndGet();
+		}
+		evacuationPage = page;
+		return page;
+	}
+
+	private boolean isTopPage(int page) {
+		for (int j = 0; j != top.length; ++j) {
+			if (page(top[j].get()) == page) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private int nextChunk(ByteChunk pageBuf, int pointer, boolean inclusive) {
 		validate(pointer);
 		
@@ -506,6 +575,83 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 	public long getMemUsage() {
 		return memUsed.get();
 	}
+
+	@Override
+	public long getMemReserved() {
+		return ((long)pagesInUse.get()) * pageSize;
+	}
+
+	@Override
+	public long getMemLimit() {
+		return memUsageLimit;
+	}
+
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	@Override
+	public int getPagesInUse() {
+		return pagesInUse.get();
+	}
+
+	@Override
+	public int[] getPageUtilizationHistogram(int buckets) {
+		int[] histo = new int[buckets];
+		for(int i = 0; i != pageUsageLimit; ++i) {
+			if (pages.get(i) != null) {
+				long n = ((long)pageUtilizations.get(i)) * buckets / pageSize;
+				++histo[(int)Math.max(0, Math.min(buckets - 1, n))];
+			}
+		}
+		return histo;
+	}
+
+	@Override
+	public long getReleasedPageCount() {
+		return releasedPages.get();
+	}
+
+	@Override
+	public long getAllocationStallCount() {
+		return allocationStalls.get();
+	}
+
+	@Override
+	public void setSweepMode(boolean enabled) {
+		sweepMode = enabled;
+	}
+
+	@Override
+	public int getFreePages() {
+		return Math.max(0, pageUsageLimit - pagesInUse.get());
+	}
+
+	@Override
+	public void setAllocationTimeout(long timeoutNanos) {
+		if (timeoutNanos < 0) {
+			throw new IllegalArgumentException("Negative timeout " + timeoutNanos);
+		}
+		allocationTimeout = timeoutNanos;
+	}
+
+	@Override
+	public long getAllocationStallTime() {
+		return allocationStallTime.get();
+	}
+
+	@Override
+	public long getEvacuatedBytes() {
+		return evacuatedBytes;
+	}
+
+	@Override
+	public float getMemoryPressure() {
+		float usage = ((float)pagesInUse.get()) / pageUsageLimit;
+		// no pressure until half of pages are in use
+		return usage < 0.5f ? 0f : Math.min(1f, 2 * (usage - 0.5f));
+	}
 	
 	// for debug only
 	void validate(int pp) {
@@ -570,6 +716,11 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 		}
 	}
 
+	@Override
+	public void close() {
+		// heap pages are reclaimed by GC
+	}
+
 	/* (non-Javadoc)
 	 * @see org.gridkit.coherence.offheap.storage.memlog.MemoryStoreBackend#dumpStatistics()
 	 */
@@ -612,6 +763,6 @@ class InHeapMemoryStoreBackend implements MemoryStoreBackend {
 		buf.append('\n');
 		
 		pageReleaseCounter.set(0);
-		System.out.println(buf.toString());
+		logger.info(buf.toString());
 	}
 }
@@ -0,0 +1,203 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 codec producing LZ4 block format (sequences of literals and 4+ byte matches within 64KiB window).
+ * Compression ratio is modest, but both encoding and decoding are a few times faster than deflate,
+ * so it is suitable for compressing values on every put.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class LzValueCodec implements ValueCodec {
+
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_DISTANCE = 0xFFFF;
+	// format constraints, last 5 bytes are always literals and last match starts 12 bytes before end
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int RUN_MASK = 0xF;
+	private static final int MIN_HASH_LOG = 8;
+	private static final int MAX_HASH_LOG = 12;
+	// search step grows while no match is found, so incompressible data is skipped quickly
+	private static final int SKIP_STRENGTH = 6;
+
+	private static final ThreadLocal<int[]> HASH_TABLE = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1 << MAX_HASH_LOG];
+		}
+	};
+
+	@Override
+	public int maxEncodedLength(int len) {
+		return len + len / 255 + 16;
+	}
+
+	@Override
+	public int encode(byte[] src, int srcOffs, int len, byte[] dst, int dstOffs) {
+		int end = srcOffs + len;
+		int sp = srcOffs;
+		int anchor = srcOffs;
+		int dp = dstOffs;
+		if (len > MF_LIMIT) {
+			// small values do not need large table, clearing it would cost more than compression
+			int hashLog = MIN_HASH_LOG;
+			while(hashLog < MAX_HASH_LOG && (1 << hashLog) < len) {
+				++hashLog;
+			}
+			int[] table = HASH_TABLE.get();
+			Arrays.fill(table, 0, 1 << hashLog, -1);
+			int matchLimit = end - LAST_LITERALS;
+			int mfLimit = end - MF_LIMIT;
+			while(sp < mfLimit) {
+				int seq = readInt(src, sp);
+				int h = hash(seq, hashLog);
+				int ref = table[h];
+				table[h] = sp;
+				if (ref < 0 || sp - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+					sp += 1 + ((sp - anchor) >> SKIP_STRENGTH);
+					continue;
+				}
+				// extend match backward and forward
+				while(sp > anchor && ref > srcOffs && src[sp - 1] == src[ref - 1]) {
+					--sp;
+					--ref;
+				}
+				int ml = MIN_MATCH;
+				while(sp + ml < matchLimit && src[sp + ml] == src[ref + ml]) {
+					++ml;
+				}
+				dp = writeSequence(src, anchor, sp - anchor, sp - ref, ml, dst, dp);
+				if (dp - dstOffs >= len) {
+					return -1;
+				}
+				sp += ml;
+				anchor = sp;
+			}
+		}
+		// last literals
+		int litLen = end - anchor;
+		int token = dp++;
+		if (litLen >= RUN_MASK) {
+			dst[token] = (byte) (RUN_MASK << 4);
+			dp = writeLength(dst, dp, litLen - RUN_MASK);
+		}
+		else {
+			dst[token] = (byte) (litLen << 4);
+		}
+		System.arraycopy(src, anchor, dst, dp, litLen);
+		dp += litLen;
+		return dp - dstOffs >= len ? -1 : dp - dstOffs;
+	}
+
+	private static int writeSequence(byte[] src, int anchor, int litLen, int offset, int ml, byte[] dst, int dp) {
+		int tokenPos = dp++;
+		int token;
+		if (litLen >= RUN_MASK) {
+			token = RUN_MASK << 4;
+			dp = writeLength(dst, dp, litLen - RUN_MASK);
+		}
+		else {
+			token = litLen << 4;
+		}
+		System.arraycopy(src, anchor, dst, dp, litLen);
+		dp += litLen;
+		// offset, little endian
+		dst[dp++] = (byte) offset;
+		dst[dp++] = (byte) (offset >>> 8);
+		int mlCode = ml - MIN_MATCH;
+		if (mlCode >= RUN_MASK) {
+			token |= RUN_MASK;
+			dp = writeLength(dst, dp, mlCode - RUN_MASK);
+		}
+		else {
+			token |= mlCode;
+		}
+		dst[tokenPos] = (byte) token;
+		return dp;
+	}
+
+	private static int writeLength(byte[] dst, int dp, int len) {
+		while(len >= 255) {
+			dst[dp++] = (byte) 255;
+			len -= 255;
+		}
+		dst[dp++] = (byte) len;
+		return dp;
+	}
+
+	@Override
+	public void decode(byte[] src, int srcOffs, int len, byte[] dst, int dstOffs, int rawLen) {
+		int sp = srcOffs;
+		int send = srcOffs + len;
+		int dp = dstOffs;
+		int dend = dstOffs + rawLen;
+		try {
+			while(true) {
+				int token = 0xFF & src[sp++];
+				int litLen = token >>> 4;
+				if (litLen == RUN_MASK) {
+					int b;
+					do {
+						b = 0xFF & src[sp++];
+						litLen += b;
+					}
+					while(b == 255);
+				}
+				if (dp + litLen > dend || sp + litLen > send) {
+					throw new IllegalArgumentException("Corrupted data, literal run is out of bounds");
+				}
+				System.arraycopy(src, sp, dst, dp, litLen);
+				sp += litLen;
+				dp += litLen;
+				if (sp == send) {
+					// last sequence has no match
+					break;
+				}
+				int offset = (0xFF & src[sp++]) | (0xFF & src[sp++]) << 8;
+				int ref = dp - offset;
+				if (offset == 0 || ref < dstOffs) {
+					throw new IllegalArgumentException("Corrupted data, invalid match offset " + offset);
+				}
+				int ml = token & RUN_MASK;
+				if (ml == RUN_MASK) {
+					int b;
+					do {
+						b = 0xFF & src[sp++];
+						ml += b;
+					}
+					while(b == 255);
+				}
+				ml += MIN_MATCH;
+				if (dp + ml > dend) {
+					throw new IllegalArgumentException("Corrupted data, match is out of bounds");
+				}
+				if (offset >= ml) {
+					System.arraycopy(dst, ref, dst, dp, ml);
+					dp += ml;
+				}
+				else {
+					// overlapping match, e.g. run of repeated bytes
+					for(int i = 0; i != ml; ++i) {
+						dst[dp++] = dst[ref++];
+					}
+				}
+			}
+		}
+		catch(ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Corrupted data, unexpected end of input");
+		}
+		if (dp != dend) {
+			throw new IllegalArgumentException("Corrupted data, decoded " + (dp - dstOffs) + " bytes instead of " + rawLen);
+		}
+	}
+
+	private static int readInt(byte[] buf, int offs) {
+		return (0xFF & buf[offs]) | (0xFF & buf[offs + 1]) << 8 | (0xFF & buf[offs + 2]) << 16 | (0xFF & buf[offs + 3]) << 24;
+	}
+
+	private static int hash(int seq, int hashLog) {
+		return (seq * -1640531535) >>> (32 - hashLog);
+	}
+}
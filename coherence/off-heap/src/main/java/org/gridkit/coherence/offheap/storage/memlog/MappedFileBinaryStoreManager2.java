@@ -0,0 +1,14 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.io.File;
+
+public class MappedFileBinaryStoreManager2 extends PagedMemoryBinaryStoreManager2 {
+
+	public MappedFileBinaryStoreManager2(String name, File file, int pageSize, long totalSizeLimit) {
+		super(name, new MappedFileMemoryStoreBackend(file, pageSize, (int) (totalSizeLimit / pageSize), 2));
+	}
+
+	public MappedFileBinaryStoreManager2(String name, File file, int pageSize, long totalSizeLimit, BinaryHashFunction hashFunction) {
+		super(name, new MappedFileMemoryStoreBackend(file, pageSize, (int) (totalSizeLimit / pageSize), 2), hashFunction);
+	}
+}
@@ -0,0 +1,52 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link OffHeapMemoryStoreBackend} which pages are slices of file regions mapped into memory.
+ * Page layout and allocation logic are same as for direct memory.
+ * Large chunks are placed in page runs of mapped slabs too, chunks which cannot be placed there
+ * are rejected, so all data is bounded by the file.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class MappedFileMemoryStoreBackend extends OffHeapMemoryStoreBackend {
+
+	private final MappedFileSlabAllocator slabAllocator;
+
+	public MappedFileMemoryStoreBackend(File file, int pageSize, int pageUsageLimit, int allocNumber) {
+		this(new MappedFileSlabAllocator(file), pageSize, pageUsageLimit, allocNumber);
+	}
+
+	private MappedFileMemoryStoreBackend(MappedFileSlabAllocator slabAllocator, int pageSize, int pageUsageLimit, int allocNumber) {
+		super(pageSize, pageUsageLimit, allocNumber, slabAllocator);
+		this.slabAllocator = slabAllocator;
+	}
+
+	public File getFile() {
+		return slabAllocator.getFile();
+	}
+
+	/**
+	 * Direct memory is not used, it would not be bounded by the file.
+	 * @throws IllegalArgumentException if chunk is larger than a slab
+	 * @throws MemoryExhaustedException if there is no free run of pages for chunk
+	 */
+	@Override
+	protected ByteBuffer allocateDetached(int size) {
+		if (size > getSlabSize()) {
+			throw new IllegalArgumentException("Size is too large, " + size + " exceeds slab size " + getSlabSize() + " of mapped file " + getFile());
+		}
+		else {
+			throw new MemoryExhaustedException("No free run of pages for chunk of " + size + " bytes in mapped file " + getFile());
+		}
+	}
+
+	/**
+	 * Forces modified pages to disk.
+	 */
+	public void flush() {
+		slabAllocator.flush();
+	}
+}
@@ -0,0 +1,75 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SlabAllocator} mapping consecutive regions of a local file.
+ * Slab N always occupies [N * size, (N + 1) * size) range of file, so file layout
+ * is stable across restarts. Resident memory is managed by OS page cache, thus
+ * data set could be larger than physical memory.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class MappedFileSlabAllocator implements SlabAllocator {
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final List<MappedByteBuffer> slabs = new ArrayList<MappedByteBuffer>();
+
+	public MappedFileSlabAllocator(File file) {
+		this.file = file;
+		try {
+			this.raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot open storage file " + file, e);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public synchronized ByteBuffer allocate(int slabNo, int size) {
+		try {
+			// file is extended automatically
+			MappedByteBuffer slab = channel.map(MapMode.READ_WRITE, ((long)slabNo) * size, size);
+			slabs.add(slab);
+			return slab;
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to map slab " + slabNo + " of " + file, e);
+		}
+	}
+
+	/**
+	 * Forces content of mapped slabs to disk.
+	 */
+	public synchronized void flush() {
+		for(MappedByteBuffer slab: slabs) {
+			slab.force();
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		flush();
+		// mapping is released by GC once buffers are unreachable
+		slabs.clear();
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
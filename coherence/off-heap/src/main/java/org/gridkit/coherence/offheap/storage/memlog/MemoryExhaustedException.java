@@ -0,0 +1,18 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * Thrown by store write operations if memory could not be obtained within allocation timeout
+ * (see {@link PagedMemoryBinaryStoreManager2#setAllocationTimeout(long, java.util.concurrent.TimeUnit)})
+ * or if waiting thread has been interrupted.
+ * Store remains consistent, operation which has failed has no effect (though part of bulk operation may have been applied).
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class MemoryExhaustedException extends RuntimeException {
+
+	private static final long serialVersionUID = 20121017L;
+
+	public MemoryExhaustedException(String message) {
+		super(message);
+	}
+}
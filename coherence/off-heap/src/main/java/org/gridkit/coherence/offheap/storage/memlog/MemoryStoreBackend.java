@@ -14,10 +14,74 @@ interface MemoryStoreBackend {
 
 	public abstract boolean isMarkedForRecycle(int pp);
 
+	/**
+	 * In sweep mode {@link #collectHashesForEvacuation(int[], int)} picks least utilized page even if it is dense,
+	 * so eventually every page is visited. Used by eviction.
+	 */
+	public abstract void setSweepMode(boolean enabled);
+
 	public abstract long getMemUsage();
 
+	/**
+	 * @return memory held by backend (whole pages and large chunks) in bytes
+	 */
+	public abstract long getMemReserved();
+
+	public abstract long getMemLimit();
+
+	public abstract int getPageSize();
+
+	public abstract int getPagesInUse();
+
+	/**
+	 * @return number of pages which could be allocated without waiting for evacuation
+	 */
+	public abstract int getFreePages();
+
+	/**
+	 * Limits time allocation would wait for a free page, once it expires {@link MemoryExhaustedException} is thrown.
+	 * Waiting thread could also be interrupted, in which case exception is thrown immediately.
+	 * @param timeoutNanos 0 - wait indefinitely (default)
+	 */
+	public abstract void setAllocationTimeout(long timeoutNanos);
+
+	/**
+	 * @return number of storage pages by utilization, bucket <code>i</code> counts pages filled from <code>i/buckets</code> to <code>(i+1)/buckets</code>
+	 */
+	public abstract int[] getPageUtilizationHistogram(int buckets);
+
+	/**
+	 * @return total number of pages returned to free pool
+	 */
+	public abstract long getReleasedPageCount();
+
+	/**
+	 * @return number of times allocation had to wait for a free page
+	 */
+	public abstract long getAllocationStallCount();
+
+	/**
+	 * @return total time spent by allocations waiting for free pages, in nanoseconds
+	 */
+	public abstract long getAllocationStallTime();
+
+	/**
+	 * @return total size of chunks handed out by {@link #collectHashesForEvacuation(int[], int)}
+	 */
+	public abstract long getEvacuatedBytes();
+
+	/**
+	 * @return memory pressure in range 0 (plenty of free pages) to 1 (allocators are waiting for pages)
+	 */
+	public abstract float getMemoryPressure();
+
 	public abstract void dumpStatistics();
 
+	/**
+	 * Releases resources held by backend (e.g. mapped files), backend should not be used afterwards.
+	 */
+	public abstract void close();
+
 	// for diagnostic reasons
 	public abstract int page(int npp);
 
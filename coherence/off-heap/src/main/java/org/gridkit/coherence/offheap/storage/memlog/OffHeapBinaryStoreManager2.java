@@ -5,4 +5,8 @@ public class OffHeapBinaryStoreManager2 extends PagedMemoryBinaryStoreManager2 {
 	public OffHeapBinaryStoreManager2(String name, int pageSize, long totalSizeLimit) {
 		super(name, new OffHeapMemoryStoreBackend(pageSize, (int) (totalSizeLimit / pageSize), 2));
 	}
+
+	public OffHeapBinaryStoreManager2(String name, int pageSize, long totalSizeLimit, BinaryHashFunction hashFunction) {
+		super(name, new OffHeapMemoryStoreBackend(pageSize, (int) (totalSizeLimit / pageSize), 2), hashFunction);
+	}
 }
@@ -1,6 +1,9 @@
 package org.gridkit.coherence.offheap.storage.memlog;
 
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -11,10 +14,18 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 
+	private final static Logger logger = LoggerFactory.getLogger(OffHeapMemoryStoreBackend.class);
+
 	private final static int PAGE_HEADER = 32; // leaves 0 and 1 pointers as special values
 	private final static int ALIGNMENT = 4; // 16 bytes, IMPORTANT if allignment constant is changing align() method should be updated
+	private final static int SPAN_CHUNK_OFFSET = 0; // pointers with offset inside of page header denote large chunks
+	private final static int DETACHED_CHUNK_OFFSET = 1 << ALIGNMENT;
+	private final static int NO_PAGE = -1; // bump pointer of allocator which has not got a page yet
 	
 	private final static int DIRECT_BUFFER_SIZE = 64 << 20; // 64MiB
 //	private final static int DIRECT_BUFFER_SIZE = 64 << 10; // 64KiB, for testing only
@@ -24,27 +35,66 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 	private final int offsetMask;
 	private final int pageShift;
 	
-	private AtomicLong memUsed = new AtomicLong();
+	private StripedCounter memUsed = new StripedCounter();
 	private long memUsageLimit;
 	
 	private AtomicInteger pagesInUse = new AtomicInteger();
 	private Allocator[] allocators;
+	private int stripeMask;
 	private AtomicReferenceArray<Page> pages;
 	
+	// chunks larger than quarter of page, occupy run of consecutive pages, indexed by first page
+	private AtomicReferenceArray<ByteBuffer> largeChunks;
+	// large chunks which could not be placed in pages (no free run or larger than slab), each has own direct buffer
+	private AtomicReferenceArray<ByteBuffer> detachedChunks;
+	private int detachedChunkHint = 1;
+	private AtomicInteger largeChunkPages = new AtomicInteger();
+	private AtomicLong largeChunkMemUsed = new AtomicLong();
+	
 	private ReentrantLock evacuationLock = new ReentrantLock();
 	private int evacuationPage;
 	private int evacuationPointer;	
+	private volatile long evacuatedBytes;
 	private AtomicInteger pageReleaseCounter = new AtomicInteger();
+	private UsageHistogram usageHistogram;
+	private SweepQueue sweepQueue;
+	private AtomicInteger pageWaiters = new AtomicInteger();
+	private AtomicLong releasedPages = new AtomicLong();
+	private AtomicLong allocationStalls = new AtomicLong();
+	private AtomicLong allocationStallTime = new AtomicLong();
+	// 0 - wait for free page indefinitely
+	private volatile long allocationTimeout;
+	private volatile boolean sweepMode;
 	
 	private float scavengeGcThreshold = 0.8f;
 	private float minGcThreshold = 0.2f;
-	private float gcThreshold = minGcThreshold;
+	private volatile float gcThreshold = minGcThreshold;
 	
 	private volatile int fence;
 	
+	private SlabAllocator slabAllocator;
 	private OffHeapPageAllocator pageAllocator;
 	
-	public OffHeapMemoryStoreBackend(int pageSize, int pageUsageLimit, int allocNumber) {		
+	public OffHeapMemoryStoreBackend(int pageSize, int pageUsageLimit, int allocNumber) {
+		this(pageSize, pageUsageLimit, allocNumber, new DirectSlabAllocator());
+	}
+	
+	/**
+	 * @param slabAllocator source of memory regions, which are sliced into pages
+	 */
+	public OffHeapMemoryStoreBackend(int pageSize, int pageUsageLimit, int allocNumber, SlabAllocator slabAllocator) {
+		// each stripe holds its own page, so stripe count is limited by memory size too
+		this(pageSize, pageUsageLimit, allocNumber, Math.min(ThreadStripes.defaultStripeCount(), Math.max(1, Integer.highestOneBit(pageUsageLimit / 32))), slabAllocator);
+	}
+
+	/**
+	 * @param stripes number of allocator stripes per allocation stream, power of 2
+	 * @param slabAllocator source of memory regions, which are sliced into pages
+	 */
+	public OffHeapMemoryStoreBackend(int pageSize, int pageUsageLimit, int allocNumber, int stripes, SlabAllocator slabAllocator) {		
+		if (stripes <= 0 || stripes != Integer.highestOneBit(stripes)) {
+			throw new IllegalArgumentException("Stripe count should be power of 2");
+		}
 		this.pageSize = pageSize;
 		if (pageSize != Integer.highestOneBit(pageSize) || pageSize > 1 << 30) {			
 			throw new IllegalArgumentException("Invalid page size " + pageSize + ", valid page size should be power of 2 and no more than 1Gb");
@@ -58,17 +108,27 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 		this.pageUsageLimit = pageUsageLimit;
 		this.memUsageLimit = ((long)pageSize) * pageUsageLimit;
 		
+		this.slabAllocator = slabAllocator;
 		this.pageAllocator = new OffHeapPageAllocator(pageSize, pageUsageLimit);
 		
-		this.memUsed.set(0);
 		this.pagesInUse.set(0);
 		
 		this.pages = new AtomicReferenceArray<Page>(pageUsageLimit);
+		this.usageHistogram = new UsageHistogram(pageSize, pageUsageLimit);
+		this.sweepQueue = new SweepQueue(pageUsageLimit);
+		// each large chunk occupies at least one page worth of memory
+		this.largeChunks = new AtomicReferenceArray<ByteBuffer>(pageUsageLimit);
+		this.detachedChunks = new AtomicReferenceArray<ByteBuffer>(pageUsageLimit);
+		
+		// threads are spread across allocator stripes, so writers do not contend on same bump pointer
+		this.stripeMask = stripes - 1;
 		
-		// allocate first page
-		allocators = new Allocator[allocNumber];
+		// pages are allocated lazily, on first allocation in stripe
+		allocators = new Allocator[allocNumber * stripes];
 		for(int i = 0; i!= allocNumber; ++i) {
-			allocators[i] = new Allocator("#" + i);
+			for(int j = 0; j != stripes; ++j) {
+				allocators[i * stripes + j] = new Allocator("#" + i + "." + j);
+			}
 		}
 		
 //		dumpStatistics();
@@ -96,6 +156,23 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 		return (0x80000000 & sv) != 0;
 	}
 	
+	boolean isLarge(int pointer) {
+		// ordinary chunks are never placed in page header
+		return offset(pointer) < PAGE_HEADER;
+	}
+	
+	private AtomicReferenceArray<ByteBuffer> largeChunkTable(int pointer) {
+		return offset(pointer) == DETACHED_CHUNK_OFFSET ? detachedChunks : largeChunks;
+	}
+	
+	private ByteBuffer largeChunk(int pointer) {
+		ByteBuffer buffer = largeChunkTable(pointer).get(page(pointer));
+		if (buffer == null) {
+			throw new IllegalArgumentException("Broken pointer " + Integer.toHexString(pointer) + " large chunk is not allocated");
+		}
+		return buffer;
+	}
+	
 	int pointer(int page, int offset) {
 		int pointer = offsetMask & (offset >> ALIGNMENT);
 //		if (pointer == 0 && offset != 0) {
@@ -115,6 +192,10 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 	 * @see org.gridkit.coherence.offheap.storage.memlog.MemoryStoreBackend#get(int)
 	 */
 	public ByteChunk get(int pointer) {
+		if (isLarge(pointer)) {
+			ByteBuffer buffer = largeChunk(pointer);
+			return new DirectByteChunk(buffer, 0, buffer.capacity());
+		}
 		validate(pointer);
 		int page = page(pointer);
 		int offs = offset(pointer);
@@ -135,6 +216,10 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 
 	@Override
 	public void update(int pointer, ByteChunk bytes) {
+		if (isLarge(pointer)) {
+			updateLarge(pointer, bytes);
+			return;
+		}
 		validate(pointer);
 		int page = page(pointer);
 		int offs = offset(pointer);
@@ -162,15 +247,146 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 //		System.err.println("Written: " + bytes);
 //		dumpPage(pageBuf);
 	}
+	
+	private void updateLarge(int pointer, ByteChunk bytes) {
+		ByteBuffer buffer = largeChunk(pointer);
+		if (bytes.lenght() != buffer.capacity()) {
+			throw new IllegalArgumentException("Slot size does match buffer size. Slot:" + buffer.capacity() + ", buffer:" + bytes.lenght());
+		}
+		if (bytes instanceof DirectByteChunk && ((DirectByteChunk)bytes).isViewOf(buffer, 0)) {
+			// chunk has been written in place
+			return;
+		}
+		bytes.copyTo(buffer, 0);
+	}
 
 	/* (non-Javadoc)
 	 * @see org.gridkit.coherence.offheap.storage.memlog.MemoryStoreBackend#allocate(int, int)
 	 */
 	public int allocate(int size, int allocNo) {
-		Allocator allocator = allocators[allocNo];
+		if (size > pageSize >> 2) {
+			return allocateLarge(size);
+		}
+		Allocator allocator = allocators[allocNo * (stripeMask + 1) + (ThreadStripes.current() & stripeMask)];
 		return allocator.allocate(size);
 	}
 	
+	private int spanOf(int size) {
+		return (size + pageSize - 1) / pageSize;
+	}
+	
+	/**
+	 * Large chunks occupy run of consecutive pages in a slab. Such pages are accounted
+	 * with same permits as ordinary pages and returned to allocator once chunk is released.
+	 * If there is no free run (or chunk does not fit in a slab) dedicated buffer is allocated,
+	 * see {@link #allocateDetached(int)}. Large chunks are never evacuated.
+	 */
+	private int allocateLarge(int size) {
+		int span = spanOf(size);
+		if (span > pageUsageLimit) {
+			throw new IllegalArgumentException("Size is too large, " + size + " exceeds memory limit");
+		}
+		if (!pageAllocator.tryAcquireSpan(span)) {
+			long stallStart = System.nanoTime();
+			pageWaiters.incrementAndGet();
+			adjustGcThreshold();
+			try {
+				pageAllocator.acquireSpan(span, allocationTimeout);
+			}
+			finally {
+				pageWaiters.decrementAndGet();
+				recordStall(stallStart);
+			}
+		}
+		largeChunkPages.addAndGet(span);
+		adjustGcThreshold();
+		
+		int pointer;
+		int firstPage = pageAllocator.allocRun(span);
+		if (firstPage >= 0) {
+			largeChunks.set(firstPage, pageAllocator.sliceRun(firstPage, size));
+			pointer = pointer(firstPage, SPAN_CHUNK_OFFSET);
+		}
+		else {
+			ByteBuffer buffer;
+			try {
+				buffer = allocateDetached(size);
+			}
+			catch(RuntimeException e) {
+				largeChunkPages.addAndGet(-span);
+				pageAllocator.releaseSpan(span);
+				throw e;
+			}
+			pointer = pointer(addDetached(buffer), DETACHED_CHUNK_OFFSET);
+		}
+		memUsed.add(size);
+		largeChunkMemUsed.addAndGet(size);
+		return pointer;
+	}
+	
+	private int addDetached(ByteBuffer buffer) {
+		int start = detachedChunkHint;
+		// slot 0 is not used, pointer 1 is reserved
+		for(int i = 0; i != detachedChunks.length(); ++i) {
+			int slot = (start + i) % detachedChunks.length();
+			if (slot != 0 && detachedChunks.get(slot) == null && detachedChunks.compareAndSet(slot, null, buffer)) {
+				detachedChunkHint = slot + 1;
+				return slot;
+			}
+		}
+		// should not happen, number of large chunks is limited by page permits
+		throw new AssertionError("No free slot for large chunk");
+	}
+	
+	/**
+	 * Allocates dedicated zeroed buffer for a large chunk, which could not be placed in pages.
+	 * Buffer is passed to {@link #releaseDetached(ByteBuffer)} once chunk is released.
+	 */
+	protected ByteBuffer allocateDetached(int size) {
+		return ByteBuffer.allocateDirect(size);
+	}
+	
+	protected void releaseDetached(ByteBuffer buffer) {
+		freeDirectBuffer(buffer);
+	}
+	
+	private void releaseLarge(int pointer) {
+		ByteBuffer buffer = largeChunk(pointer);
+		if (!largeChunkTable(pointer).compareAndSet(page(pointer), buffer, null)) {
+			throw new IllegalArgumentException("Broken pointer " + Integer.toHexString(pointer) + " large chunk is already released");
+		}
+		int span = spanOf(buffer.capacity());
+		memUsed.add(-buffer.capacity());
+		largeChunkMemUsed.addAndGet(-buffer.capacity());
+		if (offset(pointer) == DETACHED_CHUNK_OFFSET) {
+			releaseDetached(buffer);
+		}
+		else {
+			pageAllocator.releaseRun(page(pointer), span);
+		}
+		largeChunkPages.addAndGet(-span);
+		pageAllocator.releaseSpan(span);
+		adjustGcThreshold();
+	}
+	
+	/**
+	 * Releases native memory of direct buffer without waiting for GC.
+	 * Cleaner is not accessible on some JVMs, memory is left to GC in that case.
+	 */
+	static void freeDirectBuffer(ByteBuffer buffer) {
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		}
+		catch(Exception e) {
+			// ignore
+		}
+	}
+	
 	private static int align(int len) {
 		// TODO unhardcode alignment
 		return (len + 0xF) & (0xFFFFFFF0);
@@ -180,36 +396,42 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 	 * @see org.gridkit.coherence.offheap.storage.memlog.MemoryStoreBackend#release(int)
 	 */
 	public void release(int pointer) {
+		if (isLarge(pointer)) {
+			releaseLarge(pointer);
+			return;
+		}
 		int page = page(pointer);
 		int offs = offset(pointer);
 		if (offs < PAGE_HEADER) {
 			throw new IllegalArgumentException("Invalid pointer " + Long.toHexString(pointer));
 		}
 		if (page >= pages.length()) {
-			// TODO allocate large objects in heap
 			throw new IllegalArgumentException("Invalid pointer " + Integer.toHexString(pointer));
 		}
 
 		
 		Page pageBuf = pages.get(page);
 		int len = pageBuf.intAt(offs);
+		// mark chunk as deleted, should be done before usage update
+		// otherwise page could be recycled under our feet
+		pageBuf.putInt(offs, 0x80000000 | len);
 		pageBuf.updateMemUsage(-len);
-		memUsed.addAndGet(-len);
+		memUsed.add(-len);
 		
-		if (!pageBuf.isMarkedForEvacuation() && !pageBuf.isForAllocation()) {
-			checkPageUsage(page);
+		if (!pageBuf.isForAllocation()) {
+			usageHistogram.update(page, pageBuf.getMemUsage());
+			if (!pageBuf.isMarkedForEvacuation()) {
+				checkPageUsage(page);
+			}
 		}
 		
 		if (pageBuf.getMemUsage() == 0 && !pageBuf.isForAllocation()) {
-			System.out.println("Page " + page + " has no more data");
+			if (logger.isTraceEnabled()) {
+				logger.trace("Page " + page + " has no more data");
+			}
 
 			releasePage(pageBuf);
 		}
-		
-		if (pageBuf != null) {
-			// mark chunk as deleted
-			pageBuf.putInt(offs, 0x80000000 | len);
-		}
 	}
 
 	private void checkPageUsage(int page) {
@@ -233,6 +455,11 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 			for (i = 0; i != len; ++i) {
 				
 				if (evacuationPointer == 0) {
+					if (sweepMode && i > 0) {
+						// chunks collected so far should be recycled before next (oldest) page is chosen,
+						// otherwise same pages would be collected over and over
+						break;
+					}
 					evacuationPage = choosePageToEvacuate();
 					if (evacuationPage != -1) {
 						Page pageBuf = pages.get(evacuationPage);
@@ -254,6 +481,7 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 						break;
 					}
 					int hash = pageBuf.intAt(offset + 4);
+					evacuatedBytes += size(pageBuf.intAt(offset));
 					evacuationPointer = nextChunk(pageBuf, evacuationPointer, false);
 					hashes[i] = hash;
 //					if (evacuationPointer == 0) {
@@ -268,35 +496,58 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 		}
 	}
 	
+	// evacuationLock assumed
 	private int choosePageToEvacuate() {
-		int page = -1;
-		int minUsed = pageSize;
-		for (int i = 0; i != pages.length(); ++i) {
-			Page pageBuf = pages.get(i);
-			if (pageBuf == null || pageBuf.getMemUsage() == 0 || pageBuf.isForAllocation()) {
-				continue;
+		if (sweepMode) {
+			return chooseOldestPage();
+		}
+		while(true) {
+			int page = usageHistogram.lowest(evacuationPage);
+			if (page == -1) {
+				return -1;
 			}
-			if (evacuationPage == i) {
+			Page pageBuf = pages.get(page);
+			if (pageBuf == null || pageBuf.getMemUsage() == 0 || pageBuf.isForAllocation()) {
+				// stale histogram entry
+				usageHistogram.remove(page);
 				continue;
 			}
-			int usage = pageBuf.getMemUsage();
-			if (minUsed > usage) {
-				minUsed = usage;
-				page = i;
+			
+			int minUsed = pageBuf.getMemUsage();
+			if (minUsed < scavengeGcThreshold * pageSize) {
+				if (logger.isTraceEnabled()) {
+					logger.trace("Next evacuation page is " + page + " utilization " + ((float)minUsed) / pageSize);
+				}
+				evacuationPage = page;
+				pageBuf.markForEvacuation();
+				return page;
 			}
+			
+			return -1;
 		}
-		
-		if (minUsed < scavengeGcThreshold * pageSize) {
-			System.out.println("Next evacuation page is " + page + " utilization " + ((float)minUsed) / pageSize);
-			evacuationPage = page;
-			Page pageBuf = pages.get(page);
-			if (pageBuf != null) {
-				pageBuf.markForEvacuation();
+	}
+
+	/**
+	 * Sweep visits pages in allocation order, so entries relocated to fresh pages
+	 * are not visited again until rest of memory has been swept.
+	 * evacuationLock assumed.
+	 */
+	private int chooseOldestPage() {
+		while(true) {
+			Page pageBuf = sweepQueue.poll();
+			if (pageBuf == null) {
+				return -1;
+			}
+			int page = pageBuf.getPageNo();
+			if (pages.get(page) != pageBuf || page == evacuationPage || pageBuf.getMemUsage() == 0) {
+				// page has been released or is being evacuated already
+				continue;
+			}
+			if (pageBuf.markForEvacuation() || pageBuf.isMarkedForEvacuation()) {
+				evacuationPage = page;
+				return page;
 			}
-			return page;
 		}
-		
-		return -1;
 	}
 
 	private int nextChunk(Page pageBuf, int pointer, boolean inclusive) {
@@ -336,6 +587,10 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 	 * @see org.gridkit.coherence.offheap.storage.memlog.MemoryStoreBackend#isMarkedForRecycle(int)
 	 */
 	public boolean isMarkedForRecycle(int pp) {
+		if (isLarge(pp)) {
+			// large chunks do not fragment pages, no need to relocate them
+			return false;
+		}
 		int page = page(pp);
 		Page pageBuf = pages.get(page);
 //		if ((page < 0) || (page > pagesForCleanUp.length)) {
@@ -351,6 +606,107 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 	public long getMemUsage() {
 		return memUsed.get();
 	}
+
+	@Override
+	public long getMemReserved() {
+		return ((long)pagesInUse.get() + largeChunkPages.get()) * pageSize;
+	}
+
+	@Override
+	public long getMemLimit() {
+		return memUsageLimit;
+	}
+
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return size of regions requested from {@link SlabAllocator}, large chunks exceeding it cannot be placed in pages
+	 */
+	int getSlabSize() {
+		return pageAllocator.directPageSize;
+	}
+
+	@Override
+	public int getPagesInUse() {
+		return pagesInUse.get();
+	}
+
+	@Override
+	public int[] getPageUtilizationHistogram(int buckets) {
+		int[] histo = new int[buckets];
+		for(int i = 0; i != pages.length(); ++i) {
+			Page page = pages.get(i);
+			if (page != null) {
+				long n = ((long)page.getMemUsage()) * buckets / pageSize;
+				++histo[(int)Math.max(0, Math.min(buckets - 1, n))];
+			}
+		}
+		return histo;
+	}
+
+	@Override
+	public long getReleasedPageCount() {
+		return releasedPages.get();
+	}
+
+	@Override
+	public long getAllocationStallCount() {
+		return allocationStalls.get();
+	}
+
+	@Override
+	public long getAllocationStallTime() {
+		return allocationStallTime.get();
+	}
+
+	@Override
+	public void setSweepMode(boolean enabled) {
+		sweepMode = enabled;
+	}
+
+	@Override
+	public int getFreePages() {
+		return pageAllocator.availablePages();
+	}
+
+	@Override
+	public void setAllocationTimeout(long timeoutNanos) {
+		if (timeoutNanos < 0) {
+			throw new IllegalArgumentException("Negative timeout " + timeoutNanos);
+		}
+		allocationTimeout = timeoutNanos;
+	}
+
+	private void recordStall(long stallStart) {
+		allocationStalls.incrementAndGet();
+		allocationStallTime.addAndGet(System.nanoTime() - stallStart);
+	}
+
+	@Override
+	public long getEvacuatedBytes() {
+		return evacuatedBytes;
+	}
+
+	@Override
+	public float getMemoryPressure() {
+		if (pageWaiters.get() > 0) {
+			return 1f;
+		}
+		float usage = ((float)(pagesInUse.get() + largeChunkPages.get())) / pageUsageLimit;
+		// no pressure until half of pages are in use
+		return usage < 0.5f ? 0f : Math.min(1f, 2 * (usage - 0.5f));
+	}
+
+	/**
+	 * Under memory pressure sparse pages are marked for evacuation more aggressively,
+	 * up to scavenge threshold. 
+	 */
+	private void adjustGcThreshold() {
+		gcThreshold = minGcThreshold + (scavengeGcThreshold - minGcThreshold) * getMemoryPressure();
+	}
 	
 	// for debug only
 	void validate(int pp) {
@@ -419,6 +775,28 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 	
 	
 	
+	/**
+	 * Each allocator stripe keeps a page open for allocation, even if it is empty.
+	 * Retires these pages, empty ones are released, others become subject to evacuation.
+	 * Stripes take new pages on next allocation.
+	 */
+	public void releaseAllocationPages() {
+		for(Allocator allocator: allocators) {
+			allocator.retirePage();
+		}
+	}
+
+	@Override
+	public void close() {
+		for(int i = 0; i != detachedChunks.length(); ++i) {
+			ByteBuffer buffer = detachedChunks.getAndSet(i, null);
+			if (buffer != null) {
+				releaseDetached(buffer);
+			}
+		}
+		slabAllocator.close();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.gridkit.coherence.offheap.storage.memlog.MemoryStoreBackend#dumpStatistics()
 	 */
@@ -427,14 +805,17 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 		long unallocated = 0;
 		for(int j = 0; j != allocators.length; ++j) {
 			int tp = allocators[j].bumpPointer;
-			unallocated += pageSize - offset(tp);
+			if (tp != NO_PAGE) {
+				unallocated += pageSize - offset(tp);
+			}
 		}
 
 		StringBuilder buf = new StringBuilder();
 		buf.append("Pages allocated: ").append(pagesInUse.get()).append('/').append(pageUsageLimit).append(" (").append(pageSize).append(" per page)").append('\n');
 		buf.append("Pages freed since last report: ").append(pageReleaseCounter.get()).append('\n');
+		buf.append("Pages reserved by large chunks: ").append(largeChunkPages.get()).append('\n');
 		buf.append("Memory used: ").append(memUsed.get()).append('/').append(((long)pageUsageLimit) * pageSize).append('\n');
-		buf.append("Page utilization: ").append(String.format("%f", ((double)memUsed.get() + unallocated) / (((double)pagesInUse.get()) * pageSize))).append('\n');
+		buf.append("Page utilization: ").append(String.format("%f", ((double)memUsed.get() - largeChunkMemUsed.get() + unallocated) / (((double)pagesInUse.get()) * pageSize))).append('\n');
 	
 		for(int i = 0; i != pages.length(); ++i) {
 			Page pageBuf = pages.get(i);
@@ -444,7 +825,7 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 			int us = pageSize;
 			for(int j = 0; j != allocators.length; ++j) {
 				int tp = allocators[j].bumpPointer;
-				if (i == page(tp)) {
+				if (tp != NO_PAGE && i == page(tp)) {
 					us = offset(tp);
 					break;
 				}
@@ -465,7 +846,7 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 		buf.append('\n');
 		
 		pageReleaseCounter.set(0);
-		System.out.println(buf.toString());
+		logger.info(buf.toString());
 	}
 	
 	
@@ -493,11 +874,46 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 			allocPermits = new Semaphore(pageCount, true);
 		}
 		
-		public Page allocate() {
-			allocPermits.acquireUninterruptibly();
+		/**
+		 * @param timeout in nanoseconds, 0 - wait indefinitely
+		 * @throws MemoryExhaustedException if timeout has expired or thread was interrupted
+		 */
+		public Page allocate(long timeout) {
+			acquireSpan(1, timeout);
 			return allocBuffer();
 		}
 		
+		/**
+		 * @param timeout in nanoseconds, 0 - wait indefinitely
+		 * @throws MemoryExhaustedException if timeout has expired or thread was interrupted
+		 */
+		public void acquireSpan(int pageCount, long timeout) {
+			try {
+				if (timeout == 0) {
+					allocPermits.acquire(pageCount);
+				}
+				else if (!allocPermits.tryAcquire(pageCount, timeout, TimeUnit.NANOSECONDS)) {
+					throw new MemoryExhaustedException("No free memory after " + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms of waiting, " + pageCount + " page(s) requested");
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MemoryExhaustedException("Interrupted while waiting for free memory");
+			}
+		}
+		
+		public int availablePages() {
+			return allocPermits.availablePermits();
+		}
+
+		public boolean tryAcquireSpan(int pageCount) {
+			return allocPermits.tryAcquire(pageCount);
+		}
+		
+		public void releaseSpan(int pageCount) {
+			allocPermits.release(pageCount);
+		}
+		
 		public Page tryAllocate() {
 			if (allocPermits.tryAcquire()) {
 				return allocBuffer();
@@ -515,9 +931,54 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 		
 			pages.set(bufferId);
 			
+			return new Page(this, slice(bufferId, pageSize), bufferId);
+		}
+		
+		/**
+		 * Marks run of free pages within single slab as used. Caller should hold permits for them.
+		 * @return first page of run or -1 if there is no such run
+		 */
+		public synchronized int allocRun(int pageCount) {
+			if (pageCount > pagesPerBuffer) {
+				return -1;
+			}
+			// page 0 is not used, zero pointer is reserved 
+			int page = 1;
+			while(true) {
+				page = pages.nextClearBit(page);
+				if (page + pageCount > this.pageCount) {
+					return -1;
+				}
+				int slabEnd = (page / pagesPerBuffer + 1) * pagesPerBuffer;
+				if (page + pageCount > slabEnd) {
+					page = slabEnd;
+					continue;
+				}
+				int used = pages.nextSetBit(page);
+				if (used >= 0 && used < page + pageCount) {
+					page = used;
+					continue;
+				}
+				pages.set(page, page + pageCount);
+				return page;
+			}
+		}
+
+		/**
+		 * @return zeroed view of run memory, first len bytes
+		 */
+		public synchronized ByteBuffer sliceRun(int firstPage, int len) {
+			return slice(firstPage, len);
+		}
+		
+		public synchronized void releaseRun(int firstPage, int pageCount) {
+			pages.clear(firstPage, firstPage + pageCount);
+		}
+		
+		private ByteBuffer slice(int bufferId, int len) {
 			ByteBuffer master = buffers[bufferId / pagesPerBuffer];
 			if (master == null) {
-				master = buffers[bufferId / pagesPerBuffer] = ByteBuffer.allocateDirect(directPageSize); 
+				master = buffers[bufferId / pagesPerBuffer] = slabAllocator.allocate(bufferId / pagesPerBuffer, directPageSize);
 			}
 			
 			int offset = pageSize * (bufferId % pagesPerBuffer);
@@ -527,7 +988,7 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 				bb.position(0);
 				bb.limit(bb.capacity());
 				bb.position(offset);
-				bb.limit(offset + pageSize);
+				bb.limit(offset + len);
 				bb = bb.slice();
 			}
 			catch(IllegalArgumentException e) {
@@ -536,11 +997,15 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 			}
 			
 			// zeroing buffer
-			for (int i = 0; i != pageSize; i += 8) {
+			int i = 0;
+			for (; i + 8 <= len; i += 8) {
 				bb.putLong(i, 0);
 			}
+			for (; i != len; ++i) {
+				bb.put(i, (byte)0);
+			}
 			
-			return new Page(this, bb, bufferId);
+			return bb;
 		}
 		
 		public synchronized void release(int bufferId) {
@@ -567,10 +1032,13 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 			}
 		}
 		if (page.markForRelease()) {
+			usageHistogram.remove(page.getPageNo());
 			pages.compareAndSet(page.getPageNo(), page, null);
 			pagesInUse.decrementAndGet();
 			pageReleaseCounter.incrementAndGet();
+			releasedPages.incrementAndGet();
 			page.release();
+			adjustGcThreshold();
 		}
 	}
 	
@@ -580,17 +1048,21 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 
 		String name;
 		ReentrantLock lock;
+		// padding to keep bump pointers of different stripes in different cache lines
+		long p1, p2, p3, p4, p5, p6, p7;
 		volatile int bumpPointer;
+		long q1, q2, q3, q4, q5, q6, q7;
 		
 		public Allocator(String name) {
 			this.name = name;
 			lock = new ReentrantLock();
-			bumpPointer = pointer(newPage(0), PAGE_HEADER); 
+			// offset of NO_PAGE is at the end of page, so first allocation takes new page
+			bumpPointer = NO_PAGE; 
 		}
 		
 		public int allocate(int size) {
 			if (size > pageSize >> 2) {
-				// TODO allocate large objects in heap
+				// large chunks should be handled by backend
 				throw new IllegalArgumentException("Size is too large");
 			}
 			while(true) {
@@ -610,14 +1082,14 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 							pp = bumpPointer;
 							offs = offset(pp);
 							if (offs + alen + 1> pageSize) {
-								int page = page(pp);
+								int page = pp == NO_PAGE ? -1 : page(pp);
 								int newPage = newPage(page + 1);
-								System.out.println("Page allocated " + newPage);
+								if (logger.isTraceEnabled()) {
+									logger.trace("Page allocated " + newPage);
+								}
 								bumpPointer = pointer(newPage,PAGE_HEADER);
-								Page oldPage = pages.get(page);
-								oldPage.markForStorage();
-								if (oldPage.getMemUsage() == 0) {
-									releasePage(oldPage);
+								if (page != -1) {
+									retire(page);
 								}
 							}
 							else {
@@ -664,21 +1136,65 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 					throw new AssertionError("Allocation have failed (" + size + " requested). Dirty memory: " + page + ":" + offs);
 				}
 				pageBuf.putInt(offs, len);
-				memUsed.addAndGet(len);			
+				memUsed.add(len);			
 				fence += 2;
 				validate(pp);			
 				return pp;
 			}
 		}
 		
+		/**
+		 * Gives up current page, next allocation will take a new one.
+		 */
+		public void retirePage() {
+			lock.lock();
+			try {
+				int pp = bumpPointer;
+				if (pp != NO_PAGE) {
+					bumpPointer = NO_PAGE;
+					retire(page(pp));
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		// guarded by 'lock' field
+		private void retire(int page) {
+			Page oldPage = pages.get(page);
+			oldPage.markForStorage();
+			if (oldPage.getMemUsage() == 0) {
+				releasePage(oldPage);
+			}
+			else {
+				usageHistogram.update(page, oldPage.getMemUsage());
+				sweepQueue.add(oldPage);
+			}
+		}
+
 		// guarded by 'lock' field
 		private int newPage(int start) {
 			// code looks little awkward with off-heap allocator
 			// refactoring required
-			Page pageBuf = pageAllocator.allocate();
+			Page pageBuf = pageAllocator.tryAllocate();
+			if (pageBuf == null) {
+				long stallStart = System.nanoTime();
+				pageWaiters.incrementAndGet();
+				adjustGcThreshold();
+				try {
+					pageBuf = pageAllocator.allocate(allocationTimeout);
+				}
+				finally {
+					pageWaiters.decrementAndGet();
+					recordStall(stallStart);
+				}
+			}
 			pagesInUse.incrementAndGet();
+			adjustGcThreshold();
+			long waitStart = System.nanoTime();
 			while(true) {
-				int nextSlot = page(bumpPointer);
+				int nextSlot = start;
 				for(int i = 0; i != pageUsageLimit; ++i) {
 					int page = (nextSlot + i) % pageUsageLimit; 
 					if (pages.get(page) == null) {
@@ -694,8 +1210,23 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 				}
 				// hit memory limit, should give scavenger some time to
 				// recover pages
-				System.out.println("Out of pages");
-				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+				logger.debug("Out of pages");
+				long stallStart = System.nanoTime();
+				pageWaiters.incrementAndGet();
+				try {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+				}
+				finally {
+					pageWaiters.decrementAndGet();
+					recordStall(stallStart);
+				}
+				long timeout = allocationTimeout;
+				if (Thread.currentThread().isInterrupted() || (timeout != 0 && System.nanoTime() - waitStart > timeout)) {
+					pagesInUse.decrementAndGet();
+					pageBuf.release();
+					adjustGcThreshold();
+					throw new MemoryExhaustedException("No free page slot");
+				}
 			}
 		}
 
@@ -706,6 +1237,111 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 	}
 	
 	
+	/**
+	 * Storage pages bucketed by utilization, so evacuator could pick
+	 * sparse page without scanning whole page table.
+	 * Page utilization only decreases after page is filled, so each page moves
+	 * between buckets only a few times during its life.
+	 */
+	static class UsageHistogram {
+		
+		private static final int BUCKETS = 32;
+		
+		private final int pageSize;
+		private final BitSet[] buckets;
+		// -1 if page is not tracked, racy reads are tolerated
+		private final int[] pageBuckets;
+		
+		public UsageHistogram(int pageSize, int pageCount) {
+			this.pageSize = pageSize;
+			buckets = new BitSet[BUCKETS];
+			for(int i = 0; i != BUCKETS; ++i) {
+				buckets[i] = new BitSet(pageCount);
+			}
+			pageBuckets = new int[pageCount];
+			Arrays.fill(pageBuckets, -1);
+		}
+		
+		private int bucket(int usage) {
+			int bucket = (int)(((long)usage * BUCKETS) / pageSize);
+			return bucket >= BUCKETS ? BUCKETS - 1 : bucket;
+		}
+		
+		public void update(int page, int usage) {
+			int bucket = bucket(usage);
+			if (pageBuckets[page] != bucket) {
+				synchronized(this) {
+					int old = pageBuckets[page];
+					if (old != bucket) {
+						if (old >= 0) {
+							buckets[old].clear(page);
+						}
+						buckets[bucket].set(page);
+						pageBuckets[page] = bucket;
+					}
+				}
+			}
+		}
+		
+		public synchronized void remove(int page) {
+			int old = pageBuckets[page];
+			if (old >= 0) {
+				buckets[old].clear(page);
+				pageBuckets[page] = -1;
+			}
+		}
+		
+		/**
+		 * @return page from lowest utilization bucket or -1 if there are no pages
+		 */
+		public synchronized int lowest(int exclude) {
+			for(int i = 0; i != BUCKETS; ++i) {
+				int page = buckets[i].nextSetBit(0);
+				if (page == exclude && page >= 0) {
+					page = buckets[i].nextSetBit(page + 1);
+				}
+				if (page >= 0) {
+					return page;
+				}
+			}
+			return -1;
+		}
+	}
+	
+	/**
+	 * Storage pages in order they were filled, oldest first. Released pages are dropped lazily,
+	 * queue is purged once it is twice as long as page limit, so cost of purge is amortized.
+	 */
+	static class SweepQueue {
+		
+		private final ArrayDeque<Page> queue = new ArrayDeque<Page>();
+		private final int purgeLimit;
+		
+		public SweepQueue(int pageCount) {
+			this.purgeLimit = 2 * pageCount;
+		}
+		
+		public synchronized void add(Page page) {
+			if (queue.size() >= purgeLimit) {
+				int n = queue.size();
+				for(int i = 0; i != n; ++i) {
+					Page p = queue.pollFirst();
+					if (!p.isReleased()) {
+						queue.addLast(p);
+					}
+				}
+			}
+			queue.addLast(page);
+		}
+		
+		/**
+		 * @return oldest page or <code>null</code>, page may be already released
+		 */
+		public synchronized Page poll() {
+			return queue.pollFirst();
+		}
+	}
+	
 	static class Page {
 
 		private static int STATUS_NEW = 0;
@@ -739,7 +1375,7 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 		public void setPageNo(int pageNo) {
 			this.pageNo = pageNo;
 		}
-		
+
 		public boolean isForAllocation() {
 			return status == STATUS_ALLOCATING;
 		}
@@ -764,6 +1400,10 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 			return STATUS.compareAndSet(this, STATUS_FOR_EVACUATION, STATUS_RELEASED);
 		}
 		
+		public boolean isReleased() {
+			return status == STATUS_RELEASED;
+		}
+		
 		public int getMemUsage() {
 			return memUsed;
 		}
@@ -780,18 +1420,19 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 			bytes.putInt(offs, value);
 		}
 
+		/**
+		 * @return zero copy view of page memory, valid until chunk is released
+		 */
 		public ByteChunk subChunk(int offs, int len) {
-			byte[] chunk = new byte[len];
-			ByteBuffer bb = bytes.duplicate();
-			bb.position(bb.position() + offs);
-			bb.get(chunk);
-			return new ByteChunk(chunk);
+			return new DirectByteChunk(bytes, offs, len);
 		}
 		
 		public void putBytes(int offs, ByteChunk chunk) {
-			ByteBuffer bb = bytes.duplicate();
-			bb.position(bb.position() + offs);
-			bb.put(chunk.array(), chunk.offset(), chunk.lenght());			
+			if (chunk instanceof DirectByteChunk && ((DirectByteChunk)chunk).isViewOf(bytes, offs)) {
+				// chunk has been written in place
+				return;
+			}
+			chunk.copyTo(bytes, offs);
 		}
 		
 		public void release() {
@@ -799,6 +1440,22 @@ class OffHeapMemoryStoreBackend implements MemoryStoreBackend {
 		}
 	}
 	
+	/**
+	 * {@link SlabAllocator} using direct {@link ByteBuffer}s, memory is reclaimed by GC.
+	 */
+	static class DirectSlabAllocator implements SlabAllocator {
+
+		@Override
+		public ByteBuffer allocate(int slabNo, int size) {
+			return ByteBuffer.allocateDirect(size);
+		}
+
+		@Override
+		public void close() {
+			// nothing to do
+		}
+	}
+	
 	public void dumpPage(Page page) {
 		System.err.println("Page dump, page " + page.getPageNo());
 		int offs = PAGE_HEADER;
@@ -0,0 +1,41 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * JMX view of single store created by {@link PagedMemoryBinaryStoreManager2}.
+ * Registered as <code>org.gridkit.coherence.offheap:type=BinaryStore,manager=&lt;manager name&gt;,store=&lt;n&gt;</code>.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface PagedBinaryStoreMBean {
+
+	public int getSize();
+
+	public int getCapacity();
+
+	public float getLoadFactor();
+
+	/**
+	 * Scans whole table, should not be polled too often.
+	 * @return number of buckets by chain length, last element counts buckets with that many entries or more
+	 */
+	public int[] getChainLengthHistogram();
+
+	/**
+	 * @return number of spin iterations on contended bucket locks
+	 */
+	public long getLockSpinCount();
+
+	/**
+	 * @return number of optimistic reads which have fallen back to locking read
+	 */
+	public long getOptimisticReadFallbackCount();
+
+	/**
+	 * @return number of lookups (single and bulk) which have found a value
+	 */
+	public long getHitCount();
+
+	public long getMissCount();
+
+	public double getHitRatio();
+}
@@ -0,0 +1,77 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * JMX view of {@link PagedMemoryBinaryStoreManager2}, memory figures are in bytes.
+ * Registered as <code>org.gridkit.coherence.offheap:type=BinaryStoreManager,name=&lt;manager name&gt;</code>.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface PagedBinaryStoreManagerMBean {
+
+	public String getName();
+
+	public int getStoreCount();
+
+	/**
+	 * @return memory occupied by live chunks
+	 */
+	public long getMemoryUsed();
+
+	/**
+	 * @return memory taken from system, including partially filled pages
+	 */
+	public long getMemoryReserved();
+
+	public long getMemoryLimit();
+
+	public int getPageSize();
+
+	public int getPagesInUse();
+
+	/**
+	 * @return number of pages in each 10% utilization range
+	 */
+	public int[] getPageUtilizationHistogram();
+
+	/**
+	 * @return 0 - plenty of free pages, 1 - allocators are waiting for pages
+	 */
+	public float getMemoryPressure();
+
+	public long getEvacuatedBytes();
+
+	public long getReleasedPages();
+
+	/**
+	 * @return number of entries removed by eviction, see {@link PagedMemoryBinaryStoreManager2#setEvictionMode(EvictionMode, float)}
+	 */
+	public long getEvictedEntries();
+
+	public long getEvictedBytes();
+
+	/**
+	 * @return number of expired entries removed by compaction
+	 */
+	public long getExpiredEntries();
+
+	/**
+	 * @return evacuation rate averaged over last sampling period
+	 */
+	public double getEvacuatedBytesPerSecond();
+
+	/**
+	 * @return page release rate averaged over last sampling period
+	 */
+	public double getReleasedPagesPerSecond();
+
+	/**
+	 * @return number of allocations which had to wait for a free page
+	 */
+	public long getAllocationStallCount();
+
+	public long getAllocationStallTimeMillis();
+
+	public long getCompactionRate();
+
+	public void setCompactionRate(long bytesPerSecond);
+}
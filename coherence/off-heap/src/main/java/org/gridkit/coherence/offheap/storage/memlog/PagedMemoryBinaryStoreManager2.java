@@ -1,6 +1,20 @@
 package org.gridkit.coherence.offheap.storage.memlog;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.Thread.State;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -9,35 +23,797 @@ import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerArray;
-import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
-public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager, PagedBinaryStoreManagerMBean {
+
+	private final static Logger logger = LoggerFactory.getLogger(PagedMemoryBinaryStoreManager2.class);
 
 	private static int EMPTY = 0;
 	
 	private static int HASH_POS = 0;
 	private static int KEY_SIZE_POS = 4;
+	private static int ACCESS_CLOCK_POS = 4; // upper byte of key size word
 	private static int VALUE_SIZE_POS = 8;
 	private static int DATA_POS = 12;
+	private static int EXPIRY_POS = DATA_POS; // optional, key and value follow expiry if it is present
+	private static int EXPIRY_SIZE = 8;
+	private static int KEY_SIZE_MASK = 0x00FFFFFF;
+	private static int EXPIRY_FLAG = 0x80000000; // upper bit of value size word
+	private static int ENCODED_FLAG = 0x40000000; // value is compressed by value codec
+	private static int VALUE_SIZE_MASK = 0x3FFFFFFF;
+	private static int INITIAL_ACCESS_CLOCK = 0; // insertion is not an access, entry which is never read goes on first sweep
+	
+	// collision list layout, list is addressed by negative pointer in bucket
+	private static int LIST_HASH_POS = 0; // hash of one of entries, used by evacuation to find bucket
+	private static int LIST_SIZE_POS = 4;
+	private static int LIST_DATA_POS = 8;
+	private static int LIST_MIN_CAPACITY = 2;
 	
 	private static int ALLOC_NEW_VALUE = 0;
 	private static int ALLOC_NEW_LIST = 1;
 	private static int ALLOC_RELOCATE_VALUE = 0;
 	
 	private static long MEM_DIAG_REPORT_PERIOD = TimeUnit.SECONDS.toNanos(10);
+	private static long DEFAULT_COMPACTION_RATE = 64 << 20; // 64MiB/s
+	private static long DEFAULT_EXPIRY_SWEEP_PERIOD = TimeUnit.SECONDS.toNanos(60);
+	private static int EXPIRY_SWEEP_BATCH = 1024; // buckets per maintenance cycle, at least
+	private static int EXPIRY_SWEEP_CYCLES = 64; // whole table is swept in this number of cycles, at most
+	
+	// optimistic read stripes, see BinaryHashTable.get()
+	private static int STRIPE_COUNT = 256; // power of 2
+	private static int STRIPE_PADDING = 16; // ints, one stripe per cache line 
+	private static int STRIPE_WRITER_MASK = 0xFFF; // lower bits - active writers, upper bits - version
+	private static int STRIPE_VERSION_INC = STRIPE_WRITER_MASK + 1;
+	private static int OPTIMISTIC_READ_ATTEMPTS = 4;
+	private static AtomicIntegerArray READ_FENCES = new AtomicIntegerArray(ThreadStripes.defaultStripeCount() * STRIPE_PADDING);
+	
+	// bucket directory is a list of fixed size segments, growing table never copies buckets
+	private static int SEGMENT_POWER = 10;
+	private static int SEGMENT_SIZE = 1 << SEGMENT_POWER;
+	private static int SEGMENT_MASK = SEGMENT_SIZE - 1;
+	private static int LOCK_LINES = SEGMENT_SIZE / STRIPE_PADDING; // cache lines per lock segment
+	
+	private static int SNAPSHOT_MAGIC = 0x4D4C5331; // "MLS1"
+	private static int SNAPSHOT_VERSION = 2; // version 1 has no hash function id, CRC is assumed
+	private static int SNAPSHOT_END = -1;
+	
+	private static String JMX_DOMAIN = "org.gridkit.coherence.offheap";
+	private static int UTILIZATION_HISTOGRAM_BUCKETS = 10;
+	private static int CHAIN_HISTOGRAM_LENGTH = 9;
+
+	private static int MAX_RECOVERY_ATTEMPTS = 16; // evacuation/eviction rounds made by writer before falling back to waiting
+	private static int RECOVERY_BATCH = 256;
+	private static int MIN_FREE_PAGE_RESERVE = 2;
+	private static float EVICTION_HYSTERESIS = 0.05f;
+
+	// encoded value layout, raw length followed by codec output
+	private static int ENCODED_RAW_SIZE_POS = 0;
+	private static int ENCODED_DATA_POS = 4;
+	// bounds raw size of encoded value, so garbage read by optimistic reader would not cause huge allocation
+	private static int MAX_DECODE_RATIO = 256;
+	// larger buffers are not retained by threads
+	private static int MAX_RETAINED_CODEC_BUFFER = 1 << 20;
+
+	private static final ThreadLocal<CodecBuffers> CODEC_BUFFERS = new ThreadLocal<CodecBuffers>() {
+		@Override
+		protected CodecBuffers initialValue() {
+			return new CodecBuffers();
+		}
+	};
+	
+	// detaches value from page memory
+	private static final ValueReader<ByteChunk> DETACHED_COPY = new ValueReader<ByteChunk>() {
+		@Override
+		public ByteChunk read(ByteChunk value) {
+			return value.copy();
+		}
+	};
 	
 	private final String name;
 	private List<BinaryHashTable> tables = new ArrayList<BinaryHashTable>();
 	private MemoryStoreBackend pageManager;
+	private BinaryHashFunction hashFunction;
 	private Thread maintenanceDaemon;
+	private CompactionScheduler compactionScheduler = new CompactionScheduler(DEFAULT_COMPACTION_RATE);
+	
+	private volatile boolean synchronousEvacuation;
+	private volatile EvictionPolicy evictionPolicy;
+	
+	private volatile ValueCodec valueEncoder;
+	// last configured codec, existing entries are still decoded after encoding has been disabled
+	private volatile ValueCodec valueDecoder;
+	private volatile int valueEncodingThreshold;
+
+	private volatile EvictionMode evictionMode = EvictionMode.NONE;
+	private volatile float evictionHighWaterMark = 0.8f;
+	// while true evacuation removes cold entries, see updateEvictionState()
+	private volatile boolean evicting;
+	// set once first entry with expiry is stored, expired entries are reclaimed by sweep when pages are short
+	private volatile boolean expiryUsed;
+	private volatile boolean sweeping;
+	private volatile long expirySweepPeriod = DEFAULT_EXPIRY_SWEEP_PERIOD;
+	private AtomicLong expiredEntries = new AtomicLong();
+	private AtomicLong evictedEntries = new AtomicLong();
+	private AtomicLong evictedBytes = new AtomicLong();
+	// evacuation needs free pages to relocate entries to, so writers start reclaiming memory before pages are over
+	private final int freePageReserve;
+	
+	private ReentrantLock snapshotLock = new ReentrantLock();
+	// while snapshot is in progress chunks are not released, so frozen entry sets stay valid 
+	private volatile boolean deferReleases;
+	private final Object deferredReleaseLock = new Object();
+	private int[] deferredReleases = new int[0];
+	private int deferredReleaseCount;
+	private long deferredReleaseBytes;
+	// snapshot is aborted once retained memory exceeds this limit, so it cannot starve writers
+	private volatile long snapshotRetentionLimit;
+	private volatile boolean snapshotAborted;
 	
+	private ObjectName mbeanName;
+	private int storeCounter;
+	// evacuation rates, sampled by maintenance thread
+	private long sampleTimestamp = System.nanoTime();
+	private long sampleEvacuatedBytes;
+	private long sampleReleasedPages;
+	private volatile double evacuatedBytesPerSecond;
+	private volatile double releasedPagesPerSecond;
+	
+	/**
+	 * Uses legacy {@link StandardHashFunction#CRC}, other hash functions should be chosen explicitly.
+	 */
 	public PagedMemoryBinaryStoreManager2(String name, MemoryStoreBackend pageManager) {
+		this(name, pageManager, StandardHashFunction.CRC);
+	}
+
+	public PagedMemoryBinaryStoreManager2(String name, MemoryStoreBackend pageManager, BinaryHashFunction hashFunction) {
 		this.name = name;
 		this.pageManager = pageManager;
+		this.hashFunction = hashFunction;
+		this.freePageReserve = Math.max(MIN_FREE_PAGE_RESERVE, (int) (pageManager.getMemLimit() / pageManager.getPageSize() / 16));
+		this.snapshotRetentionLimit = ((long) freePageReserve) * pageManager.getPageSize();
 		this.maintenanceDaemon = createMaintenanceThread();
+		this.mbeanName = registerMBean("type=BinaryStoreManager,name=" + ObjectName.quote(name), this, PagedBinaryStoreManagerMBean.class);
+	}
+	
+	private <T> ObjectName registerMBean(String properties, T mbean, Class<T> mbeanInterface) {
+		try {
+			ObjectName on = new ObjectName(JMX_DOMAIN + ":" + properties);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(mbean, mbeanInterface), on);
+			return on;
+		}
+		catch(JMException e) {
+			logger.warn("Failed to register MBean " + properties + ", " + e.toString());
+			return null;
+		}
+	}
+	
+	private void unregisterMBean(ObjectName on) {
+		if (on != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+			}
+			catch(JMException e) {
+				logger.warn("Failed to unregister MBean " + on + ", " + e.toString());
+			}
+		}
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	@Override
+	public synchronized int getStoreCount() {
+		return tables.size();
+	}
+
+	@Override
+	public long getMemoryUsed() {
+		return pageManager.getMemUsage();
+	}
+
+	@Override
+	public long getMemoryReserved() {
+		return pageManager.getMemReserved();
+	}
+
+	@Override
+	public long getMemoryLimit() {
+		return pageManager.getMemLimit();
+	}
+
+	@Override
+	public int getPageSize() {
+		return pageManager.getPageSize();
+	}
+
+	@Override
+	public int getPagesInUse() {
+		return pageManager.getPagesInUse();
+	}
+
+	@Override
+	public int[] getPageUtilizationHistogram() {
+		return pageManager.getPageUtilizationHistogram(UTILIZATION_HISTOGRAM_BUCKETS);
+	}
+
+	@Override
+	public float getMemoryPressure() {
+		return pageManager.getMemoryPressure();
+	}
+
+	@Override
+	public long getEvacuatedBytes() {
+		return pageManager.getEvacuatedBytes();
+	}
+
+	@Override
+	public long getReleasedPages() {
+		return pageManager.getReleasedPageCount();
+	}
+
+	@Override
+	public long getEvictedEntries() {
+		return evictedEntries.get();
+	}
+
+	@Override
+	public long getEvictedBytes() {
+		return evictedBytes.get();
+	}
+
+	@Override
+	public long getExpiredEntries() {
+		return expiredEntries.get();
+	}
+
+	@Override
+	public double getEvacuatedBytesPerSecond() {
+		return evacuatedBytesPerSecond;
+	}
+
+	@Override
+	public double getReleasedPagesPerSecond() {
+		return releasedPagesPerSecond;
+	}
+
+	@Override
+	public long getAllocationStallCount() {
+		return pageManager.getAllocationStallCount();
+	}
+
+	@Override
+	public long getAllocationStallTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(pageManager.getAllocationStallTime());
+	}
+	
+	// maintenance thread only
+	private void sampleRates() {
+		long now = System.nanoTime();
+		long evacuated = pageManager.getEvacuatedBytes();
+		long released = pageManager.getReleasedPageCount();
+		double period = ((double)(now - sampleTimestamp)) / TimeUnit.SECONDS.toNanos(1);
+		evacuatedBytesPerSecond = (evacuated - sampleEvacuatedBytes) / period;
+		releasedPagesPerSecond = (released - sampleReleasedPages) / period;
+		sampleTimestamp = now;
+		sampleEvacuatedBytes = evacuated;
+		sampleReleasedPages = released;
+	}
+	
+	/**
+	 * @return base evacuation rate in bytes per second
+	 */
+	@Override
+	public long getCompactionRate() {
+		return compactionScheduler.getRelocationRate();
+	}
+	
+	/**
+	 * Sets base evacuation rate, actual rate is increased under memory pressure. 
+	 * @param bytesPerSecond relocation budget, 0 - unlimited
+	 */
+	@Override
+	public void setCompactionRate(long bytesPerSecond) {
+		compactionScheduler.setRelocationRate(bytesPerSecond);
+	}
+	
+	/**
+	 * Limits time writer would wait for memory to be reclaimed, after that {@link MemoryExhaustedException} is thrown.
+	 * @param timeout 0 - wait indefinitely (default)
+	 */
+	public void setAllocationTimeout(long timeout, TimeUnit unit) {
+		pageManager.setAllocationTimeout(unit.toNanos(timeout));
+	}
+
+	/**
+	 * If enabled, writer which has found no free pages evacuates entries on its own thread
+	 * instead of waiting for maintenance thread.
+	 */
+	public void setSynchronousEvacuation(boolean enabled) {
+		synchronousEvacuation = enabled;
+	}
+
+	/**
+	 * Expired entries are removed lazily, by compaction and by periodic sweep of hash tables.
+	 * Sweep reclaims entries which are never read or overwritten and never reached by compaction,
+	 * e.g. large chunks, which are not evacuated at all.
+	 * @param period interval between starts of table sweeps, 60 seconds by default
+	 */
+	public void setExpirySweepPeriod(long period, TimeUnit unit) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("Sweep period should be positive");
+		}
+		expirySweepPeriod = unit.toNanos(period);
+	}
+
+	/**
+	 * Chunks removed or replaced during snapshot are retained until it is complete.
+	 * If their total size exceeds the limit, snapshot fails with {@link IOException}.
+	 * @param bytes retention limit, size of free page reserve by default
+	 */
+	public void setSnapshotRetentionLimit(long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException("Retention limit should be positive");
+		}
+		snapshotRetentionLimit = bytes;
+	}
+
+	/**
+	 * Policy is invoked by writers if there are no free pages and evacuation cannot help.
+	 * @param policy <code>null</code> - no eviction (default)
+	 */
+	public void setEvictionPolicy(EvictionPolicy policy) {
+		evictionPolicy = policy;
+	}
+
+	/**
+	 * Enables eviction of cold entries once live data exceed given fraction of memory limit.
+	 * Reads have to take bucket lock to update access clock, so optimistic reads are not used while eviction is enabled.
+	 * Large chunks (more than quarter of page) are never evacuated, so they are never evicted either.
+	 * @param highWaterMark fraction of memory limit, e.g. 0.8
+	 */
+	public void setEvictionMode(EvictionMode mode, float highWaterMark) {
+		if (highWaterMark <= 0 || highWaterMark > 1) {
+			throw new IllegalArgumentException("High-water mark should be in (0, 1] range, but was " + highWaterMark);
+		}
+		evictionHighWaterMark = highWaterMark;
+		evictionMode = mode;
+	}
+
+	public EvictionMode getEvictionMode() {
+		return evictionMode;
+	}
+
+	/**
+	 * Enables compression of values stored from now on, values which do not shrink are stored as is.
+	 * Reads of compressed values decode them on caller's thread, so compression trades CPU for memory.
+	 * Codec is not stored in snapshot, manager restoring compressed entries should be configured with same codec.
+	 * @param codec <code>null</code> - stop compressing new values (existing values are still decoded by previous codec)
+	 * @param threshold values shorter than threshold are stored as is
+	 */
+	public void setValueCodec(ValueCodec codec, int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Threshold should not be negative");
+		}
+		valueEncodingThreshold = threshold;
+		if (codec != null) {
+			valueDecoder = codec;
+		}
+		valueEncoder = codec;
+	}
+
+	public ValueCodec getValueCodec() {
+		return valueEncoder;
+	}
+
+	/**
+	 * @param detach if <code>false</code> result may be a view of thread local buffer, valid until next encode on this thread
+	 * @return encoded value or original value if it is below threshold or incompressible
+	 */
+	private ByteChunk encodeValue(ByteChunk value, boolean detach) {
+		ValueCodec codec = valueEncoder;
+		int len = value.lenght();
+		if (codec == null || len < valueEncodingThreshold || len == 0) {
+			return value;
+		}
+		CodecBuffers buffers = CODEC_BUFFERS.get();
+		byte[] src;
+		int srcOffs;
+		if (value.getClass() == ByteChunk.class) {
+			src = value.array();
+			srcOffs = value.offset();
+		}
+		else {
+			// no backing array, e.g. Coherence binary
+			src = buffers.input(len);
+			srcOffs = 0;
+			value.copyTo(0, src, 0, len);
+		}
+		byte[] dst = buffers.output(ENCODED_DATA_POS + codec.maxEncodedLength(len));
+		int elen = codec.encode(src, srcOffs, len, dst, ENCODED_DATA_POS);
+		if (elen < 0 || ENCODED_DATA_POS + elen >= len || len / MAX_DECODE_RATIO > elen) {
+			return value;
+		}
+		EncodedValue encoded = new EncodedValue(detach ? Arrays.copyOf(dst, ENCODED_DATA_POS + elen) : dst, ENCODED_DATA_POS + elen);
+		encoded.putInt(ENCODED_RAW_SIZE_POS, len);
+		return encoded;
+	}
+
+	/**
+	 * @param value encoded value, may be a view of page memory
+	 * @return detached decoded value
+	 */
+	private ByteChunk decodeValue(ByteChunk value) {
+		ValueCodec codec = valueDecoder;
+		if (codec == null) {
+			throw new IllegalStateException("Entry is compressed, but no value codec is configured");
+		}
+		int rawLen = value.intAt(ENCODED_RAW_SIZE_POS);
+		int elen = value.lenght() - ENCODED_DATA_POS;
+		if (rawLen < 0 || rawLen / MAX_DECODE_RATIO > elen) {
+			throw new IllegalStateException("Corrupted encoded value, raw size " + rawLen + " encoded size " + elen);
+		}
+		byte[] src = CODEC_BUFFERS.get().input(elen);
+		value.copyTo(ENCODED_DATA_POS, src, 0, elen);
+		byte[] result = new byte[rawLen];
+		codec.decode(src, 0, elen, result, 0, rawLen);
+		return new ByteChunk(result);
+	}
+
+	/**
+	 * Called by maintenance thread and by writers running low on pages,
+	 * concurrent updates may race, but state is corrected on next call.
+	 */
+	private void updateEvictionState() {
+		// once started, eviction continues a little below high-water mark, so sweeps are not restarted on every insert
+		float threshold = evicting ? evictionHighWaterMark - EVICTION_HYSTERESIS : evictionHighWaterMark;
+		boolean evict = evictionMode != EvictionMode.NONE && pageManager.getMemUsage() > threshold * pageManager.getMemLimit();
+		if (evict != evicting) {
+			evicting = evict;
+			if (logger.isDebugEnabled()) {
+				logger.debug(evict ? "Memory usage is above high-water mark, eviction started" : "Eviction stopped");
+			}
+		}
+		// expired entries occupy dense pages as well, so they are swept out once free pages are short
+		boolean sweep = evict || (expiryUsed && pageManager.getFreePages() <= freePageReserve);
+		if (sweep != sweeping) {
+			sweeping = sweep;
+			pageManager.setSweepMode(sweep);
+		}
+	}
+
+	/**
+	 * Called by writers before any lock is taken. If free pages are about to run out, writer tries
+	 * to reclaim memory itself (according to configured policy) instead of waiting in allocator.
+	 */
+	private void checkFreeMemory(long bytesRequired) {
+		if (pageManager.getFreePages() > freePageReserve) {
+			return;
+		}
+		// writer may outrun maintenance thread, so eviction state is checked here too
+		updateEvictionState();
+		// while sweep is active, writers help, so evacuator is not starved of pages
+		boolean sweep = synchronousEvacuation || sweeping;
+		if (!sweep && evictionPolicy == null) {
+			return;
+		}
+		int[] hashes = null;
+		for(int i = 0; i != MAX_RECOVERY_ATTEMPTS && pageManager.getFreePages() <= freePageReserve; ++i) {
+			if (sweep) {
+				hashes = hashes == null ? new int[RECOVERY_BATCH] : hashes;
+				int len = pageManager.collectHashesForEvacuation(hashes, 0);
+				if (len > 0) {
+					BinaryHashTable[] tableSet;
+					synchronized(this) {
+						tableSet = tables.toArray(new BinaryHashTable[tables.size()]);
+					}
+					evacuateEntries(tableSet, hashes, len);
+					continue;
+				}
+			}
+			EvictionPolicy policy = evictionPolicy;
+			if (policy != null) {
+				List<BinaryStore> stores;
+				synchronized(this) {
+					stores = new ArrayList<BinaryStore>(tables);
+				}
+				if (policy.evict(stores, bytesRequired)) {
+					continue;
+				}
+			}
+			// nothing could be done, writer will wait in allocator
+			break;
+		}
+	}
+
+	private static int entrySize(ByteChunk key, ByteChunk value, long expiry) {
+		return DATA_POS + (expiry == 0 ? 0 : EXPIRY_SIZE) + key.lenght() + value.lenght();
+	}
+
+	private static boolean isEncoded(ByteChunk entry) {
+		return (entry.intAt(VALUE_SIZE_POS) & ENCODED_FLAG) != 0;
+	}
+
+	private static int keyOffset(ByteChunk entry) {
+		return (entry.intAt(VALUE_SIZE_POS) & EXPIRY_FLAG) == 0 ? DATA_POS : DATA_POS + EXPIRY_SIZE;
+	}
+
+	/**
+	 * Clock is read only for entries with expiry, so entries without expiry cost nothing.
+	 */
+	private static boolean isExpired(ByteChunk entry) {
+		return (entry.intAt(VALUE_SIZE_POS) & EXPIRY_FLAG) != 0 && entry.longAt(EXPIRY_POS) <= System.currentTimeMillis();
+	}
+
+	private void releaseChunk(int pp) {
+		if (deferReleases) {
+			synchronized(deferredReleaseLock) {
+				if (deferReleases) {
+					if (deferredReleaseCount == deferredReleases.length) {
+						deferredReleases = Arrays.copyOf(deferredReleases, Math.max(1024, 2 * deferredReleases.length));
+					}
+					deferredReleases[deferredReleaseCount++] = pp;
+					deferredReleaseBytes += pageManager.get(pp).lenght();
+					if (deferredReleaseBytes > snapshotRetentionLimit) {
+						// chunks may still be read by snapshot, they are released once it notices
+						snapshotAborted = true;
+					}
+					return;
+				}
+			}
+		}
+		pageManager.release(pp);
+	}
+	
+	private void releaseDeferredChunks() {
+		int[] pointers;
+		int count;
+		synchronized(deferredReleaseLock) {
+			deferReleases = false;
+			pointers = deferredReleases;
+			count = deferredReleaseCount;
+			deferredReleases = new int[0];
+			deferredReleaseCount = 0;
+			deferredReleaseBytes = 0;
+		}
+		for(int i = 0; i != count; ++i) {
+			pageManager.release(pointers[i]);
+		}
+	}
+	
+	/**
+	 * Writes snapshot to a file. Snapshot is written to temporary file first and
+	 * renamed once it is synced to disk, so existing snapshot is never left half written.
+	 * Previous snapshot is kept as backup file until new one is in place,
+	 * {@link #restore(File)} falls back to backup if crash happened in between.
+	 */
+	public void snapshot(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		File bak = backupFile(file);
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			snapshot(fos);
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+		if (file.exists()) {
+			if (bak.exists() && !bak.delete()) {
+				throw new IOException("Cannot delete " + bak);
+			}
+			if (!file.renameTo(bak)) {
+				throw new IOException("Cannot rename " + file + " to " + bak);
+			}
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Cannot rename " + tmp + " to " + file);
+		}
+		syncDirectory(file.getAbsoluteFile().getParentFile());
+		if (bak.exists() && !bak.delete()) {
+			logger.warn("Cannot delete " + bak);
+		}
+	}
+	
+	private static File backupFile(File file) {
+		return new File(file.getPath() + ".bak");
+	}
+	
+	/**
+	 * Forces renames in directory to disk. Directory could be synced only via Java 7 NIO
+	 * (accessed reflectively), on older JVMs or platforms not allowing it, this is no-op.
+	 */
+	private static void syncDirectory(File dir) {
+		if (dir == null) {
+			return;
+		}
+		try {
+			Class<?> pathClass = Class.forName("java.nio.file.Path");
+			Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+			Object path = File.class.getMethod("toPath").invoke(dir);
+			Object options = Array.newInstance(optionClass, 1);
+			Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+			FileChannel channel = (FileChannel) FileChannel.class.getMethod("open", pathClass, options.getClass()).invoke(null, path, options);
+			try {
+				channel.force(true);
+			}
+			finally {
+				channel.close();
+			}
+		}
+		catch(Exception e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Streams content of all stores. Writes are not blocked during snapshot,
+	 * but memory of entries removed or replaced while snapshot is being written
+	 * is retained until snapshot is complete (see {@link #setSnapshotRetentionLimit(long)}).
+	 * <br/>
+	 * Stores are captured bucket by bucket, so snapshot contains single version of each key,
+	 * but not a point in time state of store. Entries are written in pointer order,
+	 * so page memory is read sequentially.
+	 * @throws IOException if stream fails or too much memory is retained by snapshot
+	 */
+	public void snapshot(OutputStream os) throws IOException {
+		BinaryHashTable[] tableSet;
+		synchronized(this) {
+			tableSet = tables.toArray(new BinaryHashTable[0]);
+		}
+		snapshotLock.lock();
+		try {
+			snapshotAborted = false;
+			deferReleases = true;
+			try {
+				int[][] entrySets = new int[tableSet.length][];
+				for(int i = 0; i != tableSet.length; ++i) {
+					entrySets[i] = tableSet[i].freezeEntries();
+				}
+				
+				CRC32 crc = new CRC32();
+				DataOutputStream dos = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(os, 1 << 16), crc));
+				dos.writeInt(SNAPSHOT_MAGIC);
+				dos.writeInt(SNAPSHOT_VERSION);
+				dos.writeUTF(String.valueOf(hashFunction));
+				dos.writeInt(tableSet.length);
+				byte[] buffer = new byte[1024];
+				for(int i = 0; i != tableSet.length; ++i) {
+					int[] entries = entrySets[i];
+					entrySets[i] = null;
+					Arrays.sort(entries);
+					dos.writeInt(entries.length);
+					for(int pp: entries) {
+						if (snapshotAborted) {
+							throw new IOException("Snapshot aborted, memory retained by snapshot exceeds " + snapshotRetentionLimit + " bytes");
+						}
+						ByteChunk chunk = pageManager.get(pp);
+						int len = chunk.lenght();
+						if (buffer.length < len) {
+							buffer = new byte[Math.max(len, 2 * buffer.length)];
+						}
+						chunk.copyTo(0, buffer, 0, len);
+						dos.writeInt(len);
+						dos.write(buffer, 0, len);
+					}
+				}
+				dos.writeInt(SNAPSHOT_END);
+				// checksum is not part of checked stream
+				dos.flush();
+				DataOutputStream tail = new DataOutputStream(os);
+				tail.writeLong(crc.getValue());
+				tail.flush();
+			}
+			finally {
+				releaseDeferredChunks();
+			}
+		}
+		finally {
+			snapshotLock.unlock();
+		}
+	}
+	
+	/**
+	 * Creates stores from snapshot file. If file is missing, because {@link #snapshot(File)}
+	 * has been interrupted while replacing it, previous snapshot is used.
+	 * @see #restore(InputStream)
+	 */
+	public List<BinaryStore> restore(File file) throws IOException {
+		File bak = backupFile(file);
+		if (!file.exists() && bak.exists()) {
+			logger.warn("Snapshot " + file + " is missing, restoring from " + bak);
+			file = bak;
+		}
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			return restore(fis);
+		}
+		finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Creates stores from snapshot produced by {@link #snapshot(OutputStream)}.
+	 * Entries are placed to buckets using stored hashes (keys are rehashed only if snapshot was made with different hash function).
+	 * If snapshot is truncated or corrupted, stores created so far are destroyed and {@link IOException} is thrown.
+	 * @return restored stores in same order as they were created in snapshotted manager
+	 */
+	public List<BinaryStore> restore(InputStream is) throws IOException {
+		List<BinaryStore> restored = new ArrayList<BinaryStore>();
+		boolean success = false;
+		try {
+			CRC32 crc = new CRC32();
+			InputStream bis = new BufferedInputStream(is, 1 << 16);
+			DataInputStream dis = new DataInputStream(new CheckedInputStream(bis, crc));
+			if (dis.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a snapshot");
+			}
+			int version = dis.readInt(); 
+			if (version != 1 && version != SNAPSHOT_VERSION) {
+				throw new IOException("Unsupported snapshot version " + version);
+			}
+			String hashId = version == 1 ? StandardHashFunction.CRC.toString() : dis.readUTF();
+			// stored hashes are useless if hash function has been changed
+			boolean rehash = !hashId.equals(String.valueOf(hashFunction));
+			int tableCount = dis.readInt();
+			byte[] buffer = new byte[1024];
+			for(int i = 0; i != tableCount; ++i) {
+				BinaryHashTable table = (BinaryHashTable) create();
+				restored.add(table);
+				int size = dis.readInt();
+				for(int j = 0; j != size; ++j) {
+					int len = dis.readInt();
+					if (len < DATA_POS) {
+						throw new IOException("Snapshot is corrupted");
+					}
+					if (buffer.length < len) {
+						buffer = new byte[Math.max(len, 2 * buffer.length)];
+					}
+					dis.readFully(buffer, 0, len);
+					ByteChunk chunk = new ByteChunk(buffer, 0, len);
+					if (rehash) {
+						chunk.putInt(HASH_POS, hashFunction.hash(chunk.subChunk(keyOffset(chunk), chunk.intAt(KEY_SIZE_POS) & KEY_SIZE_MASK)));
+					}
+					table.restoreEntry(chunk);
+				}
+			}
+			if (dis.readInt() != SNAPSHOT_END) {
+				throw new IOException("Snapshot is corrupted");
+			}
+			long checksum = crc.getValue();
+			if (new DataInputStream(bis).readLong() != checksum) {
+				throw new IOException("Snapshot checksum mismatch");
+			}
+			success = true;
+			return restored;
+		}
+		catch(EOFException e) {
+			throw new IOException("Snapshot is truncated", e);
+		}
+		finally {
+			if (!success) {
+				for(BinaryStore store: restored) {
+					destroy(store);
+				}
+			}
+		}
 	}
 	
 	private Thread createMaintenanceThread() {
@@ -56,6 +832,7 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 	public synchronized BinaryStore create() {
 		BinaryHashTable hash = new BinaryHashTable();
 		tables.add(hash);
+		hash.mbeanName = registerMBean("type=BinaryStore,manager=" + ObjectName.quote(name) + ",store=" + (storeCounter++), hash, PagedBinaryStoreMBean.class);
 		if (maintenanceDaemon.getState() == State.NEW) {
 			maintenanceDaemon.start();
 		}
@@ -68,6 +845,7 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 		// TODO check owner
 		int n = tables.indexOf(store);
 		tables.remove(n);
+		unregisterMBean(hash.mbeanName);
 		hash.clear();
 	}
 	
@@ -86,11 +864,12 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 //				// ignore
 //			}
 		}
+		pageManager.close();
+		unregisterMBean(mbeanName);
 	}
 
 	private void maintenanceCycle() {
 		int n = 0;
-		int idle = 0;
 		long diagTimestamp = System.nanoTime();
 		
 		int[] evacuationHashes = new int[1024];
@@ -105,41 +884,80 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 			}
 			
 			if (diagTimestamp + MEM_DIAG_REPORT_PERIOD < System.nanoTime()) {
-				pageManager.dumpStatistics();
-				synchronized (this) {
-					int x = 0;
-					for(BinaryHashTable table : tables) {
-						StringBuilder buf = new StringBuilder();
-						buf.append("Hashtable #" + x).append("\n");
-						buf.append("Size: ").append(table.size.get()).append("\n");
-						buf.append("Capacity: ").append(table.capacity).append("\n");
-						buf.append("Load factor: ").append(String.format("%f", 1.0d * table.size.get() / table.capacity)).append("\n");
-						System.out.println(buf.toString());
-						++x;
+				sampleRates();
+				if (logger.isDebugEnabled()) {
+					pageManager.dumpStatistics();
+					synchronized (this) {
+						int x = 0;
+						for(BinaryHashTable table : tables) {
+							StringBuilder buf = new StringBuilder();
+							buf.append("Hashtable #" + x).append("\n");
+							buf.append("Size: ").append(table.size.get()).append("\n");
+							buf.append("Capacity: ").append(table.capacity).append("\n");
+							buf.append("Load factor: ").append(String.format("%f", 1.0d * table.size.get() / table.capacity)).append("\n");
+							logger.debug(buf.toString());
+							++x;
+						}
 					}
 				}
 				diagTimestamp = System.nanoTime();
 			}
 		
+			updateEvictionState();
+			sweepExpiredEntries(tableSet);
+
+			long pause;
 			if (tableSet.length == 0) {
-				++idle;
+				pause = compactionScheduler.idle();
 			}
 			else {
+				long evacuated = pageManager.getEvacuatedBytes();
 				int len = pageManager.collectHashesForEvacuation(evacuationHashes, 0);
 				if (len == 0) {
-					++idle;
+					pause = compactionScheduler.idle();
 				}
 				else {
-					evacuateEntries(tableSet, evacuationHashes, len);
-					Thread.yield();
+					try {
+						evacuateEntries(tableSet, evacuationHashes, len);
+						pause = compactionScheduler.relocated(pageManager.getEvacuatedBytes() - evacuated, pageManager.getMemoryPressure());
+					}
+					catch(MemoryExhaustedException e) {
+						// relocation could not get a page, entries which are not relocated will be collected again
+						logger.debug("Evacuation has been interrupted: " + e.getMessage());
+						pause = compactionScheduler.idle();
+					}
 				}
 			}
 			
 			++n;
 			
-			if (idle > 10) {
-				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(300));
-				idle = 0;
+			if (pause > 0) {
+				LockSupport.parkNanos(pause);
+			}
+		}
+	}
+
+	/**
+	 * Advances expiry sweep of each table by a batch of buckets, maintenance thread only.
+	 */
+	private void sweepExpiredEntries(BinaryHashTable[] tableSet) {
+		if (!expiryUsed) {
+			return;
+		}
+		long now = System.nanoTime();
+		for(BinaryHashTable table: tableSet) {
+			if (table.expiryCursor == 0) {
+				if (now - table.expirySweepStart < expirySweepPeriod) {
+					continue;
+				}
+				table.expirySweepStart = now;
+			}
+			table.tableLock.readLock().lock();
+			try {
+				table.sweepExpired(Math.max(EXPIRY_SWEEP_BATCH, table.capacity / EXPIRY_SWEEP_CYCLES));
+			}
+			finally {
+				table.tableLock.readLock().unlock();
 			}
 		}
 	}
@@ -195,21 +1013,51 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 //		}
 //	}
 
-	private class BinaryHashTable implements BinaryStore {
+	private class BinaryHashTable implements BinaryStore, PagedBinaryStoreMBean {
 
-		AtomicIntegerArray hashtable = new AtomicIntegerArray(1024);
-		AtomicIntegerArray locktable = createLocktable(hashtable.length());
-		volatile int capacity = hashtable.length() >> 1;
+		// segments are only appended, index never moves from its segment
+		volatile AtomicIntegerArray[] segments = new AtomicIntegerArray[]{new AtomicIntegerArray(SEGMENT_SIZE)};
+		volatile AtomicIntegerArray[] lockSegments = new AtomicIntegerArray[]{createLocktable(SEGMENT_SIZE)};
+		final Object segmentLock = new Object();
+		volatile int capacity = SEGMENT_SIZE >> 1;
 		ReadWriteLock tableLock = new ReentrantReadWriteLock();
+		// serializes bucket splits, held by snapshot while buckets are frozen
+		final ReentrantLock splitLock = new ReentrantLock();
+		
+		// seqlock style counters for lock free readers, updated by bucket writers
+		AtomicIntegerArray stripes = new AtomicIntegerArray(STRIPE_COUNT * STRIPE_PADDING);
+		// odd while table is cleared under tableLock write lock
+		volatile int tableVersion;
 
 		AtomicInteger size = new AtomicInteger();
+		
+		StripedCounter lockSpins = new StripedCounter();
+		StripedCounter optimisticReadFallbacks = new StripedCounter();
+		StripedCounter hits = new StripedCounter();
+		StripedCounter misses = new StripedCounter();
+		ObjectName mbeanName;
 		float targetLoadFactor = 0.8f;
 		float thresholdLoadFactor = 0.99f;
+		// expiry sweep position, maintenance thread only
+		int expiryCursor;
+		long expirySweepStart;
+		
+		private int getBucket(int index) {
+			return segments[index >> SEGMENT_POWER].get(index & SEGMENT_MASK);
+		}
+
+		private void setBucket(int index, int pointer) {
+			segments[index >> SEGMENT_POWER].set(index & SEGMENT_MASK, pointer);
+		}
+		
+		private int directorySize() {
+			return segments.length << SEGMENT_POWER;
+		}
 		
 		// lock assumed
 		private int[] getEntries(int index) {
 			int pointer;
-			pointer = hashtable.get(index);
+			pointer = getBucket(index);
 			if (pointer == 0) {
 				return null;
 			}
@@ -217,11 +1065,10 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 				return new int[]{pointer};
 			}
 			else {
-				pointer = -pointer;
-				ByteChunk chunk = pageManager.get(pointer);
-				int[] entries = new int[chunk.lenght() / 4 - 1];
+				ByteChunk list = pageManager.get(-pointer);
+				int[] entries = new int[list.intAt(LIST_SIZE_POS)];
 				for(int i = 0; i != entries.length; ++i) {
-					entries[i] = chunk.intAt(4 + i * 4);
+					entries[i] = list.intAt(LIST_DATA_POS + i * 4);
 				}
 				return entries;
 			}
@@ -230,67 +1077,135 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 		// lock assumed
 		private void setEntries(int index, int[] entries) {
 			int pointer;
-			pointer = hashtable.get(index);
+			pointer = getBucket(index);
+			if (pointer < 0 && entries != null && entries.length > 1) {
+				ByteChunk list = pageManager.get(-pointer);
+				if (entries.length <= listCapacity(list) && !needRecycle(-pointer)) {
+					// list is large enough, rewriting in place
+					list.putInt(LIST_HASH_POS, pageManager.get(entries[0]).intAt(HASH_POS));
+					for(int i = 0; i != entries.length; ++i) {
+						list.putInt(LIST_DATA_POS + 4 * i, entries[i]);
+					}
+					list.putInt(LIST_SIZE_POS, entries.length);
+					// not required for in-heap backend
+					pageManager.update(-pointer, list);
+					return;
+				}
+			}
 			if (pointer != EMPTY && pointer < 0) {
 				pointer = -pointer;
-				pageManager.release(pointer);
+				releaseChunk(pointer);
 			}
 			if (entries == null || entries.length == 0) {
-				hashtable.set(index, EMPTY);
+				setBucket(index, EMPTY);
 			}
 			else if (entries.length == 1) {
-				hashtable.set(index, entries[0]);
+				setBucket(index, entries[0]);
 			}
 			else {
-				ByteChunk first = pageManager.get(entries[0]);
-				int hash = first.intAt(0);				
-				int npp = pageManager.allocate(4 + 4 * entries.length, ALLOC_NEW_LIST);
-				ByteChunk list = pageManager.get(npp);
-				try {
-					list.assertEmpty();
-				}
-				catch(AssertionError e) {
-					System.out.println("Problem pointer is " + pageManager.page(npp) + ":" + pageManager.offset(npp));
-					throw e;
+				// capacity is rounded to power of 2, so appends rarely need reallocation
+				int capacity = Math.max(LIST_MIN_CAPACITY, Integer.highestOneBit(entries.length - 1) << 1);
+				setBucket(index, -createList(entries, entries.length, capacity));
+			}
+		}
+		
+		private int createList(int[] entries, int n, int capacity) {
+			ByteChunk first = pageManager.get(entries[0]);
+			int hash = first.intAt(HASH_POS);
+			int npp = pageManager.allocate(LIST_DATA_POS + 4 * capacity, ALLOC_NEW_LIST);
+			ByteChunk list = pageManager.get(npp);
+			try {
+				list.assertEmpty();
+			}
+			catch(AssertionError e) {
+				logger.error("Problem pointer is " + pageManager.page(npp) + ":" + pageManager.offset(npp));
+				throw e;
+			}
+			list.putInt(LIST_HASH_POS, hash);
+			list.putInt(LIST_SIZE_POS, n);
+			for(int i = 0; i != n; ++i) {
+				list.putInt(LIST_DATA_POS + 4 * i, entries[i]);
+			}
+			// not required for in-heap backend
+			pageManager.update(npp, list);
+			return npp;
+		}
+		
+		private int listCapacity(ByteChunk list) {
+			return (list.lenght() - LIST_DATA_POS) / 4;
+		}
+		
+		/**
+		 * Adds pointer to bucket, collision list is extended in place if it has free slots.
+		 * Bucket lock assumed.
+		 */
+		private void appendEntry(int index, int npp) {
+			int pointer = getBucket(index);
+			if (pointer == EMPTY) {
+				setBucket(index, npp);
+			}
+			else if (pointer > 0) {
+				setBucket(index, -createList(new int[]{pointer, npp}, 2, LIST_MIN_CAPACITY));
+			}
+			else {
+				ByteChunk list = pageManager.get(-pointer);
+				int n = list.intAt(LIST_SIZE_POS);
+				int capacity = listCapacity(list);
+				if (n < capacity) {
+					// slot is written before size, though readers are validated by stripe version anyway
+					list.putInt(LIST_DATA_POS + 4 * n, npp);
+					list.putInt(LIST_SIZE_POS, n + 1);
+					// not required for in-heap backend
+					pageManager.update(-pointer, list);
 				}
-				list.putInt(0, hash);
-				for(int i = 0; i != entries.length; ++i) {
-					list.putInt(4 + 4 * i, entries[i]);
+				else {
+					// list is full, doubling capacity
+					int nlp = pageManager.allocate(LIST_DATA_POS + 8 * capacity, ALLOC_NEW_LIST);
+					ByteChunk newList = pageManager.get(nlp);
+					newList.putBytes(list);
+					newList.putInt(LIST_DATA_POS + 4 * n, npp);
+					newList.putInt(LIST_SIZE_POS, n + 1);
+					// not required for in-heap backend
+					pageManager.update(nlp, newList);
+					setBucket(index, -nlp);
+					releaseChunk(-pointer);
 				}
-				// not required for in-heap backend
-				pageManager.update(npp, list);
-				hashtable.set(index, -npp);
 			}
 		}
 
+		@Override
 		public void clear() {
 			tableLock.writeLock().lock();
 			try {
+				++tableVersion;
 			
 				for(int i = 0; i != capacity; ++i) {
 					int[] list = getEntries(i);
 					if (list != null) {
 						for(int pp: list) {
-							pageManager.release(pp);
+							releaseChunk(pp);
 						}
 						setEntries(i, null);
 					}
 				}
 				
-				hashtable = new AtomicIntegerArray(1024);
-				capacity = hashtable.length() >> 1;
+				segments = new AtomicIntegerArray[]{new AtomicIntegerArray(SEGMENT_SIZE)};
+				lockSegments = new AtomicIntegerArray[]{createLocktable(SEGMENT_SIZE)};
+				capacity = SEGMENT_SIZE >> 1;
 				size.set(0);
 			}
 			finally {
+				++tableVersion;
 				tableLock.writeLock().unlock();
 			}
 		}
 
 		private boolean sameKey(ByteChunk entry, ByteChunk key) {
-			int keySize = entry.intAt(KEY_SIZE_POS);
+			int keySize = entry.intAt(KEY_SIZE_POS) & KEY_SIZE_MASK;
 			if (keySize == key.lenght()) {
+				int offs = keyOffset(entry);
 				for (int i = 0; i != keySize; ++i) {
-					if (entry.at(DATA_POS + i) != key.at(i)) {
+					if (entry.at(offs + i) != key.at(i)) {
 						return false;
 					}
 				}
@@ -299,51 +1214,412 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 			else {
 				return false;
 			}
-		}
-		
-		private ByteChunk getValue(ByteChunk entry) {
-			int keySize = entry.intAt(KEY_SIZE_POS);
-			int valueSize = entry.intAt(VALUE_SIZE_POS);
-			return entry.subChunk(DATA_POS + keySize, valueSize);
-		}
-
-		@Override
-		public int size() {
-			return size.get();
+		}
+		
+		private ByteChunk getKey(ByteChunk entry) {
+			int keySize = entry.intAt(KEY_SIZE_POS) & KEY_SIZE_MASK;
+			return entry.subChunk(keyOffset(entry), keySize);
+		}
+		
+		private ByteChunk getValue(ByteChunk entry) {
+			int keySize = entry.intAt(KEY_SIZE_POS) & KEY_SIZE_MASK;
+			int valueSize = entry.intAt(VALUE_SIZE_POS) & VALUE_SIZE_MASK;
+			return entry.subChunk(keyOffset(entry) + keySize, valueSize);
+		}
+
+		@Override
+		public int size() {
+			return size.get();
+		}
+
+		@Override
+		public int getSize() {
+			return size.get();
+		}
+
+		@Override
+		public int getCapacity() {
+			return capacity;
+		}
+
+		@Override
+		public float getLoadFactor() {
+			return ((float)size.get()) / capacity;
+		}
+
+		@Override
+		public int[] getChainLengthHistogram() {
+			int[] histo = new int[CHAIN_HISTOGRAM_LENGTH];
+			tableLock.readLock().lock();
+			try {
+				int n = capacity;
+				for(int i = 0; i != n; ++i) {
+					int len;
+					readLock(i);
+					try {
+						int pointer = getBucket(i);
+						len = pointer == EMPTY ? 0 : pointer > 0 ? 1 : pageManager.get(-pointer).intAt(LIST_SIZE_POS);
+					}
+					finally {
+						readUnlock(i);
+					}
+					++histo[Math.min(len, histo.length - 1)];
+				}
+			}
+			finally {
+				tableLock.readLock().unlock();
+			}
+			return histo;
+		}
+
+		@Override
+		public long getLockSpinCount() {
+			return lockSpins.get();
+		}
+
+		@Override
+		public long getOptimisticReadFallbackCount() {
+			return optimisticReadFallbacks.get();
+		}
+
+		@Override
+		public long getHitCount() {
+			return hits.get();
+		}
+
+		@Override
+		public long getMissCount() {
+			return misses.get();
+		}
+
+		@Override
+		public double getHitRatio() {
+			long h = hits.get();
+			long total = h + misses.get();
+			return total == 0 ? 0d : ((double)h) / total;
+		}
+
+		private <V> V countHit(V value) {
+			if (value == null) {
+				misses.increment();
+			}
+			else {
+				hits.increment();
+			}
+			return value;
+		}
+
+		/**
+		 * Optimistic read path, no shared memory is written.
+		 * Entries are read without locks and result is validated against stripe and table versions and bucket index.
+		 * Concurrent writer may release memory being read, so garbage or exceptions
+		 * are possible during lookup, both are ignored if validation fails.
+		 * Falls back to locking read if validation keeps failing.
+		 */
+		@Override
+		public ByteChunk get(ByteChunk key) {
+			return get(key, DETACHED_COPY);
+		}
+
+		@Override
+		public <V> V get(ByteChunk key, ValueReader<V> reader) {
+			if (evictionMode != EvictionMode.NONE) {
+				// access clock is updated under bucket lock
+				return countHit(lockingGet(key, reader));
+			}
+			int hash = hashFunction.hash(key);
+			for(int attempt = 0; attempt != OPTIMISTIC_READ_ATTEMPTS; ++attempt) {
+				int tv = tableVersion;
+				int index = splitHash(hash, capacity);
+				int stripe = (index & (STRIPE_COUNT - 1)) * STRIPE_PADDING;
+				int sv = stripes.get(stripe);
+				if ((tv & 1) != 0 || (sv & STRIPE_WRITER_MASK) != 0) {
+					// writer is active
+					continue;
+				}
+				V result;
+				try {
+					result = lookup(index, key, 0, reader);
+				}
+				catch(RuntimeException e) {
+					if (validate(hash, index, stripe, sv, tv)) {
+						throw e;
+					}
+					continue;
+				}
+				if (validate(hash, index, stripe, sv, tv)) {
+					return countHit(result);
+				}
+			}
+			optimisticReadFallbacks.increment();
+			return countHit(lockingGet(key, reader));
+		}
+		
+		/**
+		 * Capacity could have been read before a split which completed before stripe was read,
+		 * so bucket index is verified too. Splits never move entries back to lower bucket.
+		 * Data is read with plain reads, so fence is required before stripe is reread.
+		 */
+		private boolean validate(int hash, int index, int stripe, int sv, int tv) {
+			readFence();
+			return stripes.get(stripe) == sv && tableVersion == tv && splitHash(hash, capacity) == index;
+		}
+		
+		/**
+		 * Walks bucket in place, the only heap allocation is made by reader of value found.
+		 * @param clockLimit 0 - do not touch entry (optimistic read must not write), otherwise access clock limit 
+		 */
+		private <V> V lookup(int index, ByteChunk key, int clockLimit, ValueReader<V> reader) {
+			int pointer = getBucket(index);
+			if (pointer == EMPTY) {
+				return null;
+			}
+			else if (pointer > 0) {
+				ByteChunk entry = pageManager.get(pointer);
+				return sameKey(entry, key) && !isExpired(entry) ? touch(entry, clockLimit, reader) : null;
+			}
+			else {
+				ByteChunk list = pageManager.get(-pointer);
+				int n = list.intAt(LIST_SIZE_POS);
+				for(int i = 0; i < n; ++i) {
+					ByteChunk entry = pageManager.get(list.intAt(LIST_DATA_POS + i * 4));
+					if (sameKey(entry, key)) {
+						// expired entry is left for compaction, reader does not write
+						return isExpired(entry) ? null : touch(entry, clockLimit, reader);
+					}
+				}
+				return null;
+			}
+		}
+
+		/**
+		 * Increments access clock, concurrent readers may lose increments, which is fine for eviction purposes.
+		 * Bucket lock assumed if clock is updated.
+		 * @return value processed by reader
+		 */
+		@SuppressWarnings("unchecked")
+		private <V> V touch(ByteChunk entry, int clockLimit, ValueReader<V> reader) {
+			if (clockLimit > 0) {
+				int clock = 0xFF & entry.at(ACCESS_CLOCK_POS);
+				if (clock < clockLimit) {
+					entry.set(ACCESS_CLOCK_POS, (byte)(clock + 1));
+				}
+			}
+			// entry may be a view of page memory, value should be read before bucket lock is released
+			if (isEncoded(entry)) {
+				ByteChunk value = decodeValue(getValue(entry));
+				// decoded value is already detached, no need to copy it
+				return reader == DETACHED_COPY ? (V) value : reader.read(value);
+			}
+			else {
+				return reader.read(getValue(entry));
+			}
+		}
+
+		private <V> V lockingGet(ByteChunk key, ValueReader<V> reader) {
+			tableLock.readLock().lock();
+			try {				
+				int index = readLockHash(hashFunction.hash(key));
+				try {
+					return lookup(index, key, evictionMode.clockLimit(), reader);
+				}
+				finally {
+					readUnlock(index);
+				}
+			}
+			finally {
+				tableLock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Batched lookup, each bucket is locked once per batch.
+		 * @param results filled with values, <code>null</code> for missing keys
+		 */
+		@Override
+		public void getAll(ByteChunk[] keys, ByteChunk[] results) {
+			if (results.length < keys.length) {
+				throw new IllegalArgumentException("Result array is too short");
+			}
+			int[] hashes = hashAll(keys);
+			int clockLimit = evictionMode.clockLimit();
+			tableLock.readLock().lock();
+			try {
+				long[] order = sortByBucket(hashes);
+				int n = 0;
+				while(n < order.length) {
+					int index = (int) (order[n] >> 32);
+					readLock(index);
+					try {
+						for(; n < order.length && (int) (order[n] >> 32) == index; ++n) {
+							int k = (int) order[n];
+							if (splitHash(hashes[k], capacity) == index) {
+								results[k] = countHit(lookup(index, keys[k], clockLimit, DETACHED_COPY));
+								order[n] = -1;
+							}
+						}
+					}
+					finally {
+						readUnlock(index);
+					}
+				}
+				for(long o: order) {
+					if (o != -1) {
+						// bucket has been split after sorting
+						int index = readLockHash(hashes[(int) o]);
+						try {
+							results[(int) o] = countHit(lookup(index, keys[(int) o], clockLimit, DETACHED_COPY));
+						}
+						finally {
+							readUnlock(index);
+						}
+					}
+				}
+			}
+			finally {
+				tableLock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Batched put, each bucket is locked once per batch and table growth is handled once.
+		 * If batch contains same key several times, last value wins.
+		 */
+		@Override
+		public void putAll(ByteChunk[] keys, ByteChunk[] values) {
+			if (values.length < keys.length) {
+				throw new IllegalArgumentException("Value array is too short");
+			}
+			int[] hashes = hashAll(keys);
+			long required = 0;
+			// caller's array is not modified
+			ByteChunk[] stored = new ByteChunk[keys.length];
+			for(int i = 0; i != keys.length; ++i) {
+				checkKeySize(keys[i]);
+				checkValueSize(values[i]);
+				stored[i] = encodeValue(values[i], true);
+				required += entrySize(keys[i], stored[i], 0);
+			}
+			checkFreeMemory(required);
+			tableLock.readLock().lock();
+			try {
+				long[] order = sortByBucket(hashes);
+				int n = 0;
+				while(n < order.length) {
+					int index = (int) (order[n] >> 32);
+					writeLock(index);
+					try {
+						for(; n < order.length && (int) (order[n] >> 32) == index; ++n) {
+							int k = (int) order[n];
+							if (splitHash(hashes[k], capacity) == index) {
+								putLocked(index, hashes[k], keys[k], stored[k], 0);
+								order[n] = -1;
+							}
+						}
+					}
+					finally {
+						writeUnlock(index);
+					}
+				}
+				for(long o: order) {
+					if (o != -1) {
+						// bucket has been split after sorting
+						internalPut(keys[(int) o], stored[(int) o], 0);
+					}
+				}
+			}
+			finally {
+				tableLock.readLock().unlock();
+			}
+			checkTableSize(4 * keys.length);
 		}
 
+		/**
+		 * Batched remove, each bucket is locked once per batch.
+		 */
 		@Override
-		public ByteChunk get(ByteChunk key) {
+		public void removeAll(ByteChunk[] keys) {
+			int[] hashes = hashAll(keys);
 			tableLock.readLock().lock();
-			try {				
-				int index = hashIndex(key, capacity);
-				readLock(index);
-				try {
-					int[] entries = getEntries(index);
-					if (entries != null) {
-						for(int pp : entries) {
-							ByteChunk entry = pageManager.get(pp);
-							if (sameKey(entry, key)) {
-								return getValue(entry);
+			try {
+				long[] order = sortByBucket(hashes);
+				int n = 0;
+				while(n < order.length) {
+					int index = (int) (order[n] >> 32);
+					writeLock(index);
+					try {
+						for(; n < order.length && (int) (order[n] >> 32) == index; ++n) {
+							int k = (int) order[n];
+							if (splitHash(hashes[k], capacity) == index) {
+								removeLocked(index, keys[k]);
+								order[n] = -1;
 							}
 						}
 					}
-					return null;
+					finally {
+						writeUnlock(index);
+					}
 				}
-				finally {
-					readUnlock(index);
+				for(long o: order) {
+					if (o != -1) {
+						// bucket has been split after sorting
+						int index = writeLockHash(hashes[(int) o]);
+						try {
+							removeLocked(index, keys[(int) o]);
+						}
+						finally {
+							writeUnlock(index);
+						}
+					}
 				}
 			}
 			finally {
 				tableLock.readLock().unlock();
 			}
+			checkTableSize();
+		}
+		
+		private int[] hashAll(ByteChunk[] keys) {
+			int[] hashes = new int[keys.length];
+			for(int i = 0; i != keys.length; ++i) {
+				hashes[i] = hashFunction.hash(keys[i]);
+			}
+			return hashes;
+		}
+		
+		/**
+		 * @return (bucket index << 32 | position in batch) sorted by bucket, keeping batch order inside of bucket
+		 */
+		private long[] sortByBucket(int[] hashes) {
+			int cap = capacity;
+			long[] order = new long[hashes.length];
+			for(int i = 0; i != hashes.length; ++i) {
+				order[i] = (((long) splitHash(hashes[i], cap)) << 32) | i;
+			}
+			Arrays.sort(order);
+			return order;
 		}
 
 		@Override
 		public void put(ByteChunk key, ByteChunk value) {
+			put(key, value, 0);
+		}
+
+		@Override
+		public void put(ByteChunk key, ByteChunk value, long ttlMillis) {
+			checkKeySize(key);
+			checkValueSize(value);
+			long expiry = 0;
+			if (ttlMillis > 0) {
+				expiry = System.currentTimeMillis() + ttlMillis;
+				expiryUsed = true;
+			}
+			// encoded value may be a view of thread local buffer, unless eviction policy (which could put on this thread) is called
+			value = encodeValue(value, evictionPolicy != null);
+			checkFreeMemory(entrySize(key, value, expiry));
 			tableLock.readLock().lock();
 			try {
-				internalPut(key, value);
+				internalPut(key, value, expiry);
 			}
 			finally {
 				tableLock.readLock().unlock();
@@ -355,35 +1631,9 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 		public void remove(ByteChunk key) {
 			tableLock.readLock().lock();
 			try {
-				int index = hashIndex(key, capacity);
-				writeLock(index);
+				int index = writeLockHash(hashFunction.hash(key));
 				try {
-					
-					int[] entries = getEntries(index);
-					
-					if (entries != null) {
-						for(int pp : entries) {
-							ByteChunk entry = pageManager.get(pp);
-							if (sameKey(entry, key)) {
-								pageManager.release(pp);
-								if (entries.length == 1) {
-									setEntries(index, null);
-								}
-								else {
-									int[] newEntries = new int[entries.length - 1];
-									int n = 0;
-									for(int pi :  entries) {
-										if (pi != pp) {
-											newEntries[n++] = pi;
-										}
-									}
-									setEntries(index, newEntries);
-								}
-								size.decrementAndGet();
-								return;
-							}
-						}
-					}
+					removeLocked(index, key);
 				}
 				finally {
 					writeUnlock(index);
@@ -395,73 +1645,234 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 			checkTableSize();
 		}
 
-		// table lock is assumed
-		private void internalPut(ByteChunk key, ByteChunk value) {
-
-			int hash = BinHash.hash(key);
-			int index = splitHash(hash, capacity);
-			writeLock(index);
-			try {			
-				int[] entries = getEntries(index);
-				
-				if (entries != null) {
-					for(int i = 0; i != entries.length; ++i) {
-						int pp = entries[i];
-						ByteChunk entry = pageManager.get(pp);
-						if (sameKey(entry, key)) {
-							// overriding value
-							pageManager.release(pp);
-							int npp = pageManager.allocate(DATA_POS + key.lenght() + value.lenght(), ALLOC_NEW_VALUE);
-							createEntry(npp, key, value, hash);
-							entries[i] = npp;
-							setEntries(index, entries);
-							return;
+		// bucket write lock assumed
+		private void removeLocked(int index, ByteChunk key) {
+			int pointer = getBucket(index);
+			if (pointer > 0) {
+				if (sameKey(pageManager.get(pointer), key)) {
+					releaseChunk(pointer);
+					setBucket(index, EMPTY);
+					size.decrementAndGet();
+				}
+			}
+			else if (pointer < 0) {
+				ByteChunk list = pageManager.get(-pointer);
+				int n = list.intAt(LIST_SIZE_POS);
+				for(int i = 0; i != n; ++i) {
+					int pp = list.intAt(LIST_DATA_POS + 4 * i);
+					if (sameKey(pageManager.get(pp), key)) {
+						releaseChunk(pp);
+						if (n == 2) {
+							// single entry left, list is no longer needed
+							setBucket(index, list.intAt(LIST_DATA_POS + 4 * (1 - i)));
+							releaseChunk(-pointer);
 						}
+						else {
+							// last entry takes freed slot
+							list.putInt(LIST_DATA_POS + 4 * i, list.intAt(LIST_DATA_POS + 4 * (n - 1)));
+							list.putInt(LIST_SIZE_POS, n - 1);
+							// not required for in-heap backend
+							pageManager.update(-pointer, list);
+						}
+						size.decrementAndGet();
+						break;
 					}
 				}
-					
-				// TODO refactoring, move allocation to createEntry method
-				// add new entry
-				int npp = pageManager.allocate(DATA_POS + key.lenght() + value.lenght(), ALLOC_NEW_VALUE);
-				createEntry(npp, key, value, hash);
+			}
+		}
+
+		// upper byte of key size is used by access clock
+		private void checkKeySize(ByteChunk key) {
+			if (key.lenght() > KEY_SIZE_MASK) {
+				throw new IllegalArgumentException("Key is too large (" + key.lenght() + " bytes)");
+			}
+		}
+
+		// upper bits of value size word are flags
+		private void checkValueSize(ByteChunk value) {
+			if (value.lenght() > VALUE_SIZE_MASK) {
+				throw new IllegalArgumentException("Value is too large (" + value.lenght() + " bytes)");
+			}
+		}
+
+		// table lock is assumed
+		private void internalPut(ByteChunk key, ByteChunk value, long expiry) {
+
+			int hash = hashFunction.hash(key);
+			int index = writeLockHash(hash);
+			try {			
+				putLocked(index, hash, key, value, expiry);
+			}
+			finally {
+				writeUnlock(index);
+			}
+		}
 
-				int[] newEntries;
-				if (entries == null || entries.length == 0) {
-					newEntries = new int[]{npp};
+		/**
+		 * Bucket write lock assumed.
+		 * @param expiry absolute time in milliseconds, 0 - entry never expires
+		 */
+		private void putLocked(int index, int hash, ByteChunk key, ByteChunk value, long expiry) {
+			int pointer = getBucket(index);
+			if (pointer > 0) {
+				ByteChunk entry = pageManager.get(pointer);
+				if (sameKey(entry, key)) {
+					// overriding value, old entry is released only after allocation has succeeded
+					int npp = pageManager.allocate(entrySize(key, value, expiry), ALLOC_NEW_VALUE);
+					createEntry(npp, key, value, hash, entry.at(ACCESS_CLOCK_POS), expiry);
+					setBucket(index, npp);
+					releaseChunk(pointer);
+					return;
 				}
-				else {
-					newEntries = Arrays.copyOf(entries, entries.length + 1);
-					newEntries[entries.length] = npp;
+			}
+			else if (pointer < 0) {
+				ByteChunk list = pageManager.get(-pointer);
+				int n = list.intAt(LIST_SIZE_POS);
+				for(int i = 0; i != n; ++i) {
+					int pp = list.intAt(LIST_DATA_POS + 4 * i);
+					ByteChunk entry = pageManager.get(pp);
+					if (sameKey(entry, key)) {
+						// overriding value, only list slot is updated
+						int npp = pageManager.allocate(entrySize(key, value, expiry), ALLOC_NEW_VALUE);
+						createEntry(npp, key, value, hash, entry.at(ACCESS_CLOCK_POS), expiry);
+						list.putInt(LIST_DATA_POS + 4 * i, npp);
+						// not required for in-heap backend
+						pageManager.update(-pointer, list);
+						releaseChunk(pp);
+						return;
+					}
 				}
+			}
 				
-				setEntries(index, newEntries);
-				
-				size.incrementAndGet();
+			// TODO refactoring, move allocation to createEntry method
+			// add new entry
+			int npp = pageManager.allocate(entrySize(key, value, expiry), ALLOC_NEW_VALUE);
+			createEntry(npp, key, value, hash, (byte)INITIAL_ACCESS_CLOCK, expiry);
+			try {
+				appendEntry(index, npp);
 			}
-			finally {
-				writeUnlock(index);
+			catch(MemoryExhaustedException e) {
+				// collision list could not be extended
+				releaseChunk(npp);
+				throw e;
 			}
+			
+			size.incrementAndGet();
 		}
 
-		private void createEntry(int npp, ByteChunk key, ByteChunk value, int hash) {
+		private void createEntry(int npp, ByteChunk key, ByteChunk value, int hash, byte accessClock, long expiry) {
 			ByteChunk chunk = pageManager.get(npp);
 			try {
 				chunk.assertEmpty();
 			}
 			catch(AssertionError e) {
-				System.out.println("Problem pointer is " + pageManager.page(npp) + ":" + pageManager.offset(npp));
+				logger.error("Problem pointer is " + pageManager.page(npp) + ":" + pageManager.offset(npp));
 				throw e;
 			}
 			chunk.putInt(HASH_POS, hash);
 			chunk.putInt(KEY_SIZE_POS, key.lenght());
-			chunk.putInt(VALUE_SIZE_POS, value.lenght());
-			chunk.putBytes(DATA_POS, key);
-			chunk.putBytes(DATA_POS + key.lenght(), value);
+			chunk.set(ACCESS_CLOCK_POS, accessClock);
+			int offs = DATA_POS;
+			int valueSize = value instanceof EncodedValue ? ENCODED_FLAG | value.lenght() : value.lenght();
+			if (expiry == 0) {
+				chunk.putInt(VALUE_SIZE_POS, valueSize);
+			}
+			else {
+				chunk.putInt(VALUE_SIZE_POS, EXPIRY_FLAG | valueSize);
+				chunk.putLong(EXPIRY_POS, expiry);
+				offs += EXPIRY_SIZE;
+			}
+			chunk.putBytes(offs, key);
+			chunk.putBytes(offs + key.lenght(), value);
 
 			// no need for in-heap storage
 			pageManager.update(npp, chunk);
 		}
 		
+		/**
+		 * Buckets are frozen one by one under bucket lock, so writers are blocked only for a single bucket.
+		 * Splits are suspended meanwhile, otherwise an entry moved to a bucket which is not visited yet could be captured twice.
+		 * @return pointers to entries, valid while chunk releases are deferred
+		 */
+		int[] freezeEntries() {
+			splitLock.lock();
+			try {
+				int n = 0;
+				int[] entries = new int[size.get()];
+				int i = 0;
+				while(true) {
+					// table lock is reacquired per segment, so clear() is not blocked for whole walk
+					tableLock.readLock().lock();
+					try {
+						int limit = Math.min(capacity, i + SEGMENT_SIZE);
+						if (i >= limit) {
+							break;
+						}
+						for(; i != limit; ++i) {
+							writeLock(i);
+							try {
+								int pointer = getBucket(i);
+								if (pointer > 0) {
+									if (n == entries.length) {
+										entries = Arrays.copyOf(entries, Math.max(16, 2 * entries.length));
+									}
+									entries[n++] = pointer;
+								}
+								else if (pointer < 0) {
+									ByteChunk list = pageManager.get(-pointer);
+									int len = list.intAt(LIST_SIZE_POS);
+									if (n + len > entries.length) {
+										entries = Arrays.copyOf(entries, Math.max(n + len, 2 * entries.length));
+									}
+									for(int j = 0; j != len; ++j) {
+										entries[n++] = list.intAt(LIST_DATA_POS + j * 4);
+									}
+								}
+							}
+							finally {
+								writeUnlock(i);
+							}
+						}
+					}
+					finally {
+						tableLock.readLock().unlock();
+					}
+				}
+				return Arrays.copyOf(entries, n);
+			}
+			finally {
+				splitLock.unlock();
+			}
+		}
+		
+		/**
+		 * Adds entry from snapshot, entry should not be present in table.
+		 */
+		void restoreEntry(ByteChunk chunk) {
+			tableLock.readLock().lock();
+			try {
+				int hash = chunk.intAt(HASH_POS);
+				int index = writeLockHash(hash);
+				try {
+					int npp = pageManager.allocate(chunk.lenght(), ALLOC_NEW_VALUE);
+					ByteChunk newChunk = pageManager.get(npp);
+					newChunk.putBytes(chunk);
+					// not required for in-heap storage
+					pageManager.update(npp, newChunk);
+					
+					appendEntry(index, npp);
+					size.incrementAndGet();
+				}
+				finally {
+					writeUnlock(index);
+				}
+			}
+			finally {
+				tableLock.readLock().unlock();
+			}
+			checkTableSize();
+		}
+		
 		// tableLock assumed
 		void recycleHash(int hash) {
 			while(true) {
@@ -473,38 +1884,7 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 						// need to recalculate index
 						continue;
 					}
-					
-					int[] entries = getEntries(index);
-					
-					if (entries != null && entries.length > 0) {
-						boolean modified = false;
-						for(int i = 0; i != entries.length; ++i) {
-							int pp = entries[i];
-							if (needRecycle(pp)) {
-								ByteChunk chunk = pageManager.get(pp);
-								int npp = pageManager.allocate(chunk.lenght(), ALLOC_RELOCATE_VALUE);
-								ByteChunk newChunk = pageManager.get(npp);
-								newChunk.putBytes(chunk);
-								pageManager.release(pp);
-								// not required for in-heap storage
-								pageManager.update(npp, newChunk);
-								entries[i] = npp;
-								modified = true;
-							}
-						}
-						
-						if (!modified) {
-							int pe = hashtable.get(index);
-							pe = pe > 0 ? pe : -pe;
-							if (needRecycle(pe)) {
-								modified = true;
-							}
-						}
-						
-						if (modified) {
-							setEntries(index, entries);
-						}
-					}
+					recycleBucket(index, false);
 				}
 				finally {
 					writeUnlock(index);
@@ -512,50 +1892,187 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 				break;
 			}
 		}
+
+		/**
+		 * Removes expired entries from next batch of buckets, tableLock assumed.
+		 * @return <code>true</code> if end of table has been reached
+		 */
+		boolean sweepExpired(int batch) {
+			int end = Math.min(expiryCursor + batch, capacity);
+			for(; expiryCursor < end; ++expiryCursor) {
+				writeLock(expiryCursor);
+				try {
+					recycleBucket(expiryCursor, true);
+				}
+				finally {
+					writeUnlock(expiryCursor);
+				}
+			}
+			if (expiryCursor >= capacity) {
+				expiryCursor = 0;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Relocates entries from pages marked for recycling, or only removes expired entries if <code>expiryOnly</code> is set.
+		 * Bucket lock assumed.
+		 */
+		private void recycleBucket(int index, boolean expiryOnly) {
+			boolean evict = evicting;
+			int pointer = getBucket(index);
+			if (pointer > 0) {
+				int npp = recycleEntry(pointer, evict, expiryOnly);
+				if (npp != pointer) {
+					setBucket(index, npp);
+				}
+			}
+			else if (pointer < 0) {
+				ByteChunk list = pageManager.get(-pointer);
+				int n = list.intAt(LIST_SIZE_POS);
+				boolean modified = false;
+				// backward, so evicted slot could be taken by last entry
+				for(int i = n - 1; i >= 0; --i) {
+					int pp = list.intAt(LIST_DATA_POS + 4 * i);
+					int npp = recycleEntry(pp, evict, expiryOnly);
+					if (npp == EMPTY) {
+						list.putInt(LIST_DATA_POS + 4 * i, list.intAt(LIST_DATA_POS + 4 * (n - 1)));
+						--n;
+						modified = true;
+					}
+					else if (npp != pp) {
+						list.putInt(LIST_DATA_POS + 4 * i, npp);
+						modified = true;
+					}
+				}
+				if (modified) {
+					list.putInt(LIST_SIZE_POS, n);
+					// not required for in-heap storage
+					pageManager.update(-pointer, list);
+				}
+				if (n < 2) {
+					// list is no longer needed
+					setBucket(index, n == 0 ? EMPTY : list.intAt(LIST_DATA_POS));
+					releaseChunk(-pointer);
+				}
+				else if (!expiryOnly && needRecycle(-pointer)) {
+					setBucket(index, -relocate(-pointer));
+				}
+			}
+		}
+
+		/**
+		 * @return new pointer of entry, same pointer if entry is left in place or <code>EMPTY</code> if it has been removed
+		 */
+		private int recycleEntry(int pp, boolean evict, boolean expiryOnly) {
+			if (expiryOnly) {
+				return removeIfDead(pp, false) ? EMPTY : pp;
+			}
+			else if (needRecycle(pp)) {
+				return removeIfDead(pp, evict) ? EMPTY : relocate(pp);
+			}
+			else {
+				return pp;
+			}
+		}
+		
+		/**
+		 * Removes expired entry instead of relocating it. If eviction is active, also removes entry
+		 * which has not been accessed since last sweep, otherwise ages its access clock.
+		 * Bucket lock assumed, caller should unlink removed entry from bucket.
+		 * @return <code>true</code> if entry has been removed
+		 */
+		private boolean removeIfDead(int pp, boolean evict) {
+			ByteChunk entry = pageManager.get(pp);
+			if (isExpired(entry)) {
+				expiredEntries.incrementAndGet();
+				releaseChunk(pp);
+				size.decrementAndGet();
+				return true;
+			}
+			if (!evict) {
+				return false;
+			}
+			int clock = 0xFF & entry.at(ACCESS_CLOCK_POS);
+			if (clock == 0) {
+				evictedEntries.incrementAndGet();
+				evictedBytes.addAndGet(entry.lenght());
+				releaseChunk(pp);
+				size.decrementAndGet();
+				return true;
+			}
+			else {
+				entry.set(ACCESS_CLOCK_POS, (byte)(clock >> 1));
+				return false;
+			}
+		}
+
+		// copies chunk to a new location, bucket lock assumed
+		private int relocate(int pp) {
+			ByteChunk chunk = pageManager.get(pp);
+			int npp = pageManager.allocate(chunk.lenght(), ALLOC_RELOCATE_VALUE);
+			ByteChunk newChunk = pageManager.get(npp);
+			newChunk.putBytes(chunk);
+			releaseChunk(pp);
+			// not required for in-heap storage
+			pageManager.update(npp, newChunk);
+			return npp;
+		}
 		
 		private boolean needRecycle(int pointer) {
 			return pageManager.isMarkedForRecycle(pointer);
 		}
 
 		private void checkTableSize() {			
-			float loadFactor = ((float)size.get()) / capacity;
-			if (loadFactor > thresholdLoadFactor && (capacity == hashtable.length())){
+			checkTableSize(4);
+		}
+
+		/**
+		 * @param splits upper limit for number of bucket splits, bulk operations use larger limit
+		 */
+		private void checkTableSize(int splits) {
+			while(splits > 0 && ((float)size.get()) / capacity > targetLoadFactor) {
 				checkTablePhysicalSize();
+				int n = Math.min(splits, directorySize() - capacity);
+				if (n <= 0) {
+					break;
+				}
+				growTable(n);
+				splits -= n;
+			}
+		}
+		
+		/**
+		 * Appends a segment to bucket directory. Existing segments are not touched,
+		 * so readers and writers are not blocked.
+		 */
+		void checkTablePhysicalSize() {
+			if (capacity > ((directorySize() * 8) / 10)) {
+				synchronized(segmentLock) {
+					if (capacity > ((directorySize() * 8) / 10)) {
+						AtomicIntegerArray[] newLockSegments = Arrays.copyOf(lockSegments, lockSegments.length + 1);
+						newLockSegments[lockSegments.length] = createLocktable(SEGMENT_SIZE);
+						AtomicIntegerArray[] newSegments = Arrays.copyOf(segments, segments.length + 1);
+						newSegments[segments.length] = new AtomicIntegerArray(SEGMENT_SIZE);
+						// locks should be available before buckets become reachable
+						lockSegments = newLockSegments;
+						segments = newSegments;
+					}
+				}
 			}
-			if (loadFactor > targetLoadFactor && (capacity < hashtable.length())) {				
-				growTable(4);
-			}
-		}
-		
-	    void checkTablePhysicalSize() {
-	    	if (capacity > ((hashtable.length() * 8) / 10)) {
-	    		// need to resize table
-	    		int delta = (hashtable.length() / 2) & 0xFFFFF800;
-	    		if (delta < 1024) {
-	    			delta = 1024;
-	    		}
-	    		
-	    		tableLock.writeLock().lock();
-	    		try {
-	    			AtomicIntegerArray newTable = new AtomicIntegerArray(hashtable.length() + delta);
-	    			for(int i = 0; i != hashtable.length(); ++i) {
-	    				newTable.set(i, hashtable.get(i));
-	    			}
-	    			hashtable = newTable;
-	    			locktable = createLocktable(hashtable.length());
-	    		}
-	    		finally {
-	    			tableLock.writeLock().unlock();
-	    		}
-	    	}
 		}
 
 		private void growTable(int n) {
+			if (!splitLock.tryLock()) {
+				// either other writer is splitting or snapshot is in progress, table will grow later
+				return;
+			}
 			tableLock.readLock().lock();
             //checkHashConsistency();
 			try {
 	            for(int i = 0; i != n; ++i) {
-	            	if (capacity == hashtable.length()) {
+	            	if (capacity == directorySize()) {
 	            		return;
 	            	}
 	            	int nRound = Integer.highestOneBit(capacity);
@@ -602,6 +2119,7 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 			}
             finally {
             	tableLock.readLock().unlock();
+            	splitLock.unlock();
             }
 	    }
 
@@ -629,25 +2147,55 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 	    }
 	    
 		private int hashIndex(ByteChunk key, int capacity) {
-	        int hash = BinHash.hash(key);
+	        int hash = hashFunction.hash(key);
 	        return splitHash(hash, capacity);
 	    }
 		
+		/**
+		 * Lock word per bucket. Locks of adjacent buckets are placed {@link #STRIPE_PADDING} ints apart,
+		 * so writers of neighbouring buckets (e.g. batch operations) do not share cache line.
+		 * Padding each lock to a full cache line would cost 64 bytes per bucket.
+		 */
 		public AtomicIntegerArray createLocktable(int size) {
-			AtomicIntegerArray table = new AtomicIntegerArray(size / 4); // 8 bits per lock
+			AtomicIntegerArray table = new AtomicIntegerArray(size);
 			return table;
 		}
 		
+		// concurrent growTable() may split bucket before lock is acquired, so index is rechecked under lock
+		private int readLockHash(int hash) {
+			while(true) {
+				int index = splitHash(hash, capacity);
+				readLock(index);
+				if (splitHash(hash, capacity) == index) {
+					return index;
+				}
+				readUnlock(index);
+			}
+		}
+
+		// concurrent growTable() may split bucket before lock is acquired, so index is rechecked under lock
+		private int writeLockHash(int hash) {
+			while(true) {
+				int index = splitHash(hash, capacity);
+				writeLock(index);
+				if (splitHash(hash, capacity) == index) {
+					return index;
+				}
+				writeUnlock(index);
+			}
+		}
+		
 		private void readLock(int index) {
 			int n = 0;
 			while(true) {
-				byte c = byte_get(locktable, index);
-				if (c >= 0 && c < 126) {
-					byte u = (byte) (c + 1) ;
-					if (byte_compareAndSet(locktable, index, c, u)) {
+				int c = lock_get(index);
+				if (c >= 0) {
+					int u = c + 1;
+					if (lock_compareAndSet(index, c, u)) {
 						return;
 					}
 				}				
+				lockSpins.increment();
 				++n;
 				if (n % 10 == 0) {
 					Thread.yield();
@@ -658,22 +2206,23 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 		private void readUnlock(int index) {
 			int n = 0;
 			while(true) {
-				byte c = byte_get(locktable, index);
+				int c = lock_get(index);
 				if (c > 0) {
-					byte u = (byte) (c - 1) ;
-					if (byte_compareAndSet(locktable, index, c, u)) {
+					int u = c - 1;
+					if (lock_compareAndSet(index, c, u)) {
 						return;
 					}
 				}				
 				else if (c < 0) {
-					byte u = (byte) (c + 1);
-					if (byte_compareAndSet(locktable, index, c, u)) {
+					int u = c + 1;
+					if (lock_compareAndSet(index, c, u)) {
 						return;
 					}
 				}
 				else {
 					throw new IllegalStateException("Invalid lock state");
 				}
+				lockSpins.increment();
 				++n;
 				if (n % 10 == 0) {
 					Thread.yield();
@@ -684,22 +2233,23 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 		private void writeLock(int index) {
 			int n = 0;
 			while(true) {
-				byte c = byte_get(locktable, index);
+				int c = lock_get(index);
 				if (c == 0) {
-					byte u = (byte) -1;
-					if (byte_compareAndSet(locktable, index, c, u)) {
-						return;
+					int u = -1;
+					if (lock_compareAndSet(index, c, u)) {
+						break;
 					}
 				}				
 				else if (c < 0) {
 					// another writer is pending					
 				}
 				else if (c > 0){
-					byte u = (byte) (-c - 1);
-					if (byte_compareAndSet(locktable, index, c, u)) {
+					int u = -c - 1;
+					if (lock_compareAndSet(index, c, u)) {
 						break;
 					}
 				}
+				lockSpins.increment();
 				++n;
 				if (n % 10 == 0) {
 					Thread.yield();
@@ -707,11 +2257,14 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 			}
 			// waiting read locks to get released
 			while(true) {
-				byte c = byte_get(locktable, index);
+				int c = lock_get(index);
 				if (c == -1) {
+					// announce writer to optimistic readers
+					stripes.getAndIncrement((index & (STRIPE_COUNT - 1)) * STRIPE_PADDING);
 					return;
 				}				
 
+				lockSpins.increment();
 				++n;
 				if (n % 10 == 0) {
 					Thread.yield();
@@ -720,18 +2273,21 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 		}
 
 		private void writeUnlock(int index) {
+			// bump version and remove writer in single step
+			stripes.getAndAdd((index & (STRIPE_COUNT - 1)) * STRIPE_PADDING, STRIPE_VERSION_INC - 1);
 			int n = 0;
 			while(true) {
-				byte c = byte_get(locktable, index);
+				int c = lock_get(index);
 				if (c == -1) {
-					byte u = (byte) 0;
-					if (byte_compareAndSet(locktable, index, c, u)) {
+					int u = 0;
+					if (lock_compareAndSet(index, c, u)) {
 						return;
 					}
 				}				
 				else {
 					throw new IllegalStateException("Broken lock");
 				}
+				lockSpins.increment();
 				++n;
 				if (n % 10 == 0) {
 					Thread.yield();
@@ -739,79 +2295,36 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 			}
 		}
 		
-		private byte byte_get(AtomicIntegerArray table, int index) {
-			int x = index / 4;
-			int xx = index % 4;			
-			int word = table.get(x);
-			return getByte(word, xx);
+		private int lock_get(int index) {
+			return lockSegments[index >> SEGMENT_POWER].get(lockSlot(index));
 		}
 
-		private boolean byte_compareAndSet(AtomicIntegerArray table, int index, byte expected, byte newValue) {
-			int x = index / 4;
-			int xx = index % 4;
-			
-			while(true) {
-				int word = table.get(x);
-				byte val = getByte(word, xx);
-				if (val == expected) {
-					int newWord = setByte(word, xx, newValue);
-					if (table.compareAndSet(x, word, newWord)) {
-						return true;
-					}
-					else {
-						continue;
-					}
-				}
-				else {
-					return false;
-				}				
-			}			
-		}
-		
-		private byte getByte(int word, int i) {
-			switch(i) {
-			case 0:
-				return (byte) (0xFF & word);
-			case 1:
-				return (byte) (0xFF & (word >> 8));				
-			case 2:
-				return (byte) (0xFF & (word >> 16));				
-			case 3:
-				return (byte) (0xFF & (word >> 24));				
-			default:
-				throw new IllegalArgumentException("4 bytes per int");
-			}			
-		}
-		
-		private int setByte(int word,int i, byte value) {
-			switch(i) {
-			case 0:
-				word &= 0xFFFFFF00;
-				word |= 0xFF & (int)value;
-				return word;
-			case 1:
-				word &= 0xFFFF00FF;
-				word |= (0xFF & (int)value) << 8;
-				return word;				
-			case 2:
-				word &= 0xFF00FFFF;
-				word |= (0xFF & (int)value) << 16;
-				return word;				
-			case 3:
-				word &= 0x00FFFFFF;
-				word |= (0xFF & (int)value) << 24;
-				return word;				
-			default:
-				throw new IllegalArgumentException("4 bytes per int");
-			}
+		private boolean lock_compareAndSet(int index, int expected, int newValue) {
+			return lockSegments[index >> SEGMENT_POWER].compareAndSet(lockSlot(index), expected, newValue);
 		}
 		
 		@Override
 		public Iterator<ByteChunk> keys() {
-			return null;
+			return new HashIterator(this);
 		}
 	}
 
+	/**
+	 * Adjacent buckets are mapped to different cache lines of lock segment.
+	 */
+	private static int lockSlot(int index) {
+		int i = index & SEGMENT_MASK;
+		return (i % LOCK_LINES) * STRIPE_PADDING + i / LOCK_LINES;
+	}
+
+	/**
+	 * There is no load fence in Java 6. Volatile write keeps preceding reads before following volatile reads,
+	 * each thread stripe writes its own cache line, so optimistic readers still do not contend.
+	 */
+	private static void readFence() {
+		READ_FENCES.set((ThreadStripes.current() & (READ_FENCES.length() / STRIPE_PADDING - 1)) * STRIPE_PADDING, 0);
+	}
+
     static int splitHash(int hash, int capacity) {
         int round = Integer.highestOneBit(capacity);
         int split = capacity & ~round;
@@ -824,26 +2337,45 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
         return (int) idx;
 	}
 	
+	/**
+	 * Weakly consistent key iterator.
+	 * Linear hashing only moves keys between buckets with same index modulo round,
+	 * so iterator walks such "bucket classes" using round at the moment of creation.
+	 * Splits are suspended while batch of classes is collected (same as for snapshot freeze),
+	 * so buckets are locked one at a time and keys cannot be missed or duplicated.
+	 */
 	private class HashIterator implements Iterator<ByteChunk> {
 	
-		private final AtomicLongArray hashtable;
+		private static final int BATCH_SIZE = 64;
+		
+		private final BinaryHashTable table;
+		private final int round;
+		private int nextClass = 0;
+		
+		private ByteChunk[] buffer = new ByteChunk[BATCH_SIZE];
+		private int bufferSize = 0;
 		private int position = 0;
-		private final List<ByteChunk> buffer = new ArrayList<ByteChunk>();
+		private ByteChunk lastKey;
 		
-		public HashIterator(AtomicLongArray hashtable) {
-			this.hashtable = hashtable;
+		public HashIterator(BinaryHashTable table) {
+			this.table = table;
+			this.round = Integer.highestOneBit(table.capacity);
 		}
 
 		@Override
 		public boolean hasNext() {
-			// TODO Auto-generated method stub
-			return false;
+			if (position >= bufferSize) {
+				prefetch();
+			}
+			return position < bufferSize;
 		}
 
 		@Override
 		public ByteChunk next() {
-			if (hasNext()) { 
-				return buffer.remove(0);
+			if (hasNext()) {
+				lastKey = buffer[position];
+				buffer[position++] = null;
+				return lastKey;
 			}
 			else {
 				throw new NoSuchElementException();
@@ -852,7 +2384,102 @@ public class PagedMemoryBinaryStoreManager2 implements BinaryStoreManager {
 
 		@Override
 		public void remove() {
-			throw new UnsupportedOperationException();			
+			if (lastKey == null) {
+				throw new IllegalStateException();
+			}
+			table.remove(lastKey);
+			lastKey = null;
+		}
+		
+		private void prefetch() {
+			position = 0;
+			bufferSize = 0;
+			if (nextClass >= round) {
+				return;
+			}
+			// split and table locks are held only for single batch, lock order is same as in freezeEntries()
+			table.splitLock.lock();
+			try {
+				table.tableLock.readLock().lock();
+				try {
+					while(bufferSize < BATCH_SIZE && nextClass < round) {
+						collectClass(nextClass++);
+					}
+				}
+				finally {
+					table.tableLock.readLock().unlock();
+				}
+			}
+			finally {
+				table.splitLock.unlock();
+			}
+		}
+
+		// split and table locks assumed, capacity cannot change
+		private void collectClass(int keyClass) {
+			// classes beyond capacity exist only if table has been cleared
+			for(int bucket = keyClass; bucket < table.capacity; bucket += round) {
+				table.readLock(bucket);
+				try {
+					int[] entries = table.getEntries(bucket);
+					if (entries != null) {
+						for(int pp: entries) {
+							ByteChunk entry = pageManager.get(pp);
+							if (isExpired(entry)) {
+								continue;
+							}
+							if (bufferSize == buffer.length) {
+								buffer = Arrays.copyOf(buffer, buffer.length * 2);
+							}
+							buffer[bufferSize++] = table.getKey(entry).copy();
+						}
+					}
+				}
+				finally {
+					table.readUnlock(bucket);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks value produced by value codec, entry gets encoded flag in createEntry().
+	 */
+	private static class EncodedValue extends ByteChunk {
+
+		public EncodedValue(byte[] bytes, int len) {
+			super(bytes, 0, len);
+		}
+	}
+
+	/**
+	 * Per thread codec buffers, so compression and decompression do not produce garbage.
+	 */
+	private static class CodecBuffers {
+
+		private byte[] input = new byte[1024];
+		private byte[] output = new byte[1024];
+
+		public byte[] input(int len) {
+			if (input.length >= len) {
+				return input;
+			}
+			byte[] buf = new byte[len];
+			if (len <= MAX_RETAINED_CODEC_BUFFER) {
+				input = buf;
+			}
+			return buf;
+		}
+
+		public byte[] output(int len) {
+			if (output.length >= len) {
+				return output;
+			}
+			byte[] buf = new byte[len];
+			if (len <= MAX_RETAINED_CODEC_BUFFER) {
+				output = buf;
+			}
+			return buf;
 		}
 	}
 }
@@ -0,0 +1,105 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.nio.ByteBuffer;
+
+import com.tangosol.io.ReadBuffer;
+
+/**
+ * Read only {@link ByteChunk} view over Coherence {@link ReadBuffer} (e.g. {@link com.tangosol.util.Binary}).
+ * Allows passing binary keys and values to {@link BinaryStore} without intermediate copying.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+final class ReadBufferByteChunk extends ByteChunk {
+
+	private final ReadBuffer buffer;
+
+	public ReadBufferByteChunk(ReadBuffer buffer) {
+		super(null, 0, buffer.length());
+		this.buffer = buffer;
+	}
+
+	@Override
+	public byte[] array() {
+		throw new UnsupportedOperationException("Chunk is not backed by array");
+	}
+
+	@Override
+	public byte at(int i) {
+		return buffer.byteAt(i);
+	}
+
+	@Override
+	public void set(int i, byte b) {
+		throw new UnsupportedOperationException("Chunk is read only");
+	}
+
+	@Override
+	void copyTo(int offs, byte[] target, int targetOffs, int len) {
+		buffer.copyBytes(offs, offs + len, target, targetOffs);
+	}
+
+	@Override
+	void copyTo(ByteBuffer target, int targetOffs) {
+		ByteBuffer bb = target.duplicate();
+		bb.position(targetOffs);
+		buffer.writeTo(bb);
+	}
+
+	@Override
+	public ByteChunk subChunk(int offs, int len) {
+		if (offs + len > lenght()) {
+			throw new IllegalArgumentException("Chunk len: " + lenght() + ". Required subrange " + offs + " by " + len);
+		}
+		return new ReadBufferByteChunk(buffer.getReadBuffer(offs, len));
+	}
+
+	@Override
+	public int intAt(int offs) {
+		if (offs + 4 > lenght()) {
+			throw new IllegalArgumentException("Chunk len: " + lenght() + ". Required subrange " + offs + " by " + 4);
+		}
+		int value =   (0xFF & buffer.byteAt(offs)) << 24 
+					| (0xFF & buffer.byteAt(offs + 1)) << 16
+					| (0xFF & buffer.byteAt(offs + 2)) << 8
+					| (0xFF & buffer.byteAt(offs + 3));
+		return value;
+	}
+
+	@Override
+	public long longAt(int offs) {
+		if (offs + 8 > lenght()) {
+			throw new IllegalArgumentException("Out of bounds");
+		}
+		return ((long)intAt(offs)) << 32 | (0xFFFFFFFFl & intAt(offs + 4));
+	}
+
+	@Override
+	public void putInt(int offs, int val) {
+		throw new UnsupportedOperationException("Chunk is read only");
+	}
+
+	@Override
+	public void putLong(int offs, long val) {
+		throw new UnsupportedOperationException("Chunk is read only");
+	}
+
+	@Override
+	public void putBytes(ByteChunk bytes) {
+		throw new UnsupportedOperationException("Chunk is read only");
+	}
+
+	@Override
+	public void putBytes(int offs, ByteChunk bytes) {
+		throw new UnsupportedOperationException("Chunk is read only");
+	}
+
+	@Override
+	public void assertEmpty() {
+		for(int i = 0; i != lenght(); ++i) {
+			if (buffer.byteAt(i) != 0) {
+				throw new AssertionError("Not empty " + this.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of large memory regions (slabs), which are sliced into pages by {@link OffHeapMemoryStoreBackend}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+interface SlabAllocator {
+
+	/**
+	 * Slab is requested once for each number, slabs are never returned.
+	 * Content of returned buffer is not required to be zeroed.
+	 */
+	public ByteBuffer allocate(int slabNo, int size);
+
+	public void close();
+
+}
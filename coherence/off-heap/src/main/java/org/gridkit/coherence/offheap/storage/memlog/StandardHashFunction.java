@@ -0,0 +1,35 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * Built-in hash functions.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public enum StandardHashFunction implements BinaryHashFunction {
+
+	/** Legacy byte-at-a-time CRC variation, for compatibility */
+	CRC {
+		@Override
+		public int hash(ByteChunk bytes) {
+			return BinHash.hash(bytes);
+		}
+	},
+
+	/** MurmurHash3 x86 32 bit */
+	MURMUR3 {
+		@Override
+		public int hash(ByteChunk bytes) {
+			return BinHash.murmur3_hash(bytes, 0);
+		}
+	},
+
+	/** xxHash64 folded to 32 bits, fastest for long keys */
+	XXHASH64 {
+		@Override
+		public int hash(ByteChunk bytes) {
+			return BinHash.xxhash64_hash(bytes, 0);
+		}
+	};
+
+	public abstract int hash(ByteChunk bytes);
+}
@@ -0,0 +1,40 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistic counter for hot paths. Each thread updates its own padded cell,
+ * so concurrent updates do not bounce single cache line.
+ * Reading sums all cells, so it is relatively expensive and not atomic with respect to updates.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class StripedCounter {
+
+	private final static int PADDING = 8; // longs per cache line
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedCounter() {
+		int stripes = ThreadStripes.defaultStripeCount();
+		cells = new AtomicLongArray(stripes * PADDING);
+		mask = stripes - 1;
+	}
+
+	public void add(long delta) {
+		cells.getAndAdd((ThreadStripes.current() & mask) * PADDING, delta);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public long get() {
+		long sum = 0;
+		for(int i = 0; i <= mask; ++i) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+}
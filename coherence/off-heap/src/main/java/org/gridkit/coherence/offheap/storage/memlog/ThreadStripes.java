@@ -0,0 +1,34 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns stripe numbers to threads in round robin fashion.
+ * Striped structures use them to spread concurrent writers across cache lines.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class ThreadStripes {
+
+	private final static AtomicInteger THREAD_COUNTER = new AtomicInteger();
+	private final static ThreadLocal<Integer> THREAD_STRIPE = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return THREAD_COUNTER.getAndIncrement();
+		}
+	};
+
+	/**
+	 * @return stripe number of current thread, should be masked by user
+	 */
+	public static int current() {
+		return THREAD_STRIPE.get();
+	}
+
+	/**
+	 * @return power of 2, not less than number of CPUs
+	 */
+	public static int defaultStripeCount() {
+		return Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1);
+	}
+}
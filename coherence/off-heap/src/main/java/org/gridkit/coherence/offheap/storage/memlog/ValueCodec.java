@@ -0,0 +1,28 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * Value compression used by {@link PagedMemoryBinaryStoreManager2}, see {@link PagedMemoryBinaryStoreManager2#setValueCodec(ValueCodec, int)}.
+ * Implementations should be stateless (or thread safe), codec is called concurrently by readers and writers.
+ * Encoded form is not self describing, entries encoded by one codec could be decoded only by same codec.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface ValueCodec {
+
+	/**
+	 * @return size of target buffer required to encode data of given length
+	 */
+	public int maxEncodedLength(int len);
+
+	/**
+	 * @return length of encoded data or -1 if data is not compressible (encoded form is not shorter than original)
+	 */
+	public int encode(byte[] src, int srcOffs, int len, byte[] dst, int dstOffs);
+
+	/**
+	 * Decodes exactly <code>rawLen</code> bytes.
+	 * @throws IllegalArgumentException if data is corrupted
+	 */
+	public void decode(byte[] src, int srcOffs, int len, byte[] dst, int dstOffs, int rawLen);
+
+}
@@ -0,0 +1,15 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * Consumes value in place, see {@link BinaryStore#get(ByteChunk, ValueReader)}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface ValueReader<V> {
+
+	/**
+	 * @param value view of value, may be backed by store memory and should not be retained after call
+	 */
+	public V read(ByteChunk value);
+
+}
@@ -0,0 +1,143 @@
+package org.gridkit.coherence.offheap.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class DirectPageManagerTest {
+
+	@Test
+	public void test_direct_pages() {
+		verifyPages(new DirectPageManager(4 << 10, 10000));
+	}
+
+	@Test
+	public void test_mapped_pages() throws IOException {
+		File file = File.createTempFile("DirectPageManagerTest", ".dat");
+		file.deleteOnExit();
+		DirectPageManager pm = new DirectPageManager(4 << 10, 10000, file);
+		try {
+			verifyPages(pm);
+		}
+		finally {
+			pm.close();
+			file.delete();
+		}
+	}
+
+	private void verifyPages(DirectPageManager pm) {
+		int a = pm.allocate();
+		int b = pm.allocate();
+		Assert.assertTrue(a != b);
+
+		pm.write(a, 100, "hello".getBytes());
+		Assert.assertEquals("hello", new String(pm.read(a, 100, 5)));
+
+		// buffer is a view of page, no copy
+		ByteBuffer view = pm.getBuffer(a);
+		Assert.assertEquals(pm.getPageSize(), view.capacity());
+		Assert.assertEquals('h', view.get(100));
+		view.put(0, (byte)'x');
+		Assert.assertEquals("x", new String(pm.read(a, 0, 1)));
+		Assert.assertEquals(0, pm.read(b, 0, 1)[0]);
+
+		// released page is reused and zeroed
+		pm.release(a);
+		Assert.assertEquals(a, pm.allocate());
+		Assert.assertTrue(Arrays.equals(new byte[pm.getPageSize()], pm.read(a, 0, pm.getPageSize())));
+
+		try {
+			pm.read(a, pm.getPageSize() - 2, 4);
+			Assert.fail("Read beyond page should fail");
+		}
+		catch(IndexOutOfBoundsException e) {
+			// expected
+		}
+		pm.release(b);
+		try {
+			pm.release(b);
+			Assert.fail("Double release should fail");
+		}
+		catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test_page_limit() {
+		DirectPageManager pm = new DirectPageManager(1 << 20, 20);
+		for(int i = 0; i != 20; ++i) {
+			pm.allocate();
+		}
+		try {
+			pm.allocate();
+			Assert.fail("Page limit should be enforced");
+		}
+		catch(RuntimeException e) {
+			// expected
+		}
+		pm.release(7);
+		Assert.assertEquals(7, pm.allocate());
+		Assert.assertEquals(20, pm.getPagesInUse());
+	}
+
+	@Test
+	public void test_concurrent_allocation() throws InterruptedException {
+		final DirectPageManager pm = new DirectPageManager(1 << 10, 1 << 16);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final Set<Integer> pages = new HashSet<Integer>();
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t != threads.length; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						int[] own = new int[1000];
+						for(int round = 0; round != 10; ++round) {
+							for(int i = 0; i != own.length; ++i) {
+								own[i] = pm.allocate();
+								pm.write(own[i], 0, toBytes(own[i]));
+							}
+							for(int i = 0; i != own.length; ++i) {
+								// page should not be shared with other thread
+								Assert.assertTrue(Arrays.equals(toBytes(own[i]), pm.read(own[i], 0, 4)));
+								if (round != 9) {
+									pm.release(own[i]);
+								}
+							}
+						}
+						synchronized(pages) {
+							for(int p: own) {
+								pages.add(p);
+							}
+						}
+					}
+					catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread t: threads) {
+			t.join();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+		Assert.assertEquals(4000, pages.size());
+		Assert.assertEquals(4000, pm.getPagesInUse());
+	}
+
+	private static byte[] toBytes(int n) {
+		return ByteBuffer.allocate(4).putInt(n).array();
+	}
+}
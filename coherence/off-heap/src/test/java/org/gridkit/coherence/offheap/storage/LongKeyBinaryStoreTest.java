@@ -0,0 +1,135 @@
+package org.gridkit.coherence.offheap.storage;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.griddynamics.gridkit.collections.LongEntryIterator;
+import com.griddynamics.gridkit.collections.LongIterator;
+import com.griddynamics.gridkit.collections.map.LongHashStore;
+import com.griddynamics.gridkit.collections.map.OffHeapLongBinaryStore;
+import com.tangosol.util.Binary;
+import com.tangosol.util.ExternalizableHelper;
+
+public class LongKeyBinaryStoreTest {
+
+	@Test
+	public void test_off_heap_long_store() {
+		// small pages, so dedicated pages and compaction are exercised
+		OffHeapLongBinaryStore store = new OffHeapLongBinaryStore(16, 256);
+		Map<Long, String> reference = new HashMap<Long, String>();
+		Random rnd = new Random(0);
+		for(int i = 0; i != 100000; ++i) {
+			long key = rnd.nextInt(2000) * 0x100000000l;
+			if (rnd.nextInt(4) == 0) {
+				store.erase(key);
+				reference.remove(key);
+			}
+			else {
+				String value = "value" + i + (rnd.nextInt(50) == 0 ? new String(new char[300]) : "");
+				byte[] bytes = ("xx" + value).getBytes();
+				store.store(key, bytes, 2, bytes.length - 2);
+				reference.put(key, value);
+			}
+		}
+		Assert.assertEquals(reference.size(), store.size());
+		for(Map.Entry<Long, String> entry: reference.entrySet()) {
+			Assert.assertEquals(entry.getValue(), new String(store.load(entry.getKey())));
+		}
+		Assert.assertNull(store.load(-1));
+		// garbage is reclaimed
+		Assert.assertTrue(store.getMemoryUsed() < 1 << 20);
+
+		Set<Long> keys = new HashSet<Long>();
+		for(LongIterator it = store.keys(); it.hasNext();) {
+			keys.add(it.next());
+		}
+		Assert.assertEquals(reference.keySet(), keys);
+
+		keys.clear();
+		for(LongEntryIterator it = store.entries(7); it.hasNext();) {
+			long key = it.next();
+			keys.add(key);
+			String value = reference.get(key);
+			Assert.assertEquals(value.substring(0, Math.min(7, value.length())), new String(it.valuePrefix()));
+		}
+		Assert.assertEquals(reference.keySet(), keys);
+
+		store.eraseAll();
+		Assert.assertEquals(0, store.size());
+		Assert.assertFalse(store.keys().hasNext());
+	}
+
+	@Test
+	public void test_long_hash_store() {
+		LongHashStore store = new LongHashStore();
+		for(long i = 0; i != 10000; ++i) {
+			store.store(i, "v" + i);
+		}
+		for(long i = 0; i != 10000; i += 2) {
+			store.erase(i);
+		}
+		Assert.assertEquals(5000, store.size());
+		for(long i = 0; i != 10000; ++i) {
+			Assert.assertEquals(i % 2 == 0 ? null : "v" + i, store.load(i));
+		}
+	}
+
+	@Test
+	public void test_key_format() {
+		LongKeyBinaryStore store = new LongKeyBinaryStore();
+		long[] ids = {0, 1, -1, 63, 64, -64, -65, 1000000, -(1l << 40), Long.MAX_VALUE, Long.MIN_VALUE};
+		for(long id: ids) {
+			Binary key = ExternalizableHelper.toBinary(Long.valueOf(id));
+			Assert.assertEquals(id, store.toLong(key));
+			Assert.assertEquals(key, store.fromLong(id));
+		}
+		Random rnd = new Random(0);
+		for(int i = 0; i != 10000; ++i) {
+			long id = rnd.nextLong() >> rnd.nextInt(64);
+			Binary key = ExternalizableHelper.toBinary(Long.valueOf(id));
+			Assert.assertEquals(id, store.toLong(key));
+			Assert.assertEquals(key, store.fromLong(id));
+		}
+	}
+
+	@Test
+	public void test_binary_adapter() {
+		LongKeyBinaryStore store = new LongKeyBinaryStore();
+		for(long i = 0; i != 1000; ++i) {
+			Binary key = ExternalizableHelper.toBinary(Long.valueOf(i));
+			if (i % 2 == 0) {
+				// partition decorated key
+				key = ExternalizableHelper.decorateBinary(key, (int) (i % 257) - 100);
+			}
+			store.store(key, new Binary(("value" + i).getBytes()));
+		}
+		Assert.assertEquals(1000, store.size());
+		int n = 0;
+		for(Iterator<?> it = store.keys(); it.hasNext();) {
+			Binary key = (Binary) it.next();
+			Binary value = store.load(key);
+			long id = ((Long) ExternalizableHelper.fromBinary(ExternalizableHelper.isIntDecorated(key) ? ExternalizableHelper.removeIntDecoration(key) : key)).longValue();
+			Assert.assertEquals("value" + id, new String(value.toByteArray()));
+			if (id % 2 == 0) {
+				Assert.assertTrue(ExternalizableHelper.isIntDecorated(key));
+				Assert.assertEquals((int) (id % 257) - 100, ExternalizableHelper.getIntDecoration(key));
+			}
+			else {
+				Assert.assertFalse(ExternalizableHelper.isIntDecorated(key));
+			}
+			++n;
+		}
+		Assert.assertEquals(1000, n);
+		store.erase(ExternalizableHelper.toBinary(Long.valueOf(1)));
+		Assert.assertNull(store.load(ExternalizableHelper.toBinary(Long.valueOf(1))));
+		Assert.assertEquals(999, store.size());
+	}
+}
@@ -0,0 +1,52 @@
+package org.gridkit.coherence.offheap.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ObjectStoreSchemeTest {
+
+	@Test
+	public void test_binary_mode_views() {
+		BinaryPackedBytesHashStore store = new BinaryPackedBytesHashStore(16, 8, false);
+		ObjectStoreScheme map = new ObjectStoreScheme(store, true);
+		Map<Object, Object> batch = new HashMap<Object, Object>();
+		for(long i = 0; i != 1000; ++i) {
+			batch.put(i, i * 10);
+		}
+		map.putAll(batch);
+		Assert.assertEquals(1000, map.size());
+		Assert.assertEquals(Long.valueOf(50), map.get(5l));
+		Assert.assertEquals(Long.valueOf(50), map.put(5l, 55l));
+
+		int n = 0;
+		for(Map.Entry<Object, Object> entry: map.entrySet()) {
+			long key = (Long) entry.getKey();
+			Assert.assertEquals(key == 5 ? 55l : key * 10, entry.getValue());
+			++n;
+		}
+		Assert.assertEquals(1000, n);
+
+		Assert.assertTrue(map.keySet().remove(7l));
+		Assert.assertFalse(map.keySet().remove(7l));
+		Assert.assertFalse(map.containsKey(7l));
+		Assert.assertEquals(Long.valueOf(80), map.remove(8l));
+		Assert.assertEquals(998, map.size());
+
+		// removal through entry iterator
+		for(Iterator<Map.Entry<Object, Object>> it = map.entrySet().iterator(); it.hasNext();) {
+			if ((Long) it.next().getKey() % 2 == 0) {
+				it.remove();
+			}
+		}
+		Assert.assertEquals(499, map.size());
+		Assert.assertEquals(499, map.keySet().size());
+		for(Object key: map.keySet()) {
+			Assert.assertTrue((Long) key % 2 == 1);
+		}
+	}
+}
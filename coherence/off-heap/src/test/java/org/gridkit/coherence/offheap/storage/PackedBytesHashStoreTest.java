@@ -0,0 +1,190 @@
+package org.gridkit.coherence.offheap.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.tangosol.util.Binary;
+
+public class PackedBytesHashStoreTest {
+
+	@Test
+	public void test_page_updates() {
+		PackedBytesHashStore.PageData page = PackedBytesHashStore.PageData.EMPTY;
+		Map<String, String> reference = new HashMap<String, String>();
+		Random rnd = new Random(0);
+		for(int i = 0; i != 20000; ++i) {
+			String key = "k" + rnd.nextInt(200);
+			int op = rnd.nextInt(3);
+			int idx = page.lookup(key.getBytes());
+			if (op == 0) {
+				Assert.assertEquals(reference.remove(key) != null, idx >= 0);
+				if (idx >= 0) {
+					page = page.erase(idx);
+				}
+			}
+			else {
+				// values of different size, so replace has to shift tail both ways
+				String value = key + "-" + i + (rnd.nextBoolean() ? "" : "-long-long-long-value");
+				Assert.assertEquals(reference.put(key, value) == null, idx < 0);
+				PackedBytesHashStore.PageData prev = page;
+				int prevSize = prev.size();
+				page = page.put(idx, key.getBytes(), value.getBytes());
+				// published page is never modified
+				Assert.assertEquals(prevSize, prev.size());
+			}
+			if (i % 100 == 0) {
+				verify(page, reference);
+			}
+		}
+		verify(page, reference);
+	}
+
+	private void verify(PackedBytesHashStore.PageData page, Map<String, String> reference) {
+		Assert.assertEquals(reference.size(), page.size());
+		byte[] prev = null;
+		for(int i = 0; i != page.size(); ++i) {
+			byte[] key = page.keyExtract(i);
+			Assert.assertEquals(reference.get(new String(key)), new String(page.valueExtract(i)));
+			if (prev != null) {
+				Assert.assertTrue("Keys should be sorted", page.lookup(prev) < page.lookup(key));
+			}
+			prev = key;
+		}
+	}
+
+	@Test
+	public void test_concurrent_reads() throws InterruptedException {
+		final BinaryPackedBytesHashStore store = new BinaryPackedBytesHashStore(16, 8, false);
+		final int keys = 20000;
+		for(int i = 0; i != keys; i += 2) {
+			store.store(toBinary("key" + i), toBinary("value" + i));
+		}
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread[] readers = new Thread[4];
+		for(int t = 0; t != readers.length; ++t) {
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random rnd = new Random();
+						while(!done.get()) {
+							// even keys are always present, while table grows and odd keys are written
+							int n = 2 * rnd.nextInt(keys / 2);
+							Binary value = (Binary) store.load(toBinary("key" + n));
+							Assert.assertNotNull("key" + n, value);
+							Assert.assertEquals("value" + n, new String(value.toByteArray()));
+						}
+					}
+					catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			readers[t].start();
+		}
+		for(int i = 1; i < keys; i += 2) {
+			store.store(toBinary("key" + i), toBinary("value" + i));
+			if (i % 1000 == 1) {
+				store.growTable(64);
+			}
+		}
+		done.set(true);
+		for(Thread t: readers) {
+			t.join();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+		for(int i = 0; i != keys; ++i) {
+			Assert.assertEquals("value" + i, new String(((Binary) store.load(toBinary("key" + i))).toByteArray()));
+		}
+	}
+
+	@Test
+	public void test_store_operations() {
+		BinaryPackedBytesHashStore store = new BinaryPackedBytesHashStore(1024, 16, false);
+		for(int i = 0; i != 10000; ++i) {
+			store.store(toBinary("key" + i), toBinary("value" + i));
+		}
+		Assert.assertEquals(10000, store.size());
+		for(int i = 0; i != 10000; i += 2) {
+			store.erase(toBinary("key" + i));
+			store.store(toBinary("key" + (i + 1)), toBinary("v" + i));
+		}
+		Assert.assertEquals(5000, store.size());
+		for(int i = 0; i != 10000; i += 2) {
+			Assert.assertNull(store.load(toBinary("key" + i)));
+			Assert.assertTrue(Arrays.equals(("v" + i).getBytes(), store.load(toBinary("key" + (i + 1))).toByteArray()));
+		}
+	}
+
+	@Test
+	public void test_incremental_growth_with_concurrent_writers() throws InterruptedException {
+		final BinaryPackedBytesHashStore store = new BinaryPackedBytesHashStore(16, 8, true);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] writers = new Thread[4];
+		for(int t = 0; t != writers.length; ++t) {
+			final int writer = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for(int i = 0; i != 10000; ++i) {
+							store.store(toBinary("key" + writer + "-" + i), toBinary("value" + i));
+							if (i % 10 == 0) {
+								Assert.assertNotNull(store.load(toBinary("key" + writer + "-" + (i / 2))));
+							}
+						}
+					}
+					catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for(Thread t: writers) {
+			t.join();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+		Assert.assertEquals(40000, store.size());
+		// table follows size, bucket is split on nearly every 8th insert
+		Assert.assertTrue(store.getTableSize() > 40000 / 8 - 100);
+		for(int t = 0; t != writers.length; ++t) {
+			for(int i = 0; i != 10000; ++i) {
+				Assert.assertEquals("value" + i, new String(((Binary) store.load(toBinary("key" + t + "-" + i))).toByteArray()));
+			}
+		}
+	}
+
+	@Test
+	public void test_rehash_daemon() throws InterruptedException {
+		BinaryPackedBytesHashStore store = new BinaryPackedBytesHashStore(16, 8, 256, true);
+		for(int i = 0; i != 10000; ++i) {
+			store.store(toBinary("key" + i), toBinary("value" + i));
+		}
+		long deadline = System.currentTimeMillis() + 10000;
+		while(store.getTableSize() < 10000 / 8 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue("Table should be grown by daemon", store.getTableSize() >= 10000 / 8);
+		for(int i = 0; i != 10000; ++i) {
+			Assert.assertEquals("value" + i, new String(((Binary) store.load(toBinary("key" + i))).toByteArray()));
+		}
+	}
+
+	private static Binary toBinary(String text) {
+		return new Binary(text.getBytes());
+	}
+}
@@ -0,0 +1,83 @@
+package org.gridkit.coherence.offheap.storage;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.griddynamics.gridkit.collections.array.SegmentedDynamicAtomicArray;
+
+public class SegmentedDynamicAtomicArrayTest {
+
+	@Test
+	public void test_resize() {
+		verifyResize(new SegmentedDynamicAtomicArray<Integer>(4));
+		verifyResize(new SegmentedDynamicAtomicArray<Integer>(4, true));
+	}
+
+	private void verifyResize(SegmentedDynamicAtomicArray<Integer> array) {
+		array.setLength(10);
+		for(int i = 0; i != 10; ++i) {
+			array.set(i, i);
+		}
+		Assert.assertTrue(array.compareAndSet(5, 5, 50));
+		Assert.assertFalse(array.compareAndSet(5, 5, 51));
+		Assert.assertEquals(Integer.valueOf(50), array.getAndSet(5, 5));
+
+		array.setLength(3);
+		try {
+			array.get(3);
+			Assert.fail("Index beyond length should fail");
+		}
+		catch(ArrayIndexOutOfBoundsException e) {
+			// expected
+		}
+		// released slots are cleared
+		array.setLength(20);
+		for(int i = 0; i != 20; ++i) {
+			Assert.assertEquals(i < 3 ? Integer.valueOf(i) : null, array.get(i));
+		}
+	}
+
+	@Test
+	public void test_concurrent_growth() throws InterruptedException {
+		final SegmentedDynamicAtomicArray<Integer> array = new SegmentedDynamicAtomicArray<Integer>(16);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread[] readers = new Thread[4];
+		for(int t = 0; t != readers.length; ++t) {
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while(!done.get()) {
+							int len = array.length();
+							for(int i = 0; i < len; ++i) {
+								Integer n = array.get(i);
+								// element may be not set yet, but should never be misplaced
+								Assert.assertTrue(n == null || n.intValue() == i);
+							}
+						}
+					}
+					catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			readers[t].start();
+		}
+		for(int i = 0; i != 100000; ++i) {
+			array.setLength(i + 1);
+			array.set(i, i);
+		}
+		done.set(true);
+		for(Thread t: readers) {
+			t.join();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+	}
+}
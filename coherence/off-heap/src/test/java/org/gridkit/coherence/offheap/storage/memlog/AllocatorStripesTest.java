@@ -0,0 +1,77 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class AllocatorStripesTest {
+
+	@Test
+	public void test_pages_are_released_after_concurrent_put_remove() throws InterruptedException {
+		// stripe count is set explicitly, default depends on number of CPUs
+		final OffHeapMemoryStoreBackend backend = new OffHeapMemoryStoreBackend(64 << 10, 1024, 2, 8, new OffHeapMemoryStoreBackend.DirectSlabAllocator());
+		PagedMemoryBinaryStoreManager2 storeMan = new PagedMemoryBinaryStoreManager2("test_pages_are_released_after_concurrent_put_remove", backend);
+		final BinaryStore store = storeMan.create();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		// each writer allocates from its own stripe, churn makes pages sparse, so they are evacuated
+		Thread[] writers = new Thread[8];
+		for(int t = 0; t != writers.length; ++t) {
+			final int thread = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random rnd = new Random(thread);
+						for(int i = 0; i != 50000; ++i) {
+							int n = rnd.nextInt(2000);
+							if (rnd.nextInt(3) == 0) {
+								store.remove(toByteChunk("key" + thread + ":" + n));
+							}
+							else {
+								store.put(toByteChunk("key" + thread + ":" + n), new ByteChunk(new byte[16 + rnd.nextInt(1000)]));
+							}
+						}
+					}
+					catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for(Thread t: writers) {
+			t.join();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+
+		for(int t = 0; t != writers.length; ++t) {
+			for(int n = 0; n != 2000; ++n) {
+				store.remove(toByteChunk("key" + t + ":" + n));
+			}
+		}
+		Assert.assertEquals(0, store.size());
+		Assert.assertEquals(0, backend.getMemUsage());
+		Assert.assertTrue(backend.getPagesInUse() > 0);
+
+		backend.releaseAllocationPages();
+		// evacuation of remaining pages may still be in progress on maintenance thread
+		long deadline = System.currentTimeMillis() + 10000;
+		while(backend.getPagesInUse() != 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(0, backend.getPagesInUse());
+		Assert.assertEquals(0, backend.getMemUsage());
+
+		storeMan.close();
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+}
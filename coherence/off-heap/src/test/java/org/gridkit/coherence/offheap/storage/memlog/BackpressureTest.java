@@ -0,0 +1,121 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BackpressureTest {
+
+	@Test
+	public void test_allocation_timeout_off_heap() {
+		PagedMemoryBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_allocation_timeout_off_heap", 64 << 10, 1l << 20);
+		verifyAllocationTimeout(storeMan);
+	}
+
+	@Test
+	public void test_allocation_timeout_in_heap() {
+		PagedMemoryBinaryStoreManager2 storeMan = new InHeapBinaryStoreManager2("test_allocation_timeout_in_heap", 64 << 10, 1l << 20);
+		verifyAllocationTimeout(storeMan);
+	}
+
+	private void verifyAllocationTimeout(PagedMemoryBinaryStoreManager2 storeMan) {
+		storeMan.setAllocationTimeout(200, TimeUnit.MILLISECONDS);
+		BinaryStore store = storeMan.create();
+		int n = 0;
+		long failureTime = 0;
+		try {
+			for(; n != 10000; ++n) {
+				long start = System.nanoTime();
+				try {
+					store.put(toByteChunk("key" + n), toByteChunk(value(n)));
+				}
+				catch(MemoryExhaustedException e) {
+					failureTime = System.nanoTime() - start;
+					break;
+				}
+			}
+			Assert.assertTrue("Memory should be exhausted", n < 10000);
+			Assert.assertTrue("Writer should not hang", failureTime < TimeUnit.SECONDS.toNanos(5));
+
+			// failed put should leave store consistent
+			Assert.assertEquals(n, store.size());
+			for(int i = 0; i != n; ++i) {
+				Assert.assertEquals(value(i), toString(store.get(toByteChunk("key" + i))));
+			}
+			Assert.assertNull(store.get(toByteChunk("key" + n)));
+
+			// memory released by removal should be available to writers again
+			for(int i = 0; i != n; ++i) {
+				store.remove(toByteChunk("key" + i));
+			}
+			store.put(toByteChunk("key" + n), toByteChunk(value(n)));
+			Assert.assertEquals(value(n), toString(store.get(toByteChunk("key" + n))));
+		}
+		finally {
+			storeMan.close();
+		}
+	}
+
+	@Test
+	public void test_eviction_policy() {
+		PagedMemoryBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_eviction_policy", 64 << 10, 1l << 20);
+		storeMan.setAllocationTimeout(10, TimeUnit.SECONDS);
+		storeMan.setSynchronousEvacuation(true);
+		final int[] evictions = new int[1];
+		storeMan.setEvictionPolicy(new EvictionPolicy() {
+			@Override
+			public boolean evict(List<BinaryStore> stores, long bytesRequired) {
+				boolean evicted = false;
+				for(BinaryStore store: stores) {
+					List<ByteChunk> keys = new ArrayList<ByteChunk>();
+					Iterator<ByteChunk> it = store.keys();
+					while(it.hasNext() && keys.size() < 64) {
+						keys.add(it.next());
+					}
+					for(ByteChunk key: keys) {
+						store.remove(key);
+						evicted = true;
+					}
+				}
+				if (evicted) {
+					++evictions[0];
+				}
+				return evicted;
+			}
+		});
+		try {
+			BinaryStore store = storeMan.create();
+			// ten times more data than memory limit
+			for(int i = 0; i != 10000; ++i) {
+				store.put(toByteChunk("key" + i), toByteChunk(value(i)));
+				Assert.assertEquals(value(i), toString(store.get(toByteChunk("key" + i))));
+			}
+			Assert.assertTrue(evictions[0] > 0);
+			Assert.assertTrue(store.size() < 10000);
+		}
+		finally {
+			storeMan.close();
+		}
+	}
+
+	private static String value(int n) {
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < 1000) {
+			sb.append("value").append(n).append('-');
+		}
+		return sb.toString();
+	}
+
+	private static String toString(ByteChunk bytes) {
+		return bytes == null ? null : new String(bytes.copy().array());
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+}
@@ -0,0 +1,57 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BinHashTest {
+
+	@Test
+	public void test_murmur3_reference_values() {
+		Assert.assertEquals(0, BinHash.murmur3_hash(chunk(""), 0));
+		Assert.assertEquals(0x248bfa47, BinHash.murmur3_hash(chunk("hello"), 0));
+		Assert.assertEquals(0x2e4ff723, BinHash.murmur3_hash(chunk("The quick brown fox jumps over the lazy dog"), 0));
+	}
+
+	@Test
+	public void test_xxhash64_reference_values() {
+		Assert.assertEquals(0xEF46DB3751D8E999l, BinHash.xxhash64(chunk(""), 0));
+		Assert.assertEquals(0xD24EC4F1A98C6E5Bl, BinHash.xxhash64(chunk("a"), 0));
+		Assert.assertEquals(0x44BC2CF5AD770999l, BinHash.xxhash64(chunk("abc"), 0));
+	}
+
+	@Test
+	public void test_byte_array_and_chunk_murmur3_are_same() {
+		Random rnd = new Random(0);
+		for(int len = 0; len != 100; ++len) {
+			byte[] data = new byte[len];
+			rnd.nextBytes(data);
+			Assert.assertEquals(BinHash.murmur3_hash(data, 0, len, 0), BinHash.murmur3_hash(new ByteChunk(data), 0));
+		}
+	}
+
+	@Test
+	public void test_direct_and_heap_chunks_are_same() {
+		Random rnd = new Random(0);
+		for(int len = 0; len != 100; ++len) {
+			byte[] data = new byte[len];
+			rnd.nextBytes(data);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(len + 3);
+			for(int i = 0; i != len; ++i) {
+				buffer.put(3 + i, data[i]);
+			}
+			ByteChunk heap = new ByteChunk(data);
+			ByteChunk direct = new DirectByteChunk(buffer, 3, len);
+			for(StandardHashFunction hf: StandardHashFunction.values()) {
+				Assert.assertEquals(hf.toString(), hf.hash(heap), hf.hash(direct));
+			}
+		}
+	}
+
+	private static ByteChunk chunk(String text) {
+		return new ByteChunk(text.getBytes());
+	}
+}
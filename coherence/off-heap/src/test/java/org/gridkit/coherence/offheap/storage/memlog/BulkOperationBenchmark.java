@@ -0,0 +1,100 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+/**
+ * Compares throughput of single key operations and batched {@link BinaryStore} operations.
+ * Run as main class, each measurement is preceded by warm up.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class BulkOperationBenchmark {
+
+	private static final int[] BATCH_SIZES = {16, 64, 256, 1024};
+	private static final int KEY_COUNT = 1 << 18;
+	private static final long MEASURE_TIME = 1000; // ms
+
+	public static void main(String[] args) {
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("BulkOperationBenchmark", 1 << 20, 1l << 30);
+		BinaryStore store = storeMan.create();
+
+		ByteChunk[] keys = new ByteChunk[KEY_COUNT];
+		ByteChunk[] values = new ByteChunk[KEY_COUNT];
+		for(int i = 0; i != KEY_COUNT; ++i) {
+			keys[i] = new ByteChunk(("key" + i).getBytes());
+			values[i] = new ByteChunk(("value" + i + "-0123456789abcdef").getBytes());
+		}
+		store.putAll(keys, values);
+
+		System.out.println(String.format("%-8s %6s %12s %12s %8s", "Op", "Batch", "single op/s", "bulk op/s", "gain"));
+		for(int batch: BATCH_SIZES) {
+			ByteChunk[][] keyBatches = split(keys, batch);
+			ByteChunk[][] valueBatches = split(values, batch);
+
+			double single = measure(store, keyBatches, valueBatches, false, false);
+			double bulk = measure(store, keyBatches, valueBatches, false, true);
+			report("get", batch, single, bulk);
+
+			single = measure(store, keyBatches, valueBatches, true, false);
+			bulk = measure(store, keyBatches, valueBatches, true, true);
+			report("put", batch, single, bulk);
+		}
+
+		storeMan.close();
+	}
+
+	private static ByteChunk[][] split(ByteChunk[] data, int batch) {
+		// batches are made of random keys, as cache would receive them
+		ByteChunk[][] batches = new ByteChunk[data.length / batch][batch];
+		for(int i = 0; i != batches.length * batch; ++i) {
+			int n = (int) ((i * 0x9E3779B1l) & (data.length - 1));
+			batches[i % batches.length][i / batches.length] = data[n];
+		}
+		return batches;
+	}
+
+	private static double measure(BinaryStore store, ByteChunk[][] keys, ByteChunk[][] values, boolean put, boolean bulk) {
+		// warm up
+		run(store, keys, values, put, bulk, MEASURE_TIME / 2);
+		return run(store, keys, values, put, bulk, MEASURE_TIME);
+	}
+
+	// returns operations per second
+	private static double run(BinaryStore store, ByteChunk[][] keys, ByteChunk[][] values, boolean put, boolean bulk, long duration) {
+		ByteChunk[] results = new ByteChunk[keys[0].length];
+		long n = 0;
+		long start = System.nanoTime();
+		long deadline = start + duration * 1000000;
+		long now;
+		int b = 0;
+		do {
+			ByteChunk[] kb = keys[b];
+			ByteChunk[] vb = values[b];
+			if (bulk) {
+				if (put) {
+					store.putAll(kb, vb);
+				}
+				else {
+					store.getAll(kb, results);
+				}
+			}
+			else {
+				for(int i = 0; i != kb.length; ++i) {
+					if (put) {
+						store.put(kb[i], vb[i]);
+					}
+					else {
+						results[i] = store.get(kb[i]);
+					}
+				}
+			}
+			n += kb.length;
+			b = (b + 1) % keys.length;
+			now = System.nanoTime();
+		}
+		while(now < deadline);
+		return n * 1000000000d / (now - start);
+	}
+
+	private static void report(String op, int batch, double single, double bulk) {
+		System.out.println(String.format("%-8s %6d %12.0f %12.0f %7.2fx", op, batch, single, bulk, bulk / single));
+	}
+}
@@ -0,0 +1,119 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BulkOperationTest {
+
+	@Test
+	public void test_put_get_remove_all() {
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_put_get_remove_all", 64 << 10, 16l << 20);
+		BinaryStore store = storeMan.create();
+
+		ByteChunk[] keys = new ByteChunk[1000];
+		ByteChunk[] values = new ByteChunk[1000];
+		for(int i = 0; i != keys.length; ++i) {
+			// every key is repeated, last value should win
+			keys[i] = toByteChunk("key" + (i % 500));
+			values[i] = toByteChunk("value" + i);
+		}
+		store.putAll(keys, values);
+		Assert.assertEquals(500, store.size());
+
+		ByteChunk[] lookup = new ByteChunk[600];
+		for(int i = 0; i != lookup.length; ++i) {
+			lookup[i] = toByteChunk("key" + i);
+		}
+		ByteChunk[] results = new ByteChunk[lookup.length];
+		store.getAll(lookup, results);
+		for(int i = 0; i != 500; ++i) {
+			Assert.assertEquals("value" + (i + 500), toString(results[i]));
+		}
+		for(int i = 500; i != 600; ++i) {
+			Assert.assertNull(results[i]);
+		}
+
+		ByteChunk[] remove = new ByteChunk[250];
+		for(int i = 0; i != remove.length; ++i) {
+			remove[i] = toByteChunk("key" + (2 * i));
+		}
+		store.removeAll(remove);
+		Assert.assertEquals(250, store.size());
+		for(int i = 0; i != 500; ++i) {
+			ByteChunk value = store.get(toByteChunk("key" + i));
+			if (i % 2 == 0) {
+				Assert.assertNull(value);
+			}
+			else {
+				Assert.assertEquals("value" + (i + 500), toString(value));
+			}
+		}
+
+		storeMan.close();
+	}
+
+	@Test
+	public void test_concurrent_put_all() throws InterruptedException {
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_concurrent_put_all", 64 << 10, 64l << 20);
+		final BinaryStore store = storeMan.create();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] writers = new Thread[4];
+		for(int t = 0; t != writers.length; ++t) {
+			final int thread = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						// table grows while batches are being applied
+						for(int b = 0; b != 100; ++b) {
+							ByteChunk[] keys = new ByteChunk[256];
+							ByteChunk[] values = new ByteChunk[256];
+							for(int i = 0; i != keys.length; ++i) {
+								keys[i] = toByteChunk("key" + thread + ":" + b + ":" + i);
+								values[i] = toByteChunk("value" + thread + ":" + b + ":" + i);
+							}
+							store.putAll(keys, values);
+						}
+					}
+					catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for(Thread t: writers) {
+			t.join();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+
+		Assert.assertEquals(writers.length * 100 * 256, store.size());
+		for(int t = 0; t != writers.length; ++t) {
+			ByteChunk[] keys = new ByteChunk[100 * 256];
+			for(int i = 0; i != keys.length; ++i) {
+				keys[i] = toByteChunk("key" + t + ":" + (i / 256) + ":" + (i % 256));
+			}
+			ByteChunk[] results = new ByteChunk[keys.length];
+			store.getAll(keys, results);
+			for(int i = 0; i != keys.length; ++i) {
+				Assert.assertEquals("value" + t + ":" + (i / 256) + ":" + (i % 256), toString(results[i]));
+			}
+		}
+
+		storeMan.close();
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+
+	private static String toString(ByteChunk chunk) {
+		return new String(chunk.array(), chunk.offset(), chunk.lenght());
+	}
+}
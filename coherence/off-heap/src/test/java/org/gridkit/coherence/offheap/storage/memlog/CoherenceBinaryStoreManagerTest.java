@@ -0,0 +1,161 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.tangosol.io.BinaryStore;
+import com.tangosol.util.Binary;
+
+public class CoherenceBinaryStoreManagerTest {
+
+	@Test
+	public void test_load_store_erase() {
+
+		CoherenceBinaryStoreManager storeMan = new CoherenceBinaryStoreManager("test_load_store_erase", 64 << 10, 16l << 20);
+		BinaryStore store = storeMan.createBinaryStore();
+
+		for(int i = 0; i != 1000; ++i) {
+			store.store(toBinary("key" + i), toBinary("value" + i));
+		}
+		for(int i = 0; i != 1000; ++i) {
+			Assert.assertEquals(toBinary("value" + i), store.load(toBinary("key" + i)));
+		}
+
+		store.store(toBinary("key0"), toBinary("updated"));
+		Assert.assertEquals(toBinary("updated"), store.load(toBinary("key0")));
+
+		for(int i = 0; i != 1000; i += 2) {
+			store.erase(toBinary("key" + i));
+		}
+		for(int i = 0; i != 1000; ++i) {
+			Binary value = store.load(toBinary("key" + i));
+			if (i % 2 == 0) {
+				Assert.assertNull(value);
+			}
+			else {
+				Assert.assertEquals(toBinary("value" + i), value);
+			}
+		}
+
+		store.eraseAll();
+		Assert.assertNull(store.load(toBinary("key1")));
+		Assert.assertFalse(store.keys().hasNext());
+
+		storeMan.destroyBinaryStore(store);
+	}
+
+	@Test
+	public void test_large_value() {
+
+		CoherenceBinaryStoreManager storeMan = new CoherenceBinaryStoreManager("test_large_value", 64 << 10, 16l << 20);
+		BinaryStore store = storeMan.createBinaryStore();
+
+		byte[] data = new byte[1 << 20];
+		new Random(0).nextBytes(data);
+		store.store(toBinary("key"), new Binary(data));
+		Assert.assertEquals(new Binary(data), store.load(toBinary("key")));
+
+		storeMan.destroyBinaryStore(store);
+	}
+
+	@Test
+	public void test_keys() {
+
+		CoherenceBinaryStoreManager storeMan = new CoherenceBinaryStoreManager("test_keys", 64 << 10, 16l << 20);
+		BinaryStore store = storeMan.createBinaryStore();
+
+		Set<Binary> expected = new HashSet<Binary>();
+		for(int i = 0; i != 1000; ++i) {
+			store.store(toBinary("key" + i), toBinary("value" + i));
+			expected.add(toBinary("key" + i));
+		}
+
+		Set<Binary> keys = new HashSet<Binary>();
+		Iterator<?> it = store.keys();
+		while(it.hasNext()) {
+			Binary key = (Binary) it.next();
+			Assert.assertTrue("Duplicate key", keys.add(key));
+		}
+		Assert.assertEquals(expected, keys);
+
+		storeMan.destroyBinaryStore(store);
+	}
+
+	@Test
+	public void test_shared_pool_is_closed_with_last_store() {
+
+		CoherenceBinaryStoreManager storeMan1 = new CoherenceBinaryStoreManager("test_shared_pool_is_closed_with_last_store", 64 << 10, 16l << 20);
+		CoherenceBinaryStoreManager storeMan2 = new CoherenceBinaryStoreManager("test_shared_pool_is_closed_with_last_store", 64 << 10, 16l << 20);
+		Assert.assertFalse(CoherenceBinaryStoreManager.isShared("test_shared_pool_is_closed_with_last_store"));
+
+		BinaryStore store1 = storeMan1.createBinaryStore();
+		BinaryStore store2 = storeMan2.createBinaryStore();
+		store1.store(toBinary("key"), toBinary("value1"));
+		store2.store(toBinary("key"), toBinary("value2"));
+		Assert.assertEquals(toBinary("value1"), store1.load(toBinary("key")));
+		Assert.assertEquals(toBinary("value2"), store2.load(toBinary("key")));
+
+		storeMan1.destroyBinaryStore(store1);
+		Assert.assertTrue(CoherenceBinaryStoreManager.isShared("test_shared_pool_is_closed_with_last_store"));
+		storeMan2.destroyBinaryStore(store2);
+		Assert.assertFalse(CoherenceBinaryStoreManager.isShared("test_shared_pool_is_closed_with_last_store"));
+
+		// cache restart
+		BinaryStore store3 = storeMan1.createBinaryStore();
+		Assert.assertNull(store3.load(toBinary("key")));
+		store3.store(toBinary("key"), toBinary("value3"));
+		Assert.assertEquals(toBinary("value3"), store3.load(toBinary("key")));
+		storeMan1.destroyBinaryStore(store3);
+		Assert.assertFalse(CoherenceBinaryStoreManager.isShared("test_shared_pool_is_closed_with_last_store"));
+	}
+
+	@Test
+	public void test_read_buffer_chunk() {
+
+		byte[] data = new byte[16];
+		for(int i = 0; i != data.length; ++i) {
+			data[i] = (byte) (i + 1);
+		}
+		ByteChunk plain = new ByteChunk(data);
+		ByteChunk chunk = new ReadBufferByteChunk(new Binary(data));
+
+		Assert.assertEquals(16, chunk.lenght());
+		for(int i = 0; i != data.length; ++i) {
+			Assert.assertEquals(plain.at(i), chunk.at(i));
+		}
+		Assert.assertEquals(plain.intAt(3), chunk.intAt(3));
+		Assert.assertEquals(plain.longAt(5), chunk.longAt(5));
+		Assert.assertEquals(plain.subChunk(4, 8).intAt(4), chunk.subChunk(4, 8).intAt(4));
+
+		byte[] copy = new byte[8];
+		chunk.copyTo(2, copy, 0, 8);
+		for(int i = 0; i != copy.length; ++i) {
+			Assert.assertEquals(data[i + 2], copy[i]);
+		}
+
+		try {
+			chunk.intAt(14);
+			Assert.fail("Exception expected");
+		}
+		catch(IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			chunk.putInt(0, 0);
+			Assert.fail("Exception expected");
+		}
+		catch(UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	private static Binary toBinary(String text) {
+		return new Binary(text.getBytes());
+	}
+}
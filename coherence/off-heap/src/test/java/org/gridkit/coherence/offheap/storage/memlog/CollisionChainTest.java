@@ -0,0 +1,76 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class CollisionChainTest {
+
+	// only few distinct hashes, so every bucket holds long collision list
+	private static final BinaryHashFunction POOR_HASH = new BinaryHashFunction() {
+		@Override
+		public int hash(ByteChunk bytes) {
+			return StandardHashFunction.MURMUR3.hash(bytes) & 0x7;
+		}
+	};
+
+	@Test
+	public void test_long_chains() {
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_long_chains", 64 << 10, 16l << 20, POOR_HASH);
+		BinaryStore store = storeMan.create();
+		Map<String, String> reference = new HashMap<String, String>();
+
+		Random rnd = new Random(0);
+		for(int i = 0; i != 50000; ++i) {
+			String key = "key" + rnd.nextInt(500);
+			int op = rnd.nextInt(3);
+			if (op == 0) {
+				store.remove(toByteChunk(key));
+				reference.remove(key);
+			}
+			else {
+				String value = "value" + i;
+				store.put(toByteChunk(key), toByteChunk(value));
+				reference.put(key, value);
+			}
+			if (i % 1000 == 0) {
+				verify(store, reference);
+			}
+		}
+		verify(store, reference);
+
+		for(String key: reference.keySet()) {
+			store.remove(toByteChunk(key));
+		}
+		Assert.assertEquals(0, store.size());
+		Assert.assertNull(store.get(toByteChunk("key0")));
+
+		storeMan.close();
+	}
+
+	private static void verify(BinaryStore store, Map<String, String> reference) {
+		Assert.assertEquals(reference.size(), store.size());
+		for(int i = 0; i != 500; ++i) {
+			String key = "key" + i;
+			ByteChunk value = store.get(toByteChunk(key));
+			if (reference.containsKey(key)) {
+				Assert.assertEquals(reference.get(key), toString(value));
+			}
+			else {
+				Assert.assertNull(value);
+			}
+		}
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+
+	private static String toString(ByteChunk chunk) {
+		return new String(chunk.array(), chunk.offset(), chunk.lenght());
+	}
+}
@@ -0,0 +1,109 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class CompactionSchedulerTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void test_relocation_is_paced() {
+		FakeClockScheduler scheduler = new FakeClockScheduler(1 << 20);
+
+		// evacuator relocates 64KiB per cycle and honors returned pause
+		long relocated = 0;
+		while(scheduler.now < TimeUnit.SECONDS.toNanos(10)) {
+			scheduler.now += MS;
+			long park = scheduler.relocated(64 << 10, 0f);
+			Assert.assertTrue(park <= 100 * MS);
+			relocated += 64 << 10;
+			scheduler.now += park;
+		}
+		// 1MiB per second
+		Assert.assertTrue("Relocated " + relocated, relocated > 9.5 * (1 << 20));
+		Assert.assertTrue("Relocated " + relocated, relocated < 10.5 * (1 << 20));
+	}
+
+	@Test
+	public void test_burst_after_idle_is_limited() {
+		FakeClockScheduler scheduler = new FakeClockScheduler(1 << 20);
+		scheduler.now += TimeUnit.SECONDS.toNanos(60);
+		// 100ms worth of budget is available after idle period
+		Assert.assertEquals(0, scheduler.relocated(100 << 10, 0f));
+		long park = scheduler.relocated(100 << 10, 0f);
+		Assert.assertTrue("Park " + park, park > 90 * MS);
+	}
+
+	@Test
+	public void test_pressure_speeds_up_relocation() {
+		FakeClockScheduler scheduler = new FakeClockScheduler(1 << 20);
+		scheduler.now += MS;
+		long relaxed = scheduler.relocated(64 << 10, 0f);
+		scheduler.now += relaxed;
+		scheduler.now += MS;
+		long pressed = scheduler.relocated(64 << 10, 0.5f);
+		Assert.assertTrue(relaxed > 0);
+		Assert.assertTrue("Relaxed " + relaxed + " pressed " + pressed, pressed < relaxed / 4);
+		// allocators are starving, no throttling
+		Assert.assertEquals(0, scheduler.relocated(1 << 30, 1f));
+
+		scheduler.setRelocationRate(0);
+		Assert.assertEquals(0, scheduler.relocated(1 << 30, 0f));
+	}
+
+	@Test
+	public void test_idle_park_backs_off() {
+		FakeClockScheduler scheduler = new FakeClockScheduler(1 << 20);
+		Assert.assertEquals(1 * MS, scheduler.idle());
+		Assert.assertEquals(2 * MS, scheduler.idle());
+		Assert.assertEquals(4 * MS, scheduler.idle());
+		for(int i = 0; i != 20; ++i) {
+			scheduler.idle();
+		}
+		Assert.assertEquals(300 * MS, scheduler.idle());
+		scheduler.relocated(0, 0f);
+		Assert.assertEquals(1 * MS, scheduler.idle());
+	}
+
+	@Test
+	public void test_pages_are_evacuated_in_utilisation_order() {
+		OffHeapMemoryStoreBackend.UsageHistogram histogram = new OffHeapMemoryStoreBackend.UsageHistogram(1 << 10, 16);
+		histogram.update(3, 900);
+		histogram.update(7, 100);
+		histogram.update(1, 500);
+		histogram.update(12, 300);
+
+		Assert.assertEquals(7, histogram.lowest(-1));
+		// page being evacuated is skipped
+		Assert.assertEquals(12, histogram.lowest(7));
+
+		histogram.remove(7);
+		Assert.assertEquals(12, histogram.lowest(-1));
+		// usage has dropped
+		histogram.update(3, 10);
+		Assert.assertEquals(3, histogram.lowest(-1));
+		histogram.remove(3);
+		histogram.remove(12);
+		Assert.assertEquals(1, histogram.lowest(-1));
+		histogram.remove(1);
+		Assert.assertEquals(-1, histogram.lowest(-1));
+	}
+
+	private static class FakeClockScheduler extends CompactionScheduler {
+
+		long now;
+
+		public FakeClockScheduler(long relocationRate) {
+			super(relocationRate);
+		}
+
+		@Override
+		long nanoTime() {
+			return now;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Compares memory used by store and put/get latency with and without value compression.
+ * Data set mimics <code>sample.DomainObject</code> from cache capacity benchmark
+ * (same fields and attribute generator), values are Java serialized.
+ * Run as main class, each measurement is preceded by warm up.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class CompressionBenchmark {
+
+	private static final int OBJECT_COUNT = 1 << 18;
+	private static final int THRESHOLD = 64;
+	private static final long MEASURE_TIME = 2000; // ms
+
+	public static void main(String[] args) throws IOException {
+		ByteChunk[] keys = new ByteChunk[OBJECT_COUNT];
+		ByteChunk[] values = new ByteChunk[OBJECT_COUNT];
+		long rawBytes = 0;
+		for(int i = 0; i != OBJECT_COUNT; ++i) {
+			keys[i] = new ByteChunk(serialize(Long.valueOf(i)));
+			values[i] = new ByteChunk(serialize(generate(i)));
+			rawBytes += values[i].lenght();
+		}
+		System.out.println(String.format("%d objects, average value size %d bytes", OBJECT_COUNT, rawBytes / OBJECT_COUNT));
+
+		System.out.println(String.format("%-8s %12s %10s %10s", "Codec", "memory used", "put ns/op", "get ns/op"));
+		run("none", null, keys, values);
+		run("lz", new LzValueCodec(), keys, values);
+	}
+
+	private static void run(String name, ValueCodec codec, ByteChunk[] keys, ByteChunk[] values) {
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("CompressionBenchmark-" + name, 1 << 20, 1l << 30);
+		storeMan.setValueCodec(codec, THRESHOLD);
+		BinaryStore store = storeMan.create();
+		for(int i = 0; i != keys.length; ++i) {
+			store.put(keys[i], values[i]);
+		}
+		long memUsed = storeMan.getMemoryUsed();
+
+		// warm up
+		measure(store, keys, values, true, MEASURE_TIME / 2);
+		double put = measure(store, keys, values, true, MEASURE_TIME);
+		measure(store, keys, values, false, MEASURE_TIME / 2);
+		double get = measure(store, keys, values, false, MEASURE_TIME);
+
+		System.out.println(String.format("%-8s %10dKiB %10.0f %10.0f", name, memUsed >> 10, put, get));
+		storeMan.close();
+	}
+
+	// returns average operation time in nanoseconds
+	private static double measure(BinaryStore store, ByteChunk[] keys, ByteChunk[] values, boolean put, long duration) {
+		long n = 0;
+		long start = System.nanoTime();
+		long deadline = start + duration * 1000000;
+		long now;
+		int hash = 0;
+		do {
+			for(int j = 0; j != 1024; ++j) {
+				// random key order, as cache would receive them
+				int k = (int) ((n * 0x9E3779B1l) & (keys.length - 1));
+				if (put) {
+					store.put(keys[k], values[k]);
+				}
+				else {
+					hash += store.get(keys[k]).lenght();
+				}
+				++n;
+			}
+			now = System.nanoTime();
+		}
+		while(now < deadline);
+		if (hash == 42) {
+			// prevents dead code elimination
+			System.out.print("");
+		}
+		return ((double)(now - start)) / n;
+	}
+
+	private static byte[] serialize(Object obj) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(obj);
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	// same as sample.SimpleDomainObjGenerator
+	private static DomainObject generate(long i) {
+		Random rnd = new Random(i);
+		DomainObject obj = new DomainObject();
+		obj.id = i;
+		obj.a0 = makeAttr(0, i, rnd);
+		obj.a1 = makeAttr(1, i, rnd);
+		obj.a2 = makeAttr(2, i, rnd);
+		obj.a3 = makeAttr(3, i, rnd);
+		return obj;
+	}
+
+	private static DomainObjAttrib makeAttr(int attrId, long i, Random rnd) {
+		switch(attrId) {
+		case 0: rnd.setSeed(i & 0xFFFFFFFF0l); break;
+		case 1: rnd.setSeed(i & 0xFFFFFFF0Fl); break;
+		case 2: rnd.setSeed(i & 0xFFFFFF0FFl); break;
+		case 3: rnd.setSeed(i & 0xFFFFF0FFFl); break;
+		}
+
+		DomainObjAttrib attrib = new DomainObjAttrib();
+		attrib.c0 = (char) ('0' + attrId);
+		attrib.c1 = (char) ('A' + rnd.nextInt(23));
+		attrib.c2 = (char) ('A' + rnd.nextInt(23));
+		attrib.c3 = (char) ('A' + rnd.nextInt(23));
+		attrib.c4 = (char) ('A' + rnd.nextInt(23));
+		attrib.c5 = (char) ('A' + rnd.nextInt(23));
+		attrib.c6 = (char) ('A' + rnd.nextInt(23));
+		attrib.c7 = (char) ('A' + rnd.nextInt(23));
+		return attrib;
+	}
+
+	@SuppressWarnings("serial")
+	static class DomainObject implements Serializable {
+
+		long id;
+		DomainObjAttrib a0;
+		DomainObjAttrib a1;
+		DomainObjAttrib a2;
+		DomainObjAttrib a3;
+	}
+
+	@SuppressWarnings("serial")
+	static class DomainObjAttrib implements Serializable {
+
+		char c0, c1, c2, c3, c4, c5, c6, c7;
+	}
+}
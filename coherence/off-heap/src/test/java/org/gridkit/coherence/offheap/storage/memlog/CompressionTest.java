@@ -0,0 +1,194 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class CompressionTest {
+
+	@Test
+	public void test_codec_round_trip() {
+		LzValueCodec codec = new LzValueCodec();
+		Random rnd = new Random(0);
+		for(int len: new int[]{0, 1, 5, 12, 13, 17, 100, 1000, 5000, 70000, 300000}) {
+			// random, repetitive, single byte runs and text like data
+			verifyRoundTrip(codec, randomBytes(rnd, len, 256));
+			verifyRoundTrip(codec, randomBytes(rnd, len, 2));
+			verifyRoundTrip(codec, new byte[len]);
+			verifyRoundTrip(codec, text(len).getBytes());
+		}
+		byte[] text = text(1000).getBytes();
+		byte[] buf = new byte[codec.maxEncodedLength(text.length)];
+		Assert.assertTrue(codec.encode(text, 0, text.length, buf, 0) < text.length / 2);
+		byte[] noise = randomBytes(rnd, 1000, 256);
+		Assert.assertEquals(-1, codec.encode(noise, 0, noise.length, buf, 0));
+	}
+
+	private void verifyRoundTrip(ValueCodec codec, byte[] data) {
+		// non zero offsets
+		byte[] src = new byte[data.length + 3];
+		System.arraycopy(data, 0, src, 3, data.length);
+		byte[] buf = new byte[codec.maxEncodedLength(data.length) + 7];
+		int len = codec.encode(src, 3, data.length, buf, 7);
+		if (len >= 0) {
+			Assert.assertTrue(len < data.length);
+			byte[] result = new byte[data.length + 2];
+			codec.decode(buf, 7, len, result, 2, data.length);
+			Assert.assertTrue(Arrays.equals(data, Arrays.copyOfRange(result, 2, result.length)));
+		}
+	}
+
+	@Test
+	public void test_compressed_store_off_heap() throws IOException {
+		verifyCompressedStore(new OffHeapBinaryStoreManager2("test_compressed_store_off_heap", 64 << 10, 32l << 20));
+	}
+
+	@Test
+	public void test_compressed_store_in_heap() throws IOException {
+		verifyCompressedStore(new InHeapBinaryStoreManager2("test_compressed_store_in_heap", 64 << 10, 32l << 20));
+	}
+
+	@Test
+	public void test_value_overlapping_flags_is_rejected() {
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_value_overlapping_flags_is_rejected", 64 << 10, 32l << 20);
+		try {
+			BinaryStore store = storeMan.create();
+			// length is never read beyond the check, so no need to allocate 1GiB
+			ByteChunk huge = new ByteChunk(new byte[16], 0, 1 << 30);
+			try {
+				store.put(new ByteChunk("key".getBytes()), huge);
+				Assert.fail("Exception expected");
+			}
+			catch(IllegalArgumentException e) {
+				// expected
+			}
+			try {
+				store.putAll(new ByteChunk[]{new ByteChunk("key".getBytes())}, new ByteChunk[]{huge});
+				Assert.fail("Exception expected");
+			}
+			catch(IllegalArgumentException e) {
+				// expected
+			}
+			Assert.assertEquals(0, store.size());
+		}
+		finally {
+			storeMan.close();
+		}
+	}
+
+	private void verifyCompressedStore(PagedMemoryBinaryStoreManager2 storeMan) throws IOException {
+		try {
+			BinaryStore plain = storeMan.create();
+			fill(plain, 0, 1000);
+			long plainSize = storeMan.getMemoryUsed();
+
+			storeMan.setValueCodec(new LzValueCodec(), 64);
+			BinaryStore store = storeMan.create();
+			fill(store, 0, 1000);
+			long compressedSize = storeMan.getMemoryUsed() - plainSize;
+			Assert.assertTrue("Compressed " + compressedSize + " plain " + plainSize, compressedSize < plainSize / 2);
+
+			// short and incompressible values are stored as is
+			Random rnd = new Random(0);
+			byte[] noise = randomBytes(rnd, 1000, 256);
+			store.put(toByteChunk("short"), toByteChunk("value"));
+			store.put(toByteChunk("noise"), new ByteChunk(noise));
+			Assert.assertEquals("value", toString(store.get(toByteChunk("short"))));
+			Assert.assertTrue(Arrays.equals(noise, store.get(toByteChunk("noise")).copy().array()));
+
+			// batch operations
+			ByteChunk[] keys = new ByteChunk[100];
+			ByteChunk[] values = new ByteChunk[100];
+			for(int i = 0; i != keys.length; ++i) {
+				keys[i] = toByteChunk("batch" + i);
+				values[i] = toByteChunk(text(500 + i));
+			}
+			store.putAll(keys, values);
+			Assert.assertEquals(text(500), toString(values[0]));
+			ByteChunk[] results = new ByteChunk[keys.length];
+			store.getAll(keys, results);
+			for(int i = 0; i != keys.length; ++i) {
+				Assert.assertEquals(text(500 + i), toString(results[i]));
+			}
+
+			// overwrite compressed value with short one and back
+			store.put(toByteChunk("key1"), toByteChunk("x"));
+			Assert.assertEquals("x", toString(store.get(toByteChunk("key1"))));
+			store.put(toByteChunk("key1"), toByteChunk(value(1)));
+			verify(store, 0, 1000);
+
+			// existing entries are readable after compression is disabled
+			storeMan.setValueCodec(null, 0);
+			verify(store, 0, 1000);
+			fill(store, 1000, 1100);
+			verify(store, 0, 1100);
+
+			// compressed entries survive snapshot
+			storeMan.setValueCodec(new LzValueCodec(), 64);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			storeMan.snapshot(bos);
+			PagedMemoryBinaryStoreManager2 restoreMan = new OffHeapBinaryStoreManager2("test_compressed_store_restore", 64 << 10, 32l << 20);
+			try {
+				restoreMan.setValueCodec(new LzValueCodec(), 64);
+				List<BinaryStore> stores = restoreMan.restore(new ByteArrayInputStream(bos.toByteArray()));
+				verify(stores.get(0), 0, 1000);
+				verify(stores.get(1), 0, 1100);
+			}
+			finally {
+				restoreMan.close();
+			}
+		}
+		finally {
+			storeMan.close();
+		}
+	}
+
+	private static void fill(BinaryStore store, int from, int to) {
+		for(int i = from; i != to; ++i) {
+			store.put(toByteChunk("key" + i), toByteChunk(value(i)));
+		}
+	}
+
+	private static void verify(BinaryStore store, int from, int to) {
+		for(int i = from; i != to; ++i) {
+			Assert.assertEquals(value(i), toString(store.get(toByteChunk("key" + i))));
+		}
+	}
+
+	private static String value(int n) {
+		return text(1000 + n % 100) + n;
+	}
+
+	private static String text(int len) {
+		StringBuilder sb = new StringBuilder();
+		int n = 0;
+		while(sb.length() < len) {
+			sb.append("item").append(n++ % 37).append(' ');
+		}
+		sb.setLength(len);
+		return sb.toString();
+	}
+
+	private static byte[] randomBytes(Random rnd, int len, int range) {
+		byte[] data = new byte[len];
+		for(int i = 0; i != len; ++i) {
+			data[i] = (byte) rnd.nextInt(range);
+		}
+		return data;
+	}
+
+	private static String toString(ByteChunk bytes) {
+		return bytes == null ? null : new String(bytes.copy().array());
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+}
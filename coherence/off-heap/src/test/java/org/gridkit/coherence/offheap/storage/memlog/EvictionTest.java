@@ -0,0 +1,80 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class EvictionTest {
+
+	@Test
+	public void test_lru_off_heap() {
+		PagedMemoryBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_lru_off_heap", 64 << 10, 1l << 20);
+		verifyEviction(storeMan, EvictionMode.LRU);
+	}
+
+	@Test
+	public void test_lfu_off_heap() {
+		PagedMemoryBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_lfu_off_heap", 64 << 10, 1l << 20);
+		verifyEviction(storeMan, EvictionMode.LFU);
+	}
+
+	@Test
+	public void test_lru_in_heap() {
+		PagedMemoryBinaryStoreManager2 storeMan = new InHeapBinaryStoreManager2("test_lru_in_heap", 64 << 10, 1l << 20);
+		verifyEviction(storeMan, EvictionMode.LRU);
+	}
+
+	private void verifyEviction(PagedMemoryBinaryStoreManager2 storeMan, EvictionMode mode) {
+		storeMan.setEvictionMode(mode, 0.7f);
+		// test should fail rather than hang
+		storeMan.setAllocationTimeout(30, TimeUnit.SECONDS);
+		try {
+			BinaryStore store = storeMan.create();
+			int hotKeys = 32;
+			for(int i = 0; i != hotKeys; ++i) {
+				store.put(toByteChunk("hot" + i), toByteChunk(value("hot" + i)));
+			}
+			// ten times more data than memory limit
+			for(int i = 0; i != 10000; ++i) {
+				store.put(toByteChunk("key" + i), toByteChunk(value("key" + i)));
+				if (i % 8 == 0) {
+					for(int j = 0; j != hotKeys; ++j) {
+						Assert.assertEquals(value("hot" + j), toString(store.get(toByteChunk("hot" + j))));
+					}
+				}
+			}
+			Assert.assertEquals(value("key9999"), toString(store.get(toByteChunk("key9999"))));
+			Assert.assertTrue(store.size() < 10000);
+			Assert.assertTrue(storeMan.getEvictedEntries() > 0);
+			Assert.assertTrue(storeMan.getEvictedBytes() > 0);
+			Assert.assertTrue(storeMan.getMemoryUsed() <= storeMan.getMemoryLimit());
+
+			PagedBinaryStoreMBean mbean = (PagedBinaryStoreMBean) store;
+			Assert.assertTrue(mbean.getHitCount() > 0);
+			Assert.assertTrue(mbean.getHitRatio() > 0.9);
+			store.get(toByteChunk("no such key"));
+			Assert.assertEquals(1, mbean.getMissCount());
+		}
+		finally {
+			storeMan.close();
+		}
+	}
+
+	private static String value(String key) {
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < 1000) {
+			sb.append(key).append('-');
+		}
+		return sb.toString();
+	}
+
+	private static String toString(ByteChunk bytes) {
+		return bytes == null ? null : new String(bytes.copy().array());
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+}
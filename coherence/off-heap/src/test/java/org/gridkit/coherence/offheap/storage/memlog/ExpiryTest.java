@@ -0,0 +1,127 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ExpiryTest {
+
+	@Test
+	public void test_lazy_expiry() throws InterruptedException {
+		PagedMemoryBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_lazy_expiry", 64 << 10, 16l << 20);
+		try {
+			BinaryStore store = storeMan.create();
+			store.put(toByteChunk("permanent"), toByteChunk("value"));
+			store.put(toByteChunk("short"), toByteChunk("value"), 100);
+			store.put(toByteChunk("long"), toByteChunk("value"), TimeUnit.HOURS.toMillis(1));
+
+			Assert.assertEquals("value", toString(store.get(toByteChunk("short"))));
+			Assert.assertEquals("value", toString(store.get(toByteChunk("long"))));
+
+			Thread.sleep(200);
+
+			Assert.assertNull(store.get(toByteChunk("short")));
+			Assert.assertEquals("value", toString(store.get(toByteChunk("long"))));
+			Assert.assertEquals("value", toString(store.get(toByteChunk("permanent"))));
+
+			ByteChunk[] results = new ByteChunk[3];
+			store.getAll(new ByteChunk[]{toByteChunk("short"), toByteChunk("long"), toByteChunk("permanent")}, results);
+			Assert.assertNull(results[0]);
+			Assert.assertNotNull(results[1]);
+			Assert.assertNotNull(results[2]);
+
+			int n = 0;
+			Iterator<ByteChunk> it = store.keys();
+			while(it.hasNext()) {
+				Assert.assertFalse("short".equals(toString(it.next())));
+				++n;
+			}
+			Assert.assertEquals(2, n);
+
+			// expired entry is replaced by plain put
+			store.put(toByteChunk("short"), toByteChunk("value2"));
+			Assert.assertEquals("value2", toString(store.get(toByteChunk("short"))));
+			Assert.assertEquals(3, store.size());
+
+			// and entry without expiry could be given one
+			store.put(toByteChunk("permanent"), toByteChunk("value3"), 1);
+			Thread.sleep(20);
+			Assert.assertNull(store.get(toByteChunk("permanent")));
+		}
+		finally {
+			storeMan.close();
+		}
+	}
+
+	@Test
+	public void test_expired_entries_are_compacted() {
+		PagedMemoryBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_expired_entries_are_compacted", 64 << 10, 1l << 20);
+		// test should fail rather than hang
+		storeMan.setAllocationTimeout(30, TimeUnit.SECONDS);
+		try {
+			BinaryStore store = storeMan.create();
+			for(int i = 0; i != 32; ++i) {
+				store.put(toByteChunk("permanent" + i), toByteChunk(value("permanent" + i)));
+			}
+			// ten times more data than memory limit
+			for(int i = 0; i != 10000; ++i) {
+				store.put(toByteChunk("key" + i), toByteChunk(value("key" + i)), 20);
+			}
+			Assert.assertTrue(storeMan.getExpiredEntries() > 0);
+			for(int i = 0; i != 32; ++i) {
+				Assert.assertEquals(value("permanent" + i), toString(store.get(toByteChunk("permanent" + i))));
+			}
+		}
+		finally {
+			storeMan.close();
+		}
+	}
+
+	@Test
+	public void test_expired_large_value_is_released() throws InterruptedException {
+		PagedMemoryBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_expired_large_value_is_released", 64 << 10, 16l << 20);
+		storeMan.setExpirySweepPeriod(50, TimeUnit.MILLISECONDS);
+		try {
+			BinaryStore store = storeMan.create();
+			store.put(toByteChunk("permanent"), toByteChunk("value"));
+			long baseline = storeMan.getMemoryUsed();
+			// larger than quarter of page, so value is kept in dedicated buffer and never evacuated
+			store.put(toByteChunk("large"), new ByteChunk(new byte[256 << 10]), 50);
+			store.put(toByteChunk("small"), toByteChunk("value"), 50);
+			Assert.assertTrue(storeMan.getMemoryUsed() > baseline + (256 << 10));
+			Assert.assertEquals(3, store.size());
+
+			// entries are never read or overwritten, so only sweep can reclaim them
+			long deadline = System.currentTimeMillis() + 10000;
+			while(store.size() > 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			Assert.assertEquals(1, store.size());
+			Assert.assertEquals(2, storeMan.getExpiredEntries());
+			Assert.assertTrue(storeMan.getMemoryUsed() < baseline + (256 << 10));
+			Assert.assertEquals("value", toString(store.get(toByteChunk("permanent"))));
+		}
+		finally {
+			storeMan.close();
+		}
+	}
+
+	private static String value(String key) {
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < 1000) {
+			sb.append(key).append('-');
+		}
+		return sb.toString();
+	}
+
+	private static String toString(ByteChunk bytes) {
+		return bytes == null ? null : new String(bytes.copy().array());
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+}
@@ -0,0 +1,110 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares throughput of {@link StandardHashFunction}s for heap and direct chunks across key sizes.
+ * Run as main class. Each case is warmed up, then measured in several rounds,
+ * mean, standard deviation and best round are reported.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class HashFunctionBenchmark {
+
+	private static final int[] KEY_SIZES = {8, 16, 32, 64, 128, 512};
+	private static final int KEY_COUNT = 1024;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURE_ROUNDS = 10;
+	private static final long ROUND_TIME = 200; // ms
+
+	// sink to prevent dead code elimination, result of each round is consumed
+	static volatile int blackhole;
+
+	public static void main(String[] args) {
+		// run all cases once, so hash call sites see every implementation before measurement
+		for(int keySize: KEY_SIZES) {
+			for(StandardHashFunction hf: StandardHashFunction.values()) {
+				run(hf, generate(keySize, false), ROUND_TIME);
+				run(hf, generate(keySize, true), ROUND_TIME);
+			}
+		}
+		System.out.println(String.format("%-10s %-8s %6s %10s %8s %10s %10s", "Hash", "Memory", "Key", "ns/hash", "+-", "best", "MiB/s"));
+		for(int keySize: KEY_SIZES) {
+			ByteChunk[] heapKeys = generate(keySize, false);
+			ByteChunk[] directKeys = generate(keySize, true);
+			for(StandardHashFunction hf: StandardHashFunction.values()) {
+				report(hf, "heap", keySize, measure(hf, heapKeys));
+				report(hf, "direct", keySize, measure(hf, directKeys));
+			}
+		}
+	}
+
+	private static ByteChunk[] generate(int keySize, boolean direct) {
+		Random rnd = new Random(keySize);
+		ByteChunk[] keys = new ByteChunk[KEY_COUNT];
+		ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(keySize * KEY_COUNT) : null;
+		for(int i = 0; i != KEY_COUNT; ++i) {
+			byte[] key = new byte[keySize];
+			rnd.nextBytes(key);
+			if (direct) {
+				for(int j = 0; j != keySize; ++j) {
+					buffer.put(i * keySize + j, key[j]);
+				}
+				keys[i] = new DirectByteChunk(buffer, i * keySize, keySize);
+			}
+			else {
+				keys[i] = new ByteChunk(key);
+			}
+		}
+		return keys;
+	}
+
+	// returns ns per hash for each measured round
+	private static double[] measure(BinaryHashFunction hf, ByteChunk[] keys) {
+		for(int i = 0; i != WARMUP_ROUNDS; ++i) {
+			run(hf, keys, ROUND_TIME);
+		}
+		double[] rounds = new double[MEASURE_ROUNDS];
+		for(int i = 0; i != MEASURE_ROUNDS; ++i) {
+			rounds[i] = run(hf, keys, ROUND_TIME);
+		}
+		return rounds;
+	}
+
+	// returns ns per hash
+	private static double run(BinaryHashFunction hf, ByteChunk[] keys, long duration) {
+		long n = 0;
+		int h = 0;
+		long start = System.nanoTime();
+		long deadline = start + duration * 1000000;
+		long now;
+		do {
+			for(ByteChunk key: keys) {
+				h += hf.hash(key);
+			}
+			n += keys.length;
+			now = System.nanoTime();
+		}
+		while(now < deadline);
+		blackhole += h;
+		return ((double)(now - start)) / n;
+	}
+
+	private static void report(StandardHashFunction hf, String memory, int keySize, double[] rounds) {
+		double sum = 0;
+		double best = Double.MAX_VALUE;
+		for(double r: rounds) {
+			sum += r;
+			best = Math.min(best, r);
+		}
+		double mean = sum / rounds.length;
+		double var = 0;
+		for(double r: rounds) {
+			var += (r - mean) * (r - mean);
+		}
+		double stdDev = Math.sqrt(var / (rounds.length - 1));
+		double mbps = keySize / mean * 1000000000d / (1 << 20);
+		System.out.println(String.format("%-10s %-8s %6d %10.2f %8.2f %10.2f %10.1f", hf, memory, keySize, mean, stdDev, best, mbps));
+	}
+}
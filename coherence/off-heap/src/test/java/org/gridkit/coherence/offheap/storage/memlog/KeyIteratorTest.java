@@ -0,0 +1,89 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class KeyIteratorTest {
+
+	@Test
+	public void test_keys() {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_keys", 64 << 10, 64l << 20);
+
+		BinaryStore store = storeMan.create();
+
+		Set<String> keys = new HashSet<String>();
+		for(int i = 0; i != 10000; ++i) {
+			String key = "key" + i;
+			keys.add(key);
+			store.put(toByteChunk(key), toByteChunk("value" + i));
+		}
+
+		Set<String> seen = new HashSet<String>();
+		Iterator<ByteChunk> it = store.keys();
+		while(it.hasNext()) {
+			String key = toString(it.next());
+			Assert.assertTrue("Duplicated key " + key, seen.add(key));
+		}
+
+		Assert.assertEquals(keys, seen);
+
+		storeMan.close();
+	}
+
+	@Test
+	public void test_keys_concurrent_growth() throws InterruptedException {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_keys_concurrent_growth", 64 << 10, 64l << 20);
+
+		final BinaryStore store = storeMan.create();
+
+		for(int i = 0; i != 5000; ++i) {
+			store.put(toByteChunk("stable" + i), toByteChunk("value" + i));
+		}
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for(int i = 0; i != 50000; ++i) {
+					store.put(toByteChunk("new" + i), toByteChunk("value" + i));
+				}
+			}
+		};
+		writer.start();
+
+		while(writer.isAlive()) {
+			Map<String, Integer> seen = new HashMap<String, Integer>();
+			Iterator<ByteChunk> it = store.keys();
+			while(it.hasNext()) {
+				String key = toString(it.next());
+				Integer n = seen.get(key);
+				seen.put(key, n == null ? 1 : n + 1);
+			}
+			for(int i = 0; i != 5000; ++i) {
+				Assert.assertEquals(Integer.valueOf(1), seen.get("stable" + i));
+			}
+			for(Integer n: seen.values()) {
+				Assert.assertEquals(Integer.valueOf(1), n);
+			}
+		}
+		writer.join();
+
+		storeMan.close();
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+
+	private static String toString(ByteChunk chunk) {
+		return new String(chunk.array(), chunk.offset(), chunk.lenght());
+	}
+}
@@ -0,0 +1,146 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class LargeObjectTest {
+
+	@Test
+	public void test_large_values() {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_large_values", 64 << 10, 32l << 20);
+
+		BinaryStore store = storeMan.create();
+
+		for(int i = 0; i != 20; ++i) {
+			store.put(toByteChunk("key" + i), value(i, (i + 1) * (100 << 10)));
+		}
+
+		for(int i = 0; i != 20; ++i) {
+			assertValue(i, (i + 1) * (100 << 10), store.get(toByteChunk("key" + i)));
+		}
+
+		// replace large with small and vice versa
+		for(int i = 0; i != 20; ++i) {
+			int size = i % 2 == 0 ? 100 : (1 << 20);
+			store.put(toByteChunk("key" + i), value(i + 1, size));
+		}
+
+		for(int i = 0; i != 20; ++i) {
+			int size = i % 2 == 0 ? 100 : (1 << 20);
+			assertValue(i + 1, size, store.get(toByteChunk("key" + i)));
+		}
+
+		for(int i = 0; i != 20; ++i) {
+			store.remove(toByteChunk("key" + i));
+		}
+
+		Assert.assertEquals(0, store.size());
+		Assert.assertNull(store.get(toByteChunk("key1")));
+
+		storeMan.close();
+	}
+
+	@Test
+	public void test_large_values_are_not_lost_on_evacuation() {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_large_values_are_not_lost_on_evacuation", 64 << 10, 32l << 20);
+
+		BinaryStore store = storeMan.create();
+
+		for(int i = 0; i != 10; ++i) {
+			store.put(toByteChunk("large" + i), value(i, 1 << 20));
+		}
+
+		// churn small entries to force page evacuation
+		Random rnd = new Random(0);
+		for(int i = 0; i != 200000; ++i) {
+			int n = rnd.nextInt(5000);
+			store.put(toByteChunk("small" + n), value(n, 100));
+		}
+
+		for(int i = 0; i != 10; ++i) {
+			assertValue(i, 1 << 20, store.get(toByteChunk("large" + i)));
+		}
+
+		storeMan.close();
+	}
+
+	@Test
+	public void test_large_chunks_are_accounted_against_page_limit() {
+
+		int pageSize = 64 << 10;
+		OffHeapMemoryStoreBackend backend = new OffHeapMemoryStoreBackend(pageSize, 2048, 2);
+		backend.setAllocationTimeout(TimeUnit.MILLISECONDS.toNanos(100));
+
+		int pp = backend.allocate(1 << 20, 0);
+		Assert.assertEquals(1 << 20, backend.getMemReserved());
+		backend.get(pp).assertEmpty();
+		backend.update(pp, value(1, 1 << 20));
+		assertValue(1, 1 << 20, backend.get(pp));
+		backend.release(pp);
+		Assert.assertEquals(0, backend.getMemReserved());
+		Assert.assertEquals(0, backend.getMemUsage());
+
+		// larger than slab, cannot be placed in pages
+		pp = backend.allocate(65 << 20, 0);
+		Assert.assertEquals(65 << 20, backend.getMemReserved());
+		backend.update(pp, value(2, 65 << 20));
+		assertValue(2, 65 << 20, backend.get(pp));
+		backend.release(pp);
+		Assert.assertEquals(0, backend.getMemReserved());
+
+		// runs cannot cross slab boundary, so last chunk does not fit in pages
+		List<Integer> pointers = new ArrayList<Integer>();
+		for(int i = 0; i != 128; ++i) {
+			pointers.add(backend.allocate(1 << 20, 0));
+		}
+		Assert.assertEquals(2048l * pageSize, backend.getMemReserved());
+		try {
+			backend.allocate(1 << 20, 0);
+			Assert.fail("Exception expected");
+		}
+		catch(MemoryExhaustedException e) {
+			// expected
+		}
+		for(int i = 0; i != pointers.size(); ++i) {
+			backend.update(pointers.get(i), value(i, 1 << 20));
+		}
+		for(int i = 0; i != pointers.size(); ++i) {
+			assertValue(i, 1 << 20, backend.get(pointers.get(i)));
+			backend.release(pointers.get(i));
+		}
+		Assert.assertEquals(0, backend.getMemReserved());
+		Assert.assertEquals(0, backend.getMemUsage());
+
+		backend.close();
+	}
+
+	private static ByteChunk value(int seed, int size) {
+		byte[] bytes = new byte[size];
+		for(int i = 0; i != size; ++i) {
+			bytes[i] = (byte) (seed + i);
+		}
+		return new ByteChunk(bytes);
+	}
+
+	private static void assertValue(int seed, int size, ByteChunk chunk) {
+		Assert.assertNotNull(chunk);
+		Assert.assertEquals(size, chunk.lenght());
+		for(int i = 0; i != size; ++i) {
+			if (chunk.at(i) != (byte) (seed + i)) {
+				Assert.fail("Value mismatch at " + i);
+			}
+		}
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+}
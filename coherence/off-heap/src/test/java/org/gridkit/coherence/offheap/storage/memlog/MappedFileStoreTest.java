@@ -0,0 +1,98 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MappedFileStoreTest {
+
+	@Test
+	public void test_put_get_remove() throws IOException {
+
+		File file = File.createTempFile("memlog", ".data");
+		file.deleteOnExit();
+
+		MappedFileBinaryStoreManager2 storeMan = new MappedFileBinaryStoreManager2("test_put_get_remove", file, 64 << 10, 16l << 20);
+		try {
+			BinaryStore store = storeMan.create();
+
+			Random rnd = new Random(0);
+			// overwrite keys several times to get pages evacuated
+			for(int i = 0; i != 100000; ++i) {
+				int n = rnd.nextInt(10000);
+				store.put(toByteChunk("key" + n), toByteChunk("value" + n));
+			}
+
+			for(int i = 0; i != 10000; ++i) {
+				ByteChunk value = store.get(toByteChunk("key" + i));
+				if (value != null) {
+					Assert.assertEquals("value" + i, toString(value));
+				}
+			}
+
+			for(int i = 0; i != 10000; ++i) {
+				store.remove(toByteChunk("key" + i));
+			}
+			Assert.assertEquals(0, store.size());
+
+			Assert.assertTrue(file.length() > 0);
+		}
+		finally {
+			storeMan.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void test_large_values() throws IOException {
+
+		File file = File.createTempFile("memlog", ".data");
+		file.deleteOnExit();
+
+		MappedFileBinaryStoreManager2 storeMan = new MappedFileBinaryStoreManager2("test_large_values", file, 64 << 10, 128l << 20);
+		try {
+			BinaryStore store = storeMan.create();
+
+			byte[] large = new byte[1 << 20];
+			new Random(0).nextBytes(large);
+			store.put(toByteChunk("large"), new ByteChunk(large));
+			ByteChunk value = store.get(toByteChunk("large"));
+			Assert.assertEquals(large.length, value.lenght());
+			for(int i = 0; i != large.length; ++i) {
+				if (value.at(i) != large[i]) {
+					Assert.fail("Value mismatch at " + i);
+				}
+			}
+
+			// value larger than slab could not be placed in mapped memory
+			try {
+				store.put(toByteChunk("huge"), new ByteChunk(new byte[65 << 20]));
+				Assert.fail("Exception expected");
+			}
+			catch(IllegalArgumentException e) {
+				// expected
+			}
+			Assert.assertNull(store.get(toByteChunk("huge")));
+			Assert.assertEquals(1, store.size());
+
+			store.remove(toByteChunk("large"));
+			Assert.assertEquals(0, store.size());
+		}
+		finally {
+			storeMan.close();
+			file.delete();
+		}
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+
+	private static String toString(ByteChunk chunk) {
+		return new String(chunk.array(), chunk.offset(), chunk.lenght());
+	}
+}
@@ -0,0 +1,156 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class OptimisticReadTest {
+
+	@Test
+	public void test_reads_under_concurrent_updates() throws InterruptedException {
+
+		// small memory limit to keep evacuation busy
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_reads_under_concurrent_updates", 64 << 10, 16l << 20);
+		final BinaryStore store = storeMan.create();
+
+		for(int i = 0; i != 1000; ++i) {
+			store.put(toByteChunk("stable" + i), toByteChunk("stable" + i + ":0"));
+		}
+
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] writers = new Thread[2];
+		for(int t = 0; t != writers.length; ++t) {
+			final int seed = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					Random rnd = new Random(seed);
+					for(int i = 0; i != 200000; ++i) {
+						int n = rnd.nextInt(1000);
+						store.put(toByteChunk("stable" + n), toByteChunk("stable" + n + ":" + i));
+						int m = rnd.nextInt(5000);
+						if (rnd.nextBoolean()) {
+							store.put(toByteChunk("volatile" + m), toByteChunk("volatile" + m + ":" + i));
+						}
+						else {
+							store.remove(toByteChunk("volatile" + m));
+						}
+					}
+				}
+			};
+		}
+
+		Thread[] readers = new Thread[2];
+		for(int t = 0; t != readers.length; ++t) {
+			final int seed = t;
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random rnd = new Random(seed);
+						while(!Thread.interrupted()) {
+							int n = rnd.nextInt(1000);
+							ByteChunk value = store.get(toByteChunk("stable" + n));
+							Assert.assertNotNull("stable" + n, value);
+							Assert.assertTrue(OptimisticReadTest.toString(value).startsWith("stable" + n + ":"));
+
+							int m = rnd.nextInt(5000);
+							value = store.get(toByteChunk("volatile" + m));
+							if (value != null) {
+								Assert.assertTrue(OptimisticReadTest.toString(value).startsWith("volatile" + m + ":"));
+							}
+						}
+					}
+					catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+		}
+
+		for(Thread t: readers) {
+			t.start();
+		}
+		for(Thread t: writers) {
+			t.start();
+		}
+		for(Thread t: writers) {
+			t.join();
+		}
+		for(Thread t: readers) {
+			t.interrupt();
+			t.join();
+		}
+
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+
+		storeMan.close();
+	}
+
+	@Test
+	public void test_reads_during_table_growth() throws InterruptedException {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_reads_during_table_growth", 64 << 10, 64l << 20);
+		final BinaryStore store = storeMan.create();
+		final AtomicInteger inserted = new AtomicInteger();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] readers = new Thread[2];
+		for(int t = 0; t != readers.length; ++t) {
+			final int seed = t;
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random rnd = new Random(seed);
+						while(!Thread.interrupted()) {
+							int n = inserted.get();
+							if (n > 0) {
+								int k = rnd.nextInt(n);
+								ByteChunk value = store.get(toByteChunk("key" + k));
+								Assert.assertNotNull("key" + k, value);
+								Assert.assertEquals("value" + k, OptimisticReadTest.toString(value));
+							}
+						}
+					}
+					catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			readers[t].start();
+		}
+
+		// table goes through hundreds of directory segments
+		for(int i = 0; i != 300000; ++i) {
+			store.put(toByteChunk("key" + i), toByteChunk("value" + i));
+			inserted.set(i + 1);
+		}
+
+		for(Thread t: readers) {
+			t.interrupt();
+			t.join();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+		Assert.assertEquals(300000, store.size());
+
+		storeMan.close();
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+
+	private static String toString(ByteChunk chunk) {
+		return new String(chunk.array(), chunk.offset(), chunk.lenght());
+	}
+}
@@ -13,9 +13,9 @@ public class PagedMemoryBinaryStoreManagerTest {
 	@Test
 	public void test_basics() {
 		
-		PageLogManager pageManager = new PageLogManager(8 << 10, 16);
+		MemoryStoreBackend pageManager = new InHeapMemoryStoreBackend(8 << 10, 16, 2);
 		
-		PagedMemoryBinaryStoreManager storeMan = new PagedMemoryBinaryStoreManager("test_basics", pageManager);
+		PagedMemoryBinaryStoreManager2 storeMan = new PagedMemoryBinaryStoreManager2("test_basics", pageManager);
 		
 		BinaryStore store = storeMan.create();
 	
@@ -72,9 +72,9 @@ public class PagedMemoryBinaryStoreManagerTest {
 	@Test
 	public void large_consistency_test_basics() {
 		
-		PageLogManager pageManager = new PageLogManager(64 << 10, 256);
+		MemoryStoreBackend pageManager = new InHeapMemoryStoreBackend(64 << 10, 256, 2);
 		
-		PagedMemoryBinaryStoreManager storeMan = new PagedMemoryBinaryStoreManager("test_basics", pageManager);
+		PagedMemoryBinaryStoreManager2 storeMan = new PagedMemoryBinaryStoreManager2("test_basics", pageManager);
 		
 		BinaryStore store = storeMan.create();
 		
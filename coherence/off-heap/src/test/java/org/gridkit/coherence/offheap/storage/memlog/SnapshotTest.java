@@ -0,0 +1,233 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SnapshotTest {
+
+	@Test
+	public void test_snapshot_restore() throws IOException {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_snapshot_restore", 64 << 10, 64l << 20);
+		BinaryStore store1 = storeMan.create();
+		BinaryStore store2 = storeMan.create();
+
+		for(int i = 0; i != 20000; ++i) {
+			store1.put(toByteChunk("key" + i), toByteChunk("value" + i));
+		}
+		// large chunk
+		store2.put(toByteChunk("large"), new ByteChunk(new byte[1 << 20]));
+
+		File file = File.createTempFile("memlog", ".snapshot");
+		file.deleteOnExit();
+		storeMan.snapshot(file);
+		storeMan.close();
+
+		OffHeapBinaryStoreManager2 storeMan2 = new OffHeapBinaryStoreManager2("test_snapshot_restore2", 64 << 10, 64l << 20);
+		List<BinaryStore> stores = storeMan2.restore(file);
+		file.delete();
+
+		Assert.assertEquals(2, stores.size());
+		Assert.assertEquals(20000, stores.get(0).size());
+		for(int i = 0; i != 20000; ++i) {
+			Assert.assertEquals("value" + i, toString(stores.get(0).get(toByteChunk("key" + i))));
+		}
+		Assert.assertEquals(1, stores.get(1).size());
+		Assert.assertEquals(1 << 20, stores.get(1).get(toByteChunk("large")).lenght());
+
+		// restored store is fully functional
+		stores.get(0).put(toByteChunk("key1"), toByteChunk("updated"));
+		stores.get(0).remove(toByteChunk("key2"));
+		Assert.assertEquals("updated", toString(stores.get(0).get(toByteChunk("key1"))));
+		Assert.assertNull(stores.get(0).get(toByteChunk("key2")));
+		Assert.assertEquals(19999, stores.get(0).size());
+
+		storeMan2.close();
+	}
+
+	@Test
+	public void test_snapshot_under_concurrent_writes() throws Exception {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_snapshot_under_concurrent_writes", 64 << 10, 64l << 20);
+		final BinaryStore store = storeMan.create();
+
+		for(int i = 0; i != 10000; ++i) {
+			store.put(toByteChunk("stable" + i), toByteChunk("value" + i));
+		}
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for(int i = 0; i != 100000; ++i) {
+					store.put(toByteChunk("volatile" + (i % 5000)), toByteChunk("value" + i));
+					store.remove(toByteChunk("volatile" + ((i + 2500) % 5000)));
+				}
+			}
+		};
+		writer.start();
+
+		while(writer.isAlive()) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			storeMan.snapshot(bos);
+
+			InHeapBinaryStoreManager2 restoreMan = new InHeapBinaryStoreManager2("test_snapshot_under_concurrent_writes2", 64 << 10, 64l << 20);
+			BinaryStore restored = restoreMan.restore(new ByteArrayInputStream(bos.toByteArray())).get(0);
+			for(int i = 0; i != 10000; ++i) {
+				Assert.assertEquals("value" + i, toString(restored.get(toByteChunk("stable" + i))));
+			}
+			// concurrent splits should not make same key captured twice
+			Assert.assertTrue(restored.size() <= 15000);
+			restoreMan.close();
+		}
+		writer.join();
+
+		storeMan.close();
+	}
+
+	@Test
+	public void test_snapshot_aborted_if_retention_limit_exceeded() throws IOException {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_snapshot_aborted_if_retention_limit_exceeded", 64 << 10, 64l << 20);
+		storeMan.setSnapshotRetentionLimit(256 << 10);
+		final BinaryStore store = storeMan.create();
+		final byte[] value = new byte[1024];
+		for(int i = 0; i != 2000; ++i) {
+			store.put(toByteChunk("key" + i), new ByteChunk(value));
+		}
+
+		// all entries are replaced once snapshot starts writing to stream
+		OutputStream os = new ByteArrayOutputStream() {
+			boolean overwritten;
+			
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				if (!overwritten) {
+					overwritten = true;
+					for(int i = 0; i != 2000; ++i) {
+						store.put(toByteChunk("key" + i), new ByteChunk(value));
+					}
+				}
+				super.write(b, off, len);
+			}
+		};
+		try {
+			storeMan.snapshot(os);
+			Assert.fail("Exception expected");
+		}
+		catch(IOException e) {
+			// expected
+		}
+
+		Assert.assertEquals(2000, store.size());
+		storeMan.setSnapshotRetentionLimit(64l << 20);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		storeMan.snapshot(bos);
+		storeMan.close();
+	}
+
+	@Test
+	public void test_restore_with_different_hash_function() throws IOException {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_restore_with_different_hash_function", 64 << 10, 16l << 20, StandardHashFunction.CRC);
+		BinaryStore store = storeMan.create();
+		for(int i = 0; i != 5000; ++i) {
+			store.put(toByteChunk("key" + i), toByteChunk("value" + i));
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		storeMan.snapshot(bos);
+		storeMan.close();
+
+		OffHeapBinaryStoreManager2 storeMan2 = new OffHeapBinaryStoreManager2("test_restore_with_different_hash_function2", 64 << 10, 16l << 20, StandardHashFunction.XXHASH64);
+		BinaryStore restored = storeMan2.restore(new ByteArrayInputStream(bos.toByteArray())).get(0);
+		Assert.assertEquals(5000, restored.size());
+		for(int i = 0; i != 5000; ++i) {
+			Assert.assertEquals("value" + i, toString(restored.get(toByteChunk("key" + i))));
+		}
+		storeMan2.close();
+	}
+
+	@Test
+	public void test_corrupted_snapshot() throws IOException {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_corrupted_snapshot", 64 << 10, 16l << 20);
+		BinaryStore store = storeMan.create();
+		for(int i = 0; i != 1000; ++i) {
+			store.put(toByteChunk("key" + i), toByteChunk("value" + i));
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		storeMan.snapshot(bos);
+		storeMan.close();
+
+		byte[] data = bos.toByteArray();
+		data[data.length / 2] ^= 1;
+
+		OffHeapBinaryStoreManager2 storeMan2 = new OffHeapBinaryStoreManager2("test_corrupted_snapshot2", 64 << 10, 16l << 20);
+		try {
+			storeMan2.restore(new ByteArrayInputStream(data));
+			Assert.fail("Exception expected");
+		}
+		catch(IOException e) {
+			// expected
+		}
+
+		byte[] truncated = new byte[data.length / 2];
+		System.arraycopy(bos.toByteArray(), 0, truncated, 0, truncated.length);
+		try {
+			storeMan2.restore(new ByteArrayInputStream(truncated));
+			Assert.fail("Exception expected");
+		}
+		catch(IOException e) {
+			// expected
+		}
+		storeMan2.close();
+	}
+
+	@Test
+	public void test_snapshot_file_replace() throws IOException {
+
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_snapshot_file_replace", 64 << 10, 16l << 20);
+		BinaryStore store = storeMan.create();
+		store.put(toByteChunk("key"), toByteChunk("value1"));
+
+		File file = File.createTempFile("memlog", ".snapshot");
+		File tmp = new File(file.getPath() + ".tmp");
+		File bak = new File(file.getPath() + ".bak");
+		file.deleteOnExit();
+		bak.deleteOnExit();
+		storeMan.snapshot(file);
+		store.put(toByteChunk("key"), toByteChunk("value2"));
+		storeMan.snapshot(file);
+		Assert.assertFalse(tmp.exists());
+		Assert.assertFalse(bak.exists());
+		storeMan.close();
+
+		OffHeapBinaryStoreManager2 storeMan2 = new OffHeapBinaryStoreManager2("test_snapshot_file_replace2", 64 << 10, 16l << 20);
+		List<BinaryStore> stores = storeMan2.restore(file);
+		Assert.assertEquals("value2", toString(stores.get(0).get(toByteChunk("key"))));
+		storeMan2.close();
+
+		// crash after previous snapshot has been moved away, but before new one is renamed
+		Assert.assertTrue(file.renameTo(bak));
+		OffHeapBinaryStoreManager2 storeMan3 = new OffHeapBinaryStoreManager2("test_snapshot_file_replace3", 64 << 10, 16l << 20);
+		stores = storeMan3.restore(file);
+		Assert.assertEquals("value2", toString(stores.get(0).get(toByteChunk("key"))));
+		storeMan3.close();
+		bak.delete();
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+
+	private static String toString(ByteChunk chunk) {
+		return new String(chunk.array(), chunk.offset(), chunk.lenght());
+	}
+}
@@ -0,0 +1,59 @@
+package org.gridkit.coherence.offheap.storage.memlog;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class StoreMBeanTest {
+
+	@Test
+	public void test_manager_and_store_mbeans() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		OffHeapBinaryStoreManager2 storeMan = new OffHeapBinaryStoreManager2("test_manager_and_store_mbeans", 64 << 10, 16l << 20);
+		BinaryStore store = storeMan.create();
+		for(int i = 0; i != 10000; ++i) {
+			store.put(toByteChunk("key" + i), toByteChunk("value" + i));
+		}
+
+		ObjectName managerName = new ObjectName("org.gridkit.coherence.offheap:type=BinaryStoreManager,name=\"test_manager_and_store_mbeans\"");
+		ObjectName storeName = new ObjectName("org.gridkit.coherence.offheap:type=BinaryStore,manager=\"test_manager_and_store_mbeans\",store=0");
+
+		Assert.assertEquals(1, server.getAttribute(managerName, "StoreCount"));
+		long used = (Long) server.getAttribute(managerName, "MemoryUsed");
+		long reserved = (Long) server.getAttribute(managerName, "MemoryReserved");
+		Assert.assertTrue(used > 0);
+		Assert.assertTrue(reserved >= used);
+		int[] utilization = (int[]) server.getAttribute(managerName, "PageUtilizationHistogram");
+		int pages = 0;
+		for(int n: utilization) {
+			pages += n;
+		}
+		Assert.assertEquals(server.getAttribute(managerName, "PagesInUse"), pages);
+
+		Assert.assertEquals(10000, server.getAttribute(storeName, "Size"));
+		int capacity = (Integer) server.getAttribute(storeName, "Capacity");
+		int[] chains = (int[]) server.getAttribute(storeName, "ChainLengthHistogram");
+		int buckets = 0;
+		int entries = 0;
+		for(int i = 0; i != chains.length; ++i) {
+			buckets += chains[i];
+			entries += i * chains[i];
+		}
+		Assert.assertEquals(capacity, buckets);
+		// last bucket of histogram is open ended
+		Assert.assertTrue(entries <= 10000);
+
+		storeMan.close();
+		Assert.assertFalse(server.isRegistered(storeName));
+		Assert.assertFalse(server.isRegistered(managerName));
+	}
+
+	private static ByteChunk toByteChunk(String val) {
+		return new ByteChunk(val.getBytes());
+	}
+}
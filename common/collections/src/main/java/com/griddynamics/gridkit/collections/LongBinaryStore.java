@@ -0,0 +1,42 @@
+/**
+ * Copyright 2008-2009 Grid Dynamics Consulting Services, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.griddynamics.gridkit.collections;
+
+/**
+ * Store of binary values with <code>long</code> keys. Implementations copy value on both store and load,
+ * so caller is free to reuse arrays.
+ * 
+ * @author Alexey Ragozin (aragozin@gridsynamics.com)
+ */
+public interface LongBinaryStore {
+    
+    public LongIterator keys();
+    /**
+     * Same as {@link #keys()}, but leading bytes of each value are captured too,
+     * so header of value could be inspected without loading it.
+     * @param prefixLength number of leading value bytes to capture
+     */
+    public LongEntryIterator entries(int prefixLength);
+    /**
+     * @return copy of value or <code>null</code> if key is absent
+     */
+    public byte[] load(long key);
+    public void store(long key, byte[] value);
+    public void store(long key, byte[] value, int offset, int length);
+    public void erase(long key);
+    public void eraseAll();
+    public int size();
+}
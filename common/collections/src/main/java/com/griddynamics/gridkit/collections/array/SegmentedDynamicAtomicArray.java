@@ -15,142 +15,152 @@
  */
 package com.griddynamics.gridkit.collections.array;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.griddynamics.gridkit.collections.DynamicAtomicArray;
 
 /**
+ * Growable {@link DynamicAtomicArray} built of fixed size segments.
+ * <p>
+ * Element is reached via two level index: segment directory and slot in segment. Directory is copy-on-write,
+ * new directory is published via CAS and segments already published are never replaced, so neither access
+ * nor growth takes locks and growth never blocks readers.
+ * <p>
+ * Optionally slots may be padded, so neighbor elements are placed in different cache lines.
+ * It helps heavily updated elements (e.g. counters or bucket heads), at cost of 16 times larger segments.
+ * 
  * @author Alexey Ragozin (aragozin@gridsynamics.com)
  */
 public class SegmentedDynamicAtomicArray<E> implements DynamicAtomicArray<E> {
 
-    private volatile AtomicReferenceArray<E>[] segments;
+    // 16 references, 64 bytes with compressed pointers
+    private static final int PAD_SHIFT = 4;
+
+    private final AtomicReference<AtomicReferenceArray<E>[]> directory;
+    private final AtomicInteger size = new AtomicInteger();
     
     private final int segmentSizePower;
-    private volatile int size;
+    private final int segmentMask;
+    private final int padShift;
 
     public SegmentedDynamicAtomicArray(int segmentSize) {
-        segmentSizePower = getPower(segmentSize);
-        segments = newSegments(0);
-        size = 0;
+        this(segmentSize, false);
+    }
+
+    /**
+     * @param segmentSize number of elements in segment, should be a power of 2
+     * @param padded if <code>true</code> each element occupies separate cache line
+     */
+    public SegmentedDynamicAtomicArray(int segmentSize, boolean padded) {
+        if (segmentSize <= 0 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Segment size should be a power of 2");
+        }
+        segmentSizePower = Integer.numberOfTrailingZeros(segmentSize);
+        segmentMask = segmentSize - 1;
+        padShift = padded ? PAD_SHIFT : 0;
+        directory = new AtomicReference<AtomicReferenceArray<E>[]>(newSegments(0));
     }
 
-    @SuppressWarnings("unchecked")
+    // generic array cannot be created, raw array is cast to element type
+    @SuppressWarnings({"unchecked", "rawtypes"})
     private AtomicReferenceArray<E>[] newSegments(int i) {
         return new AtomicReferenceArray[i];
     }
 
-    private int getPower(int val) {
-        // TODO binary search
-        for (int i = 0; i < 31; ++i) {
-            if (val == 1 << i) {
-                return i;
+    private void ensureSegments(int segmentCount) {
+        while(true) {
+            AtomicReferenceArray<E>[] segments = directory.get();
+            if (segments.length >= segmentCount) {
+                return;
             }
-        }
-        throw new IllegalArgumentException("Super page size should be a power of 2");
-    }
-    
-    protected synchronized void resizeTable(int pageCount) {
-        int segmentSize = 1 << segmentSizePower;
-        AtomicReferenceArray<E>[] newSegments = newSegments(pageCount);
-        if (segments != null) {
-           System.arraycopy(segments, 0, newSegments, 0, Math.min(segments.length, newSegments.length)); 
-        }
-        for(int i = 0; i < newSegments.length; ++i) {
-            if (newSegments[i] == null) {
-                newSegments[i] = new AtomicReferenceArray<E>(segmentSize);
+            AtomicReferenceArray<E>[] newSegments = newSegments(segmentCount);
+            System.arraycopy(segments, 0, newSegments, 0, segments.length);
+            for(int i = segments.length; i < segmentCount; ++i) {
+                newSegments[i] = new AtomicReferenceArray<E>((segmentMask + 1) << padShift);
+            }
+            // if other thread has grown directory concurrently, its segments win and ours are discarded
+            if (directory.compareAndSet(segments, newSegments)) {
+                return;
             }
         }
-        
-        segments = newSegments;
-        // after this point array assigned to tableSegments will never change,
-        // so we can avoid synchronization, using volatile modifier instead
     }
     
     @Override
     public int length() {
-        return size;
+        return size.get();
     }
     
+    /**
+     * Segments are allocated before new length is published, so any index below length is always backed by segment.
+     * On shrink, slots beyond new length are cleared after length is published, segments are kept for later growth.
+     * Concurrent shrink and growth over the same range may leave stale values, callers should not mix them.
+     */
     @Override
-    public synchronized void setLength(int length) {
-        if (length == size) {
-            return;
+    public void setLength(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
         }
-        if (length < size) {
-            for(int i = length; i != size; ++i) {
-                set(i, null);
+        ensureSegments((length + segmentMask) >> segmentSizePower);
+        while(true) {
+            int current = size.get();
+            if (current == length) {
+                return;
+            }
+            if (size.compareAndSet(current, length)) {
+                AtomicReferenceArray<E>[] segments = directory.get();
+                for(int i = length; i < current; ++i) {
+                    segments[i >> segmentSizePower].set((i & segmentMask) << padShift, null);
+                }
+                return;
             }
-         // should do before actual resize
-            size = length;
-        }
-        int pages = (length + ((1 << segmentSizePower) - 1)) >> segmentSizePower;
-        if (pages != segments.length) {
-            resizeTable(pages);
         }
-        if (length > size) {
-            // should do after actual resize
-            size = length;
+    }
+
+    private AtomicReferenceArray<E> segment(int i) {
+        if (i < 0 || i >= size.get()) {
+            throw new ArrayIndexOutOfBoundsException(i);
         }
+        // directory is read after length, so it is guaranteed to cover index
+        return directory.get()[i >> segmentSizePower];
+    }
+
+    private int slot(int i) {
+        return (i & segmentMask) << padShift;
     }
 
     @Override
     public boolean compareAndSet(int i, E expect, E update) {
-        if (i >= size) {
-            throw new ArrayIndexOutOfBoundsException(i);
-        }
-        int supIdx = i >> segmentSizePower;
-        int subIdx = i & ((1 << segmentSizePower) - 1);
-        return segments[supIdx].compareAndSet(subIdx, expect, update);
+        return segment(i).compareAndSet(slot(i), expect, update);
     }
 
     @Override
     public E get(int i) {
-        if (i >= size) {
-            throw new ArrayIndexOutOfBoundsException(i);
-        }
-        int supIdx = i >> segmentSizePower;
-        int subIdx = i & ((1 << segmentSizePower) - 1);
-        return segments[supIdx].get(subIdx);
+        return segment(i).get(slot(i));
     }
 
     @Override
     public E getAndSet(int i, E newValue) {
-        if (i >= size) {
-            throw new ArrayIndexOutOfBoundsException(i);
-        }
-        int supIdx = i >> segmentSizePower;
-        int subIdx = i & ((1 << segmentSizePower) - 1);
-        return segments[supIdx].getAndSet(subIdx, newValue);
+        return segment(i).getAndSet(slot(i), newValue);
     }
 
     @Override
     public void lazySet(int i, E newValue) {
-        if (i >= size) {
-            throw new ArrayIndexOutOfBoundsException(i);
-        }
-        int supIdx = i >> segmentSizePower;
-        int subIdx = i & ((1 << segmentSizePower) - 1);
-        segments[supIdx].lazySet(subIdx, newValue);    
+        segment(i).lazySet(slot(i), newValue);
     }
 
     @Override
     public void set(int i, E newValue) {
-        if (i >= size) {
-            throw new ArrayIndexOutOfBoundsException(i);
-        }
-        int supIdx = i >> segmentSizePower;
-        int subIdx = i & ((1 << segmentSizePower) - 1);
-        segments[supIdx].set(subIdx, newValue);
+        segment(i).set(slot(i), newValue);
     }
 
+    /**
+     * Delegates to {@link AtomicReferenceArray#compareAndSet(int, Object, Object)},
+     * {@link AtomicReferenceArray#weakCompareAndSet(int, Object, Object)} is deprecated on newer JDKs.
+     */
     @Override
     public boolean weakCompareAndSet(int i, E expect, E update) {
-        if (i >= size) {
-            throw new ArrayIndexOutOfBoundsException(i);
-        }
-        int supIdx = i >> segmentSizePower;
-        int subIdx = i & ((1 << segmentSizePower) - 1);
-        return segments[supIdx].weakCompareAndSet(subIdx, expect, update);
+        return segment(i).compareAndSet(slot(i), expect, update);
     }
 }
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2008-2009 Grid Dynamics Consulting Services, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.griddynamics.gridkit.collections.map;
+
+/**
+ * Hashing of <code>long</code> keys for open addressing tables. Sequential ids are typical keys,
+ * so bits are mixed (MurmurHash3 finalizer) to avoid clustering in linear probing.
+ * 
+ * @author Alexey Ragozin (aragozin@gridsynamics.com)
+ */
+final class LongHash {
+
+    private LongHash() {
+    }
+
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * @return smallest power of 2 not less than given number
+     */
+    static int tableSize(int n) {
+        int size = 16;
+        while(size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2008-2009 Grid Dynamics Consulting Services, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.griddynamics.gridkit.collections.map;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.griddynamics.gridkit.collections.LongIterator;
+import com.griddynamics.gridkit.collections.LongObjectStore;
+
+/**
+ * In-heap {@link LongObjectStore}. Open addressing table with linear probing,
+ * keys are kept in <code>long[]</code> so neither boxing nor <code>equals()</code> calls are involved.
+ * Reads are concurrent, writes are exclusive.
+ * 
+ * @author Alexey Ragozin (aragozin@gridsynamics.com)
+ */
+public class LongHashStore implements LongObjectStore {
+
+    private static final Object REMOVED = new Object();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int initialCapacity;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    // occupied and removed slots, table is rebuilt before it is full
+    private int used;
+
+    public LongHashStore() {
+        this(16);
+    }
+
+    public LongHashStore(int initialCapacity) {
+        this.initialCapacity = LongHash.tableSize(2 * initialCapacity);
+        init(this.initialCapacity);
+    }
+
+    private void init(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        size = 0;
+        used = 0;
+    }
+
+    @Override
+    public Object load(long key) {
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            return slot < 0 ? null : values[slot];
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void store(long key, Object value) {
+        if (value == null) {
+            throw new NullPointerException("null value is not allowed");
+        }
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot >= 0) {
+                values[slot] = value;
+            }
+            else {
+                int mask = keys.length - 1;
+                for(slot = LongHash.hash(key) & mask; ; slot = (slot + 1) & mask) {
+                    if (values[slot] == null) {
+                        ++used;
+                        break;
+                    }
+                    else if (values[slot] == REMOVED) {
+                        break;
+                    }
+                }
+                keys[slot] = key;
+                values[slot] = value;
+                ++size;
+                if (4 * used > 3 * keys.length) {
+                    rehash();
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void erase(long key) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot >= 0) {
+                values[slot] = REMOVED;
+                --size;
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void eraseAll() {
+        lock.writeLock().lock();
+        try {
+            init(initialCapacity);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Iterates over snapshot of keys taken at the moment of call.
+     */
+    @Override
+    public LongIterator keys() {
+        lock.readLock().lock();
+        try {
+            long[] snapshot = new long[size];
+            int n = 0;
+            for(int i = 0; i != keys.length; ++i) {
+                if (values[i] != null && values[i] != REMOVED) {
+                    snapshot[n++] = keys[i];
+                }
+            }
+            return new ArrayLongIterator(snapshot);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for(int slot = LongHash.hash(key) & mask; ; slot = (slot + 1) & mask) {
+            Object value = values[slot];
+            if (value == null) {
+                return -1;
+            }
+            else if (value != REMOVED && keys[slot] == key) {
+                return slot;
+            }
+        }
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        // table mostly filled with tombstones is rebuilt without growing
+        init(Math.max(initialCapacity, LongHash.tableSize(2 * size)));
+        int mask = keys.length - 1;
+        for(int i = 0; i != oldKeys.length; ++i) {
+            Object value = oldValues[i];
+            if (value != null && value != REMOVED) {
+                int slot = LongHash.hash(oldKeys[i]) & mask;
+                while(values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = value;
+                ++size;
+                ++used;
+            }
+        }
+    }
+
+    static class ArrayLongIterator implements LongIterator {
+
+        private final long[] keys;
+        private int n;
+
+        public ArrayLongIterator(long[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return n < keys.length;
+        }
+
+        @Override
+        public long next() {
+            if (n >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            return keys[n++];
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/**
+ * Copyright 2008-2009 Grid Dynamics Consulting Services, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.griddynamics.gridkit.collections.map;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.griddynamics.gridkit.collections.LongBinaryStore;
+import com.griddynamics.gridkit.collections.LongEntryIterator;
+import com.griddynamics.gridkit.collections.LongIterator;
+
+/**
+ * {@link LongBinaryStore} keeping both index and values outside of Java heap.
+ * <p>
+ * Index is open addressing table with linear probing in direct buffer, slot is 16 bytes: key and value reference.
+ * Values are appended to direct pages as length prefixed chunks, space of replaced and erased values
+ * is reclaimed by compaction once garbage is above half of written data.
+ * <p>
+ * Reads are concurrent, writes are exclusive.
+ * 
+ * @author Alexey Ragozin (aragozin@gridsynamics.com)
+ */
+public class OffHeapLongBinaryStore implements LongBinaryStore {
+
+    private static final int SLOT_SIZE = 16;
+    private static final int REF_OFFSET = 8;
+
+    // value reference is (page + 1) << 32 | offset, so it is never equal to markers below
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+
+    private static final int DEFAULT_PAGE_SIZE = 1 << 20;
+    // pages are never compacted below this size
+    private static final int MIN_COMPACTION_PAGES = 4;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int initialCapacity;
+    private final int pageSize;
+
+    private ByteBuffer table;
+    private int capacity;
+    private int size;
+    // occupied and removed slots, table is rebuilt before it is full
+    private int used;
+
+    private ByteBuffer[] pages;
+    private int pageCount;
+    private int writePage;
+    private int writeOffset;
+    private long writtenBytes;
+    private long liveBytes;
+
+    public OffHeapLongBinaryStore() {
+        this(1024, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param initialCapacity expected number of keys
+     * @param pageSize size of value page, larger values are placed in dedicated pages
+     */
+    public OffHeapLongBinaryStore(int initialCapacity, int pageSize) {
+        if (pageSize <= 4) {
+            throw new IllegalArgumentException("Page size is too small: " + pageSize);
+        }
+        this.initialCapacity = LongHash.tableSize(2 * initialCapacity);
+        this.pageSize = pageSize;
+        initTable(this.initialCapacity);
+        initPages();
+    }
+
+    private void initTable(int capacity) {
+        this.table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        this.capacity = capacity;
+        this.size = 0;
+        this.used = 0;
+    }
+
+    private void initPages() {
+        pages = new ByteBuffer[16];
+        pageCount = 0;
+        writePage = -1;
+        writeOffset = 0;
+        writtenBytes = 0;
+        liveBytes = 0;
+    }
+
+    @Override
+    public byte[] load(long key) {
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+            long ref = refAt(slot);
+            // absolute positioning on shared buffer is not thread safe, so duplicate is used
+            ByteBuffer page = pages[(int)(ref >>> 32) - 1].duplicate();
+            page.position((int)ref);
+            byte[] value = new byte[page.getInt()];
+            page.get(value);
+            return value;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void store(long key, byte[] value) {
+        store(key, value, 0, value.length);
+    }
+
+    @Override
+    public void store(long key, byte[] value, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > value.length) {
+            throw new IndexOutOfBoundsException("Array length " + value.length + ", required " + offset + " by " + length);
+        }
+        lock.writeLock().lock();
+        try {
+            long ref = append(value, offset, length);
+            int slot = find(key);
+            if (slot >= 0) {
+                release(refAt(slot));
+                setRef(slot, ref);
+            }
+            else {
+                int mask = capacity - 1;
+                for(slot = LongHash.hash(key) & mask; ; slot = (slot + 1) & mask) {
+                    long r = refAt(slot);
+                    if (r == EMPTY) {
+                        ++used;
+                        break;
+                    }
+                    else if (r == REMOVED) {
+                        break;
+                    }
+                }
+                table.putLong(slot * SLOT_SIZE, key);
+                setRef(slot, ref);
+                ++size;
+                if (4 * used > 3 * capacity) {
+                    rehash();
+                }
+            }
+            if (writtenBytes > MIN_COMPACTION_PAGES * (long)pageSize && 2 * liveBytes < writtenBytes) {
+                compact();
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void erase(long key) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot >= 0) {
+                release(refAt(slot));
+                setRef(slot, REMOVED);
+                --size;
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void eraseAll() {
+        lock.writeLock().lock();
+        try {
+            initTable(initialCapacity);
+            initPages();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Iterates over snapshot of keys taken at the moment of call.
+     */
+    @Override
+    public LongIterator keys() {
+        lock.readLock().lock();
+        try {
+            long[] snapshot = new long[size];
+            int n = 0;
+            for(int i = 0; i != capacity; ++i) {
+                long ref = refAt(i);
+                if (ref != EMPTY && ref != REMOVED) {
+                    snapshot[n++] = table.getLong(i * SLOT_SIZE);
+                }
+            }
+            return new LongHashStore.ArrayLongIterator(snapshot);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Iterates over snapshot of keys and value prefixes taken at the moment of call.
+     */
+    @Override
+    public LongEntryIterator entries(int prefixLength) {
+        lock.readLock().lock();
+        try {
+            long[] keys = new long[size];
+            byte[][] prefixes = new byte[size][];
+            int n = 0;
+            for(int i = 0; i != capacity; ++i) {
+                long ref = refAt(i);
+                if (ref != EMPTY && ref != REMOVED) {
+                    keys[n] = table.getLong(i * SLOT_SIZE);
+                    ByteBuffer page = pages[(int)(ref >>> 32) - 1].duplicate();
+                    page.position((int)ref);
+                    prefixes[n] = new byte[Math.min(prefixLength, page.getInt())];
+                    page.get(prefixes[n]);
+                    ++n;
+                }
+            }
+            return new ArrayLongEntryIterator(keys, prefixes);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return direct memory allocated for index and values in bytes
+     */
+    public long getMemoryUsed() {
+        lock.readLock().lock();
+        try {
+            long total = table.capacity();
+            for(int i = 0; i != pageCount; ++i) {
+                total += pages[i].capacity();
+            }
+            return total;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long refAt(int slot) {
+        return table.getLong(slot * SLOT_SIZE + REF_OFFSET);
+    }
+
+    private void setRef(int slot, long ref) {
+        table.putLong(slot * SLOT_SIZE + REF_OFFSET, ref);
+    }
+
+    private int find(long key) {
+        int mask = capacity - 1;
+        for(int slot = LongHash.hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long ref = refAt(slot);
+            if (ref == EMPTY) {
+                return -1;
+            }
+            else if (ref != REMOVED && table.getLong(slot * SLOT_SIZE) == key) {
+                return slot;
+            }
+        }
+    }
+
+    private void rehash() {
+        ByteBuffer oldTable = table;
+        int oldCapacity = capacity;
+        // table mostly filled with tombstones is rebuilt without growing
+        initTable(Math.max(initialCapacity, LongHash.tableSize(2 * size)));
+        int mask = capacity - 1;
+        for(int i = 0; i != oldCapacity; ++i) {
+            long ref = oldTable.getLong(i * SLOT_SIZE + REF_OFFSET);
+            if (ref != EMPTY && ref != REMOVED) {
+                long key = oldTable.getLong(i * SLOT_SIZE);
+                int slot = LongHash.hash(key) & mask;
+                while(refAt(slot) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table.putLong(slot * SLOT_SIZE, key);
+                setRef(slot, ref);
+                ++size;
+                ++used;
+            }
+        }
+    }
+
+    private long append(byte[] value, int offset, int length) {
+        int chunk = 4 + length;
+        int page;
+        int pos;
+        if (chunk > pageSize) {
+            // dedicated page, current write page stays in use
+            page = addPage(chunk);
+            pos = 0;
+        }
+        else {
+            if (writePage < 0 || writeOffset + chunk > pageSize) {
+                writePage = addPage(pageSize);
+                writeOffset = 0;
+            }
+            page = writePage;
+            pos = writeOffset;
+            writeOffset += chunk;
+        }
+        ByteBuffer bb = pages[page].duplicate();
+        bb.position(pos);
+        bb.putInt(length);
+        bb.put(value, offset, length);
+        writtenBytes += chunk;
+        liveBytes += chunk;
+        return ((long)(page + 1)) << 32 | pos;
+    }
+
+    private int addPage(int size) {
+        if (pageCount == pages.length) {
+            ByteBuffer[] np = new ByteBuffer[2 * pages.length];
+            System.arraycopy(pages, 0, np, 0, pageCount);
+            pages = np;
+        }
+        pages[pageCount] = ByteBuffer.allocateDirect(size);
+        return pageCount++;
+    }
+
+    private void release(long ref) {
+        liveBytes -= 4 + pages[(int)(ref >>> 32) - 1].getInt((int)ref);
+    }
+
+    /**
+     * Copies live values to fresh pages, old pages are reclaimed by GC.
+     */
+    private void compact() {
+        ByteBuffer[] oldPages = pages;
+        initPages();
+        byte[] buf = new byte[256];
+        for(int i = 0; i != capacity; ++i) {
+            long ref = refAt(i);
+            if (ref != EMPTY && ref != REMOVED) {
+                ByteBuffer page = oldPages[(int)(ref >>> 32) - 1];
+                int pos = (int)ref;
+                int len = page.getInt(pos);
+                if (buf.length < len) {
+                    buf = new byte[Math.max(len, 2 * buf.length)];
+                }
+                ByteBuffer bb = page.duplicate();
+                bb.position(pos + 4);
+                bb.get(buf, 0, len);
+                setRef(i, append(buf, 0, len));
+            }
+        }
+    }
+
+    static class ArrayLongEntryIterator implements LongEntryIterator {
+
+        private final long[] keys;
+        private final byte[][] prefixes;
+        private int n;
+
+        public ArrayLongEntryIterator(long[] keys, byte[][] prefixes) {
+            this.keys = keys;
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return n < keys.length;
+        }
+
+        @Override
+        public long next() {
+            if (n >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            return keys[n++];
+        }
+
+        @Override
+        public byte[] valuePrefix() {
+            if (n == 0) {
+                throw new IllegalStateException("Before start");
+            }
+            return prefixes[n - 1];
+        }
+    }
+}